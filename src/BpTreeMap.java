@@ -8,6 +8,7 @@
 import java.io.*;
 import java.lang.reflect.Array;
 import java.util.*;
+import java.util.function.BiConsumer;
 
 import static java.lang.Math.addExact;
 import static java.lang.Math.ceil;
@@ -19,7 +20,13 @@ import static java.lang.System.out;
  * All keys will be at the leaf level with leaf nodes linked by references.
  * Internal nodes will contain divider keys such that each divider key corresponds to
  * the largest key in its left subtree (largest left).  Keys in left subtree are "<=",
- * while keys in right subtree are ">".
+ * while keys in right subtree are ">".  When leaves are split, the divider is instead
+ * the shortest key that still separates them (suffix truncation, e.g., "Sta" between
+ * "Rocky" and "Star_Wars"), so that internal nodes hold short keys that are quick to
+ * compare.  Leaves are also linked back to their previous
+ * leaf, so that the map may be navigated and scanned in either direction.
+ * Keys are unique; for a non-unique (secondary) index, the values are PostingLists
+ * of row references, added to with add.
  */
 
 /**
@@ -28,24 +35,32 @@ import static java.lang.System.out;
  */
 public class BpTreeMap <K extends Comparable <K>, V>
        extends AbstractMap <K, V>
-       implements Serializable, Cloneable, SortedMap <K, V>
+       implements Serializable, Cloneable, NavigableMap <K, V>
 {
-    /** The debug flag
+    /** The debug flag (print the tree in main)
      */
-    private static final boolean DEBUG = true;
+    private static final boolean DEBUG = false;
+
+    /** The default maximum fanout (number of children) for a B+Tree node.
+     */
+    public static final int DEFAULT_ORDER = 5;
+
+    /** A maximum fanout sized so that a node's keys and references fill a 4 KB page
+     *  (a key and a reference taking about 16 bytes), for large indices.
+     */
+    public static final int PAGE_ORDER = 4096 / 16;
 
     /** The maximum fanout (number of children) for a B+Tree node.
-     *  May wish to increase for better performance for Program 3.
      */
-    private static final int ORDER = 5;
+    private final int order;
 
-    /** The maximum fanout (number of children) for a big B+Tree node.
+    /** The ceiling of half the order (number of keys kept in a split node).
      */
-    private static final int BORDER = ORDER + 1;
+    private final int half;
 
-    /** The ceiling of half the ORDER.
+    /** The default fraction of each node filled by bulk loading.
      */
-    private static final int MID = (int) ceil (ORDER / 2.0);
+    public static final double FILL_FACTOR = 0.9;
 
     /** The class for type K.
      */
@@ -64,6 +79,7 @@ public class BpTreeMap <K extends Comparable <K>, V>
         int       nKeys;                              // number of active keys
         K []      key;                                // array of keys
         Object [] ref;                                // array of references/pointers
+        Node      prev;                               // the previous leaf (leaves only)
 
         /****************************************************************************
          * Construct a node.
@@ -97,14 +113,19 @@ public class BpTreeMap <K extends Comparable <K>, V>
         } // copy
 
         /****************************************************************************
-         * Find the "<=" match position in this node.
+         * Find the "<=" match position in this node using binary search, i.e., the
+         * first key that is at least k.
          * @param k  the key to be matched.
          * @return  the position of match within node, where nKeys indicates no match
          */
         int find (K k)
         {
-            for (int i  = 0; i < nKeys; i++) if (k.compareTo (key[i]) <= 0) return i;
-            return nKeys;
+            int lo = 0, hi = nKeys;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (k.compareTo (key[mid]) <= 0) hi = mid; else lo = mid + 1;
+            } // while
+            return lo;
         } // find
 
         /****************************************************************************
@@ -124,15 +145,24 @@ public class BpTreeMap <K extends Comparable <K>, V>
 
     /** The first (leftmost) leaf in the B+Tree
      */
-    private final Node firstLeaf;
+    private Node firstLeaf;
 
     /** A big node to hold all keys and references/pointers before splitting
      */
     private final Node bn;
 
-    /** Flag indicating whether a split at the level below has occurred that needs to be handled
+    /** The minimum number of keys in a leaf and in an internal node other than the root
+     *  (the sizes of the smaller halves of a split)
+     */
+    private final int minLeaf, minInner;
+
+    /** The divider key for the right sibling returned by the last split
      */
-    private boolean hasSplit = false;
+    private K divider;
+
+    /** The value previously associated with the key being put or removed (null if none)
+     */
+    private V previous;
 
     /** The counter for the number nodes accessed (for performance testing)
      */
@@ -142,18 +172,40 @@ public class BpTreeMap <K extends Comparable <K>, V>
      */
     private int keyCount = 0;
 
+    /** The number of structural modifications (keys added), used to detect changes
+     *  to the map while iterating over it
+     */
+    private int modCount = 0;
+
     /********************************************************************************
-     * Construct an empty B+Tree map.
+     * Construct an empty B+Tree map with the default order.
      * @param _classK  the class for keys (K)
      * @param _classV  the class for values (V)
      */
     public BpTreeMap (Class <K> _classK, Class <V> _classV)
     {
+        this (_classK, _classV, DEFAULT_ORDER);
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty B+Tree map with the given order (maximum fanout), e.g., sized
+     * so that a node fits in a page or a few cache lines.
+     * @param _classK  the class for keys (K)
+     * @param _classV  the class for values (V)
+     * @param _order   the maximum number of children of a node (at least 3)
+     */
+    public BpTreeMap (Class <K> _classK, Class <V> _classV, int _order)
+    {
+        if (_order < 3) throw new IllegalArgumentException ("BpTreeMap: order must be at least 3");
         classK    = _classK;
         classV    = _classV;
-        root      = new Node (ORDER, true);
+        order     = _order;
+        half      = (int) ceil (order / 2.0);
+        minLeaf   = order - half;
+        minInner  = Math.max (1, order - half - 1);
+        root      = new Node (order, true);
         firstLeaf = root;
-        bn        = new Node (BORDER, true);
+        bn        = new Node (order + 1, true);
     } // constructor
 
     /********************************************************************************
@@ -166,56 +218,34 @@ public class BpTreeMap <K extends Comparable <K>, V>
     } // comparator
 
     /********************************************************************************
-     * Return a set containing all the entries as pairs of keys and values.
+     * Return a set containing all the entries as pairs of keys and values.  The set is
+     * a view scanned in key order along the leaf chain.
      * @return  the set view of the map
      */
     public Set <Map.Entry <K, V>> entrySet ()
     {
-        Set <Map.Entry <K, V>> enSet = new HashSet <> ();
-
-        //TODO 1   I M P L E M E N T E D
-        addEntry(root, enSet);
-        return enSet;
+        return new SubMap (null, true, null, true, false).entrySet ();
     } // entrySet
 
-    private void addEntry(Node n, Set <Map.Entry<K, V>> sets){
-        if(n.isLeaf){
-            for(int i = 0; i < n.nKeys; i++) {
-                sets.add(new MyEntry <> (n.key[i], (V)n.ref[i]));
-            }
-        }else{
-            for (int i = 0; i < n.nKeys + 1; i++) {
-                addEntry((Node) n.ref[i] , sets);
-            }
-        }
-    }
-
-    private class MyEntry<K, V> implements Entry<K, V> {
-
-        private K key;
-        private V value;
-
-        public MyEntry(K k, V v){
-            key = k;
-            value = v;
-        }
-        @Override
-        public K getKey() {
-            return key;
-        }
-
-        @Override
-        public V getValue() {
-            return value;
-        }
+    /********************************************************************************
+     * Return a collection view of the values, in key order, read straight from the
+     * leaves.
+     * @return  the collection view of the values
+     */
+    public Collection <V> values ()
+    {
+        return new SubMap (null, true, null, true, false).values ();
+    } // values
 
-        @Override
-        public V setValue(V value) {
-            V oldval = this.value;
-            this.value = value;
-            return oldval;
-        }
-    }
+    /********************************************************************************
+     * Apply the action to each key and value in key order, walking the leaves without
+     * allocating an entry per key.
+     * @param action  the action to apply to each key-value pair
+     */
+    public void forEach (BiConsumer <? super K, ? super V> action)
+    {
+        new SubMap (null, true, null, true, false).forEach (action);
+    } // forEach
 
     /********************************************************************************
      * Given the key, look up the value in the B+Tree map.
@@ -229,111 +259,305 @@ public class BpTreeMap <K extends Comparable <K>, V>
     } // get
 
     /********************************************************************************
-     * Put the key-value pair in the B+Tree map.
+     * Remove the key (and its value) from the B+Tree map.  Nodes left less than half
+     * full borrow from or merge with a sibling, and the root is removed when it has a
+     * single child, so the tree stays balanced.
+     * @param key  the key to remove
+     * @return  the value that was associated with the key, or null if none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove (Object key)
+    {
+        previous = null;
+        delete ((K) key, root);
+        if (! root.isLeaf && root.nKeys == 0) root = (Node) root.ref[0];   // shrink: drop the root
+        return previous;
+    } // remove
+
+    /********************************************************************************
+     * Determine whether the B+Tree map contains the key (by descending to its leaf).
+     * @param key  the key to look for
+     * @return  whether the key is present
+     */
+    @SuppressWarnings("unchecked")
+    public boolean containsKey (Object key)
+    {
+        int [] slot = new int [1];
+        Node   leaf = seek ((K) key, true, slot);
+        return leaf != null && ((K) key).compareTo (leaf.key[slot[0]]) == 0;
+    } // containsKey
+
+    /********************************************************************************
+     * Put the key-value pair in the B+Tree map, replacing the value of an existing key.
      * @param key    the key to insert
      * @param value  the value to insert
-     * @return  null, not the previous value for this key
+     * @return  the previous value for this key, or null if none
      */
     public V put (K key, V value)
     {
-        insert (key, value, root);
-        return null;
+        previous = null;
+        Node rt = insert (key, value, root);
+        if (rt != null) root = makeRoot (root, divider, rt);               // root was split
+        return previous;
     } // put
 
+    /********************************************************************************
+     * Add the row reference to the posting list of the key, for a multi-value
+     * (non-unique) map whose values are PostingLists, e.g., an index on a foreign key.
+     * @param key  the key (which many rows may share)
+     * @param row  the row (tuple number) to add
+     */
+    public void add (K key, int row)
+    {
+        if (classV != PostingList.class) throw new UnsupportedOperationException ("BpTreeMap.add: values are not posting lists");
+        V list = get (key);
+        if (list == null) put (key, list = classV.cast (new PostingList ()));
+        ((PostingList) list).add (row);
+    } // add
+
+    /********************************************************************************
+     * Remove the row reference from the posting list of the key in a multi-value map,
+     * removing the key once its list is empty.
+     * @param key  the key
+     * @param row  the row (tuple number) to remove
+     * @return  whether the row was found
+     */
+    public boolean removeRow (K key, int row)
+    {
+        if (classV != PostingList.class) throw new UnsupportedOperationException ("BpTreeMap.removeRow: values are not posting lists");
+        PostingList list = (PostingList) get (key);
+        if (list == null || ! list.remove (row)) return false;
+        if (list.isEmpty ()) remove (key);
+        return true;
+    } // removeRow
+
+    /********************************************************************************
+     * Load the entries into this empty B+Tree map bottom-up in a single pass: the
+     * leaves are filled in order up to the fill factor and linked, then each level of
+     * internal nodes is built over the level below, until a single root remains.
+     * @param sorted  the entries in strictly increasing order of keys
+     * @param fill    the fraction of each node to fill (0 < fill <= 1)
+     */
+    @SuppressWarnings("unchecked")
+    public void bulkLoad (Iterator <? extends Map.Entry <K, V>> sorted, double fill)
+    {
+        if (keyCount > 0) throw new IllegalStateException ("BpTreeMap.bulkLoad: map is not empty");
+        if (fill <= 0.0 || fill > 1.0) throw new IllegalArgumentException ("BpTreeMap.bulkLoad: bad fill factor " + fill);
+        int perLeaf = Math.max (1, Math.min (order - 1, (int) Math.round (fill * (order - 1))));
+        int perNode = Math.max (2, Math.min (order, (int) Math.round (fill * order)));
+
+        List <Node> level = new ArrayList <> ();                       // nodes of the current level
+        List <K>    high  = new ArrayList <> ();                       // divider after each node
+        Node        leaf  = null;
+        K           prev  = null;
+        while (sorted.hasNext ()) {
+            Map.Entry <K, V> e = sorted.next ();
+            K k = e.getKey ();
+            if (prev != null && prev.compareTo (k) >= 0) {
+                throw new IllegalArgumentException ("BpTreeMap.bulkLoad: keys not increasing at " + k);
+            } // if
+            if (leaf == null || leaf.nKeys == perLeaf) {               // start the next leaf
+                Node next = new Node (order, true);
+                if (leaf != null) {
+                    leaf.ref[leaf.nKeys] = next;                       // link leaf to next leaf
+                    next.prev = leaf;
+                    high.add (separator (prev, k));                   // shortest divider between leaves
+                } // if
+                level.add (next);
+                leaf = next;
+            } // if
+            leaf.key[leaf.nKeys]   = k;
+            leaf.ref[leaf.nKeys++] = e.getValue ();
+            prev = k;
+            keyCount++;
+        } // while
+        modCount++;
+        if (leaf == null) return;
+        high.add (prev);
+        firstLeaf = level.get (0);
+
+        while (level.size () > 1) {                                    // build the next level up
+            List <Integer> groups = new ArrayList <> ();
+            for (int left = level.size (); left > 0; left -= perNode) groups.add (Math.min (perNode, left));
+            int last = groups.size () - 1;
+            if (last > 0 && groups.get (last) == 1) {                  // avoid a node with one child
+                if (groups.get (last - 1) < order) {
+                    groups.set (last - 1, groups.get (last - 1) + 1);
+                    groups.remove (last);
+                } else {
+                    int both = groups.get (last - 1) + 1;
+                    groups.set (last - 1, both - both / 2);
+                    groups.set (last, both / 2);
+                } // if
+            } // if
+
+            List <Node> parents = new ArrayList <> ();
+            List <K>    highs   = new ArrayList <> ();
+            int c = 0;
+            for (int g : groups) {
+                Node n = new Node (order, false);
+                for (int i = 0; i < g; i++, c++) {
+                    n.ref[i] = level.get (c);
+                    if (i < g - 1) n.key[i] = high.get (c);            // divider - largest left
+                } // for
+                n.nKeys = g - 1;
+                parents.add (n);
+                highs.add (high.get (c - 1));
+            } // for
+            level = parents;
+            high  = highs;
+        } // while
+        root = level.get (0);
+    } // bulkLoad
+
     /********************************************************************************
      * Return the first (smallest) key in the B+Tree map.
      * @return  the first key in the B+Tree map.
      */
     public K firstKey ()
     {
+        if (keyCount == 0) throw new NoSuchElementException ("BpTreeMap.firstKey: map is empty");
         return firstLeaf.key[0];
     } // firstKey
 
     /********************************************************************************
-     * Return the last (largest) key in the B+Tree map.
+     * Return the last (largest) key in the B+Tree map, found by descending along the
+     * rightmost references.
      * @return  the last key in the B+Tree map.
      */
+    @SuppressWarnings("unchecked")
     public K lastKey ()
     {
-        //TODO 2  I M P L E M E N T E D
-        K lastKey = firstKey();
-        Set set = entrySet();
+        if (keyCount == 0) throw new NoSuchElementException ("BpTreeMap.lastKey: map is empty");
+        Node n = root;
+        while (! n.isLeaf) n = (Node) n.ref[n.nKeys];
+        return n.key[n.nKeys-1];
+    } // lastKey
 
-        // Get an iterator
-        Iterator i = set.iterator();
+    /********************************************************************************
+     * Return the entries with the first (smallest) and last (largest) keys, or null if
+     * the map is empty.
+     * @return  the first or last entry
+     */
+    public Map.Entry <K, V> firstEntry () { return above (null, true); }
+    public Map.Entry <K, V> lastEntry ()  { return below (null, true); }
 
-        // find largest key
-        while(i.hasNext()) {
-            Map.Entry me = (Map.Entry)i.next();
-            if(lastKey.compareTo((K) me.getKey()) < 0)
-                lastKey = (K) me.getKey();
-        }
-        return lastKey;
-    } // lastKey
+    /********************************************************************************
+     * Return the entry with the smallest key greater than or equal to (ceiling) or
+     * greater than (higher) the given key, or null if there is none.  The leaf holding
+     * it is found by a single descent.
+     * @param key  the key to compare with
+     * @return  the matching entry or null
+     */
+    public Map.Entry <K, V> ceilingEntry (K key) { return above (key, true); }
+    public Map.Entry <K, V> higherEntry (K key)  { return above (key, false); }
 
     /********************************************************************************
-     * Return the portion of the B+Tree map where key < toKey.
-     * @return  the submap with keys in the range [firstKey, toKey)
+     * Return the entry with the largest key less than or equal to (floor) or less than
+     * (lower) the given key, or null if there is none.  A single descent finds the
+     * following key, from which the back-link to the previous leaf is followed if
+     * needed.
+     * @param key  the key to compare with
+     * @return  the matching entry or null
      */
-    public SortedMap <K,V> headMap (K toKey)
+    public Map.Entry <K, V> floorEntry (K key) { return below (key, true); }
+    public Map.Entry <K, V> lowerEntry (K key) { return below (key, false); }
+
+    /********************************************************************************
+     * Return the keys of the entries matched by the corresponding entry methods.
+     * @param key  the key to compare with
+     * @return  the matching key or null
+     */
+    public K ceilingKey (K key) { return keyOrNull (above (key, true)); }
+    public K higherKey (K key)  { return keyOrNull (above (key, false)); }
+    public K floorKey (K key)   { return keyOrNull (below (key, true)); }
+    public K lowerKey (K key)   { return keyOrNull (below (key, false)); }
+
+    /********************************************************************************
+     * Remove and return the entry with the first (smallest) or last (largest) key, or
+     * return null if the map is empty.
+     * @return  the removed entry or null
+     */
+    public Map.Entry <K, V> pollFirstEntry () { return poll (firstEntry ()); }
+    public Map.Entry <K, V> pollLastEntry ()  { return poll (lastEntry ()); }
+
+    /********************************************************************************
+     * Return a reverse order view of the map, scanned backward along the leaf chain.
+     * @return  the descending map
+     */
+    public NavigableMap <K, V> descendingMap ()
     {
-        //TODO 3  I M P L E M E N T E D
-        BpTreeMap<K, V> headbpt = new BpTreeMap<>( classK, classV);
-        Set set = entrySet();
-        Iterator i = set.iterator();
+        return new SubMap (null, true, null, true, true);
+    } // descendingMap
 
-        // find largest key
-        while(i.hasNext()) {
-            Map.Entry me = (Map.Entry) i.next();
-            if (toKey.compareTo((K) me.getKey()) > 0)
-                headbpt.put((K) me.getKey(), (V) me.getValue());
+    /********************************************************************************
+     * Return a navigable set view of the keys in ascending or descending order.
+     * @return  the set view of the keys
+     */
+    public NavigableSet <K> keySet ()            { return navigableKeySet (); }
+    public NavigableSet <K> navigableKeySet ()   { return new KeySet (new SubMap (null, true, null, true, false)); }
+    public NavigableSet <K> descendingKeySet ()  { return new KeySet (descendingMap ()); }
 
-        }
+    /********************************************************************************
+     * Return the portion of the B+Tree map where key < toKey.  The submap is a view
+     * backed by this map that is scanned lazily along the leaf chain.
+     * @return  the submap with keys in the range [firstKey, toKey)
+     */
+    public SortedMap <K,V> headMap (K toKey)
+    {
+        return headMap (toKey, false);
+    } // headMap
 
-        return headbpt;
+    /********************************************************************************
+     * Return the portion of the B+Tree map where key < toKey (or key <= toKey if
+     * inclusive).
+     * @return  the submap with keys up to toKey
+     */
+    public NavigableMap <K,V> headMap (K toKey, boolean inclusive)
+    {
+        return new SubMap (null, true, toKey, inclusive, false);
     } // headMap
 
     /********************************************************************************
-     * Return the portion of the B+Tree map where fromKey <= key.
+     * Return the portion of the B+Tree map where fromKey <= key.  The submap is a view
+     * backed by this map that is scanned lazily along the leaf chain.
      * @return  the submap with keys in the range [fromKey, lastKey]
      */
     public SortedMap <K,V> tailMap (K fromKey)
     {
-        //TODO 4  I M P L E M E N T E D
-        BpTreeMap<K, V> tailbpt = new BpTreeMap<>( classK, classV);
-        Set set = entrySet();
-        Iterator i = set.iterator();
-
-        // find largest key
-        while(i.hasNext()) {
-            Map.Entry me = (Map.Entry)i.next();
-            if(fromKey.compareTo((K) me.getKey()) <= 0)
-                tailbpt.put((K) me.getKey(),(V) me.getValue());
-        }
+        return tailMap (fromKey, true);
+    } // tailMap
 
-        return tailbpt;
+    /********************************************************************************
+     * Return the portion of the B+Tree map where fromKey <= key (or fromKey < key if
+     * not inclusive).
+     * @return  the submap with keys from fromKey on
+     */
+    public NavigableMap <K,V> tailMap (K fromKey, boolean inclusive)
+    {
+        return new SubMap (fromKey, inclusive, null, true, false);
     } // tailMap
 
     /********************************************************************************
      * Return the portion of the B+Tree map whose keys are between fromKey and toKey,
-     * i.e., fromKey <= key < toKey.
+     * i.e., fromKey <= key < toKey.  The submap is a view backed by this map that is
+     * scanned lazily along the leaf chain.
      * @return  the submap with keys in the range [fromKey, toKey)
      */
     public SortedMap <K,V> subMap (K fromKey, K toKey)
     {
-        //TODO 5   I M P L E M E N T E D
-        BpTreeMap<K, V> midbpt = new BpTreeMap<>( classK, classV);
-        Set set = entrySet();
-        Iterator i = set.iterator();
-
-        // find largest key
-        while(i.hasNext()) {
-            Map.Entry me = (Map.Entry)i.next();
-            if(fromKey.compareTo((K) me.getKey()) <= 0 && toKey.compareTo((K) me.getKey()) > 0)
-                midbpt.put((K) me.getKey(),(V) me.getValue());
-        }
+        return subMap (fromKey, true, toKey, false);
+    } // subMap
 
-        return midbpt;
+    /********************************************************************************
+     * Return the portion of the B+Tree map whose keys are between fromKey and toKey,
+     * where each bound is open or closed.
+     * @return  the submap with keys between fromKey and toKey
+     */
+    public NavigableMap <K,V> subMap (K fromKey, boolean fromInclusive, K toKey, boolean toInclusive)
+    {
+        if (fromKey.compareTo (toKey) > 0) throw new IllegalArgumentException ("BpTreeMap.subMap: fromKey > toKey");
+        return new SubMap (fromKey, fromInclusive, toKey, toInclusive, false);
     } // subMap
 
     /********************************************************************************
@@ -387,61 +611,195 @@ public class BpTreeMap <K extends Comparable <K>, V>
     } // find
 
     /********************************************************************************
-     * Recursive helper function for inserting a key in B+trees.
+     * Recursive helper function for inserting a key in B+trees.  If the key is already
+     * present, its value is replaced (and saved in previous).
      * @param key  the key to insert
      * @param ref  the value/node to insert
      * @param n    the current node
-     * @return  the newly allocated right sibling node of n
+     * @return  the newly allocated right sibling node of n (with its divider key in
+     *          divider), or null if n was not split
      */
     @SuppressWarnings("unchecked")
     private Node insert (K key, V ref, Node n)
     {
-//        out.println ("=============================================================");
-//        out.println ("insert: key = " + key);
-//        out.println ("=============================================================");
-
-        Node rt = null;                                                      // holder for right sibling
+        int i = n.find (key);                                                // find "<=" position
 
         if (n.isLeaf) {                                                      // handle leaf node level
-
-            if (n.nKeys < ORDER - 1) {                                       // current node is not full
-                wedge (key, ref, n, n.find (key), true);                     // wedge (key, ref) pair in at position i
-            } else {                                                         // current node is full
-                rt = split (key, ref, n, true);                              // split current node, return right sibling
-                n.ref[n.nKeys] = rt;                                         // link leaf n to leaf rt
-                if (n == root && rt != null) {
-                    root = makeRoot (n, n.key[n.nKeys-1], rt);               // make a new root
-                } else if (rt != null) {
-                    hasSplit = true;                                         // indicate an unhandled split
-                } // if
+            if (i < n.nKeys && key.compareTo (n.key[i]) == 0) {              // existing key: replace value
+                previous = (V) n.ref[i];
+                n.ref[i] = ref;
+                return null;
             } // if
+            keyCount++;
+            modCount++;
+            if (n.nKeys < order - 1) {                                       // current node is not full
+                wedge (key, ref, n, i, true);                                // wedge (key, ref) pair in at position i
+                return null;
+            } // if
+            Node rt = split (key, ref, n, true);                             // split current node, return right sibling
+            Node after = (Node) rt.ref[rt.nKeys];                            // the leaf that followed n
+            n.ref[n.nKeys] = rt;                                             // link leaf n to leaf rt
+            rt.prev = n;
+            if (after != null) after.prev = rt;
+            return rt;
+        } // if
 
-        } else {                                                             // handle internal node level
+        Node rt = insert (key, ref, (Node) n.ref[i]);                        // recursive call to insert
+        if (rt == null) return null;                                         // no split below
+        if (n.nKeys < order - 1) {                                           // current node is not full
+            wedge (divider, rt, n, i, false);                                // wedge divider and right child in
+            return null;
+        } // if
+        return split (divider, rt, n, false);                                // split current node
+    } // insert
 
-            int i = n.find (key);                                            // find "<=" position
-            rt = insert (key, ref, (Node) n.ref[i]);                         // recursive call to insert
-//            if (DEBUG) out.println ("insert: handle internal node level");
-                //TODO 6   I M P L E M E N T E D
-            Node lnode = (Node) n.ref[i];
-            if(rt == null) {
-                return null;
-            }
-                if (n.nKeys < ORDER - 1) {            // if the node is not full call wedge
-                    wedge(lnode.key[lnode.nKeys-1], rt, n, i, false);
-                } else {
-                    Node nrt = split(lnode.key[lnode.nKeys-1], rt, n, false);
-                    if(n == root && nrt != null){
-                        root = makeRoot(n, n.key[n.nKeys-1], nrt);
-                        return null;
-                    }
-                }
+    /********************************************************************************
+     * Recursive helper function for deleting a key from B+trees.  Divider keys are left
+     * in place when the key they equal is deleted, as they still separate the subtrees.
+     * @param key  the key to delete
+     * @param n    the current node
+     * @return  whether node n is left with too few keys (underflow)
+     */
+    @SuppressWarnings("unchecked")
+    private boolean delete (K key, Node n)
+    {
+        int i = n.find (key);
 
+        if (n.isLeaf) {
+            if (i == n.nKeys || key.compareTo (n.key[i]) != 0) return false;   // key not found
+            previous = (V) n.ref[i];
+            for (int j = i; j < n.nKeys - 1; j++) { n.key[j] = n.key[j+1]; n.ref[j] = n.ref[j+1]; }
+            n.ref[n.nKeys-1] = n.ref[n.nKeys];                               // keep the link to the next leaf
+            n.key[n.nKeys-1] = null;
+            n.ref[n.nKeys]   = null;
+            n.nKeys--;
+            keyCount--;
+            modCount++;
+            return n.nKeys < minLeaf;
+        } // if
+
+        if (! delete (key, (Node) n.ref[i])) return false;                    // no underflow below
+        rebalance (n, i);
+        return n.nKeys < minInner;
+    } // delete
+
+    /********************************************************************************
+     * Fix the underflow of the i-th child of node p by borrowing a key from a sibling
+     * that has more than the minimum, or otherwise by merging it with a sibling.
+     * @param p  the parent node
+     * @param i  the position of the child that underflowed
+     */
+    private void rebalance (Node p, int i)
+    {
+        Node c     = (Node) p.ref[i];
+        Node left  = (i > 0) ? (Node) p.ref[i-1] : null;
+        Node right = (i < p.nKeys) ? (Node) p.ref[i+1] : null;
+        int  min   = c.isLeaf ? minLeaf : minInner;
+
+        if (left != null && left.nKeys > min)        borrowLeft (p, i, left, c);
+        else if (right != null && right.nKeys > min) borrowRight (p, i, c, right);
+        else if (left != null)                       merge (p, i-1, left, c);
+        else if (right != null)                      merge (p, i, c, right);
+    } // rebalance
 
+    /********************************************************************************
+     * Move the last key (and reference) of the left sibling to the front of node c,
+     * updating the divider key between them.
+     * @param p     the parent node
+     * @param i     the position of c in p
+     * @param left  the left sibling of c
+     * @param c     the node that underflowed
+     */
+    private void borrowLeft (Node p, int i, Node left, Node c)
+    {
+        int l = left.nKeys;
+        c.ref[c.nKeys+1] = c.ref[c.nKeys];                                   // shift right to make room
+        for (int j = c.nKeys; j > 0; j--) { c.key[j] = c.key[j-1]; c.ref[j] = c.ref[j-1]; }
+        if (c.isLeaf) {
+            c.key[0]      = left.key[l-1];
+            c.ref[0]      = left.ref[l-1];
+            left.ref[l-1] = left.ref[l];                                     // keep the link to c
+            p.key[i-1]    = separator (left.key[l-2], c.key[0]);             // divider - shortest separator
+        } else {
+            c.key[0]      = p.key[i-1];                                      // old divider comes down
+            c.ref[0]      = left.ref[l];
+            p.key[i-1]    = left.key[l-1];                                   // last key of left goes up
         } // if
+        left.key[l-1] = null;
+        left.ref[l]   = null;
+        left.nKeys--;
+        c.nKeys++;
+    } // borrowLeft
 
-        if (DEBUG) print (root, 0);
-        return rt;                                                           // return right node
-    } // insert
+    /********************************************************************************
+     * Move the first key (and reference) of the right sibling to the end of node c,
+     * updating the divider key between them.
+     * @param p      the parent node
+     * @param i      the position of c in p
+     * @param c      the node that underflowed
+     * @param right  the right sibling of c
+     */
+    private void borrowRight (Node p, int i, Node c, Node right)
+    {
+        if (c.isLeaf) {
+            c.ref[c.nKeys+1] = c.ref[c.nKeys];                               // keep the link to right
+            c.key[c.nKeys]   = right.key[0];
+            c.ref[c.nKeys]   = right.ref[0];
+            p.key[i]         = separator (right.key[0], right.key[1]);       // divider - shortest separator
+        } else {
+            c.key[c.nKeys]   = p.key[i];                                     // old divider comes down
+            c.ref[c.nKeys+1] = right.ref[0];
+            p.key[i]         = right.key[0];
+        } // if
+        c.nKeys++;
+        for (int j = 0; j < right.nKeys - 1; j++) { right.key[j] = right.key[j+1]; right.ref[j] = right.ref[j+1]; }
+        right.ref[right.nKeys-1] = right.ref[right.nKeys];
+        right.ref[right.nKeys]   = null;
+        right.key[right.nKeys-1] = null;
+        right.nKeys--;
+    } // borrowRight
+
+    /********************************************************************************
+     * Merge node b into its left sibling a and remove b (and the divider key between
+     * them) from the parent.  For leaves, the leaf links skip over b.
+     * @param p  the parent node
+     * @param j  the position of the divider key between a and b in p
+     * @param a  the left node
+     * @param b  the right node
+     */
+    private void merge (Node p, int j, Node a, Node b)
+    {
+        int k = a.nKeys;
+        if (! a.isLeaf) a.key[k++] = p.key[j];                               // divider comes down
+        for (int m = 0; m < b.nKeys; m++, k++) { a.key[k] = b.key[m]; a.ref[k] = b.ref[m]; }
+        a.ref[k] = b.ref[b.nKeys];                                           // last child, or next leaf link
+        a.nKeys  = k;
+        if (a.isLeaf && a.ref[k] != null) ((Node) a.ref[k]).prev = a;
+
+        for (int m = j; m < p.nKeys - 1; m++) { p.key[m] = p.key[m+1]; p.ref[m+1] = p.ref[m+2]; }
+        p.key[p.nKeys-1] = null;
+        p.ref[p.nKeys]   = null;
+        p.nKeys--;
+    } // merge
+
+    /********************************************************************************
+     * Return the shortest divider key between two adjacent leaves: a key at least the
+     * largest key on the left and less than the smallest key on the right.  Keys that
+     * are KeyTypes or Strings are truncated; others use the largest left key.
+     * @param left   the largest key in the left leaf
+     * @param right  the smallest key in the right leaf
+     * @return  the divider key
+     */
+    @SuppressWarnings("unchecked")
+    private K separator (K left, K right)
+    {
+        if (left instanceof KeyType) return (K) KeyType.separator ((KeyType) left, (KeyType) right);
+        if (left instanceof String) {
+            String s = KeyType.separator ((String) left, (String) right);
+            return (s.length () < ((String) left).length () && ! s.equals (right)) ? (K) s : left;
+        } // if
+        return left;
+    } // separator
 
     /********************************************************************************
      * Make a new root, linking to left and right child node, separated by a divider key.
@@ -452,7 +810,7 @@ public class BpTreeMap <K extends Comparable <K>, V>
      */
     private Node makeRoot (Node ref0, K key0, Node ref1)
     {
-        Node nr   = new Node (ORDER, false);                          // make a node to become the new root
+        Node nr   = new Node (order, false);                          // make a node to become the new root
         nr.nKeys  = 1;
         nr.ref[0] = ref0;                                             // reference to left node
         nr.key[0] = key0;                                             // divider key - largest left
@@ -488,24 +846,550 @@ public class BpTreeMap <K extends Comparable <K>, V>
 
     /********************************************************************************
      * Split node n and return the newly created right sibling node rt.  The bigger half
-     * should go in the current node n, with the remaining going in rt.
-     * @param key  the new key to insert
-     * @param ref  the new value/node to insert
-     * @param n    the current node
-     * @return  the right sibling node, if allocated, else null
+     * should go in the current node n, with the remaining going in rt.  For a leaf, the
+     * divider is the largest key left in n; for an internal node, the middle key moves
+     * up as the divider (leaving rt at least one key, even for order 3).
+     * @param key   the new key to insert
+     * @param ref   the new value/node to insert
+     * @param n     the current node
+     * @param left  whether the new ref goes to the left of the key (leaf)
+     * @return  the right sibling node (with its divider key in divider)
      */
     private Node split (K key, Object ref, Node n, boolean left)
     {
-        bn.copy (n, 0, ORDER-1);                                          // copy n into big node
-        if (wedge (key, ref, bn, bn.find (key), left)) {                  // if wedge (key, ref) into big node was successful
-            n.copy (bn, 0, MID);                                          // copy back first half to node n
-            Node rt = new Node (ORDER, n.isLeaf);                         // make a right sibling node (rt)
-            rt.copy (bn, MID, ORDER-MID);                                 // copy second to node rt
-            return rt;                                                    // return right sibling
+        bn.copy (n, 0, order-1);                                          // copy n into big node
+        wedge (key, ref, bn, bn.find (key), left);                        // wedge (key, ref) into big node
+        int h = n.isLeaf ? half : Math.min (half, order-2);               // leave an internal rt a key
+        n.copy (bn, 0, h);                                                // copy back first half to node n
+        Node rt = new Node (order, n.isLeaf);                             // make a right sibling node (rt)
+        if (n.isLeaf) {
+            rt.copy (bn, h, order-h);                                     // copy second half to node rt
+            divider = separator (n.key[h-1], rt.key[0]);                  // divider - shortest separator
+        } else {
+            rt.copy (bn, h+1, order-h-1);                                 // middle key moves up
+            divider = bn.key[h];
         } // if
-        return null;                                                      // no new node created as key is duplicate
+        return rt;                                                        // return right sibling
     } // split
 
+    /********************************************************************************
+     * Find the leaf holding the first key at least (or, if not inclusive, greater than)
+     * the given key, by descending from the root.  The position of the key within the
+     * leaf is returned in slot [0].
+     * @param key        the key to look for (null for the first key)
+     * @param inclusive  whether a key equal to the given key qualifies
+     * @param slot       an array of length one to hold the position in the leaf
+     * @return  the leaf holding the key, or null if there is no such key
+     */
+    private Node seek (K key, boolean inclusive, int [] slot)
+    {
+        Node n = firstLeaf;
+        int  i = 0;
+        if (key != null) {
+            for (n = root; ! n.isLeaf; n = (Node) n.ref[n.find (key)]) count++;
+            i = n.find (key);
+            if (! inclusive && i < n.nKeys && key.compareTo (n.key[i]) == 0) i++;
+        } // if
+        while (n != null && i >= n.nKeys) { n = (Node) n.ref[n.nKeys]; i = 0; }  // go on to the next leaf
+        slot[0] = i;
+        return n;
+    } // seek
+
+    /********************************************************************************
+     * Find the leaf holding the last key at most (or, if not inclusive, less than) the
+     * given key: the position before the first key greater than (or at least) the key.
+     * The position of the key within the leaf is returned in slot [0].
+     * @param key        the key to look for (null for the last key)
+     * @param inclusive  whether a key equal to the given key qualifies
+     * @param slot       an array of length one to hold the position in the leaf
+     * @return  the leaf holding the key, or null if there is no such key
+     */
+    private Node seekBack (K key, boolean inclusive, int [] slot)
+    {
+        Node n = (key == null) ? null : seek (key, ! inclusive, slot);
+        if (n == null) {                                              // no key follows: use the last leaf
+            for (n = root; ! n.isLeaf; n = (Node) n.ref[n.nKeys]) count++;
+            slot[0] = n.nKeys;
+        } // if
+        int i = slot[0] - 1;
+        while (n != null && i < 0) { n = n.prev; if (n != null) i = n.nKeys - 1; }  // go back to the previous leaf
+        slot[0] = i;
+        return n;
+    } // seekBack
+
+    /********************************************************************************
+     * Return the entry at the given position of a leaf (null if there is no leaf).
+     * @param leaf  the leaf
+     * @param slot  the position within the leaf in slot [0]
+     * @return  the entry at the position
+     */
+    @SuppressWarnings("unchecked")
+    private Map.Entry <K, V> entryAt (Node leaf, int [] slot)
+    {
+        return (leaf == null) ? null : new AbstractMap.SimpleImmutableEntry <> (leaf.key[slot[0]], (V) leaf.ref[slot[0]]);
+    } // entryAt
+
+    /********************************************************************************
+     * Return the entry with the first key at least (or greater than) the given key.
+     * @param key        the key to compare with (null for the first entry)
+     * @param inclusive  whether a key equal to the given key qualifies
+     * @return  the entry, or null if there is none
+     */
+    private Map.Entry <K, V> above (K key, boolean inclusive)
+    {
+        int [] slot = new int [1];
+        return entryAt (seek (key, inclusive, slot), slot);
+    } // above
+
+    /********************************************************************************
+     * Return the entry with the last key at most (or less than) the given key.
+     * @param key        the key to compare with (null for the last entry)
+     * @param inclusive  whether a key equal to the given key qualifies
+     * @return  the entry, or null if there is none
+     */
+    private Map.Entry <K, V> below (K key, boolean inclusive)
+    {
+        int [] slot = new int [1];
+        return entryAt (seekBack (key, inclusive, slot), slot);
+    } // below
+
+    /********************************************************************************
+     * Return the key of an entry, or null if there is no entry.
+     * @param e  the entry (may be null)
+     * @return  its key or null
+     */
+    private static <K> K keyOrNull (Map.Entry <K, ?> e)
+    {
+        return (e == null) ? null : e.getKey ();
+    } // keyOrNull
+
+    /********************************************************************************
+     * Remove the entry (if any) from the map and return it.
+     * @param e  the entry to remove (may be null)
+     * @return  the entry or null
+     */
+    private Map.Entry <K, V> poll (Map.Entry <K, V> e)
+    {
+        if (e != null) remove (e.getKey ());
+        return e;
+    } // poll
+
+    /********************************************************************************
+     * This inner class iterates over the map in key order by following the links
+     * between leaves, forward or backward, stopping at the far bound of a view.  The
+     * iterators for keys and values return them straight from the leaves, and only the
+     * iterator for entries allocates (an entry per key).
+     */
+    private abstract class LeafIterator <T>
+            implements Iterator <T>
+    {
+        private Node          leaf;                   // the current leaf
+        private int           i;                      // the position of the next key in the leaf
+        private final K       bound;                  // the bound to stop at (null if none)
+        private final boolean inclusive;              // whether the bound is in range
+        private final boolean backward;               // whether to go backward (descending)
+        private K             last;                   // the key last returned (null if none)
+        private int           expected = modCount;    // modCount when iteration started
+
+        /****************************************************************************
+         * Construct an iterator over the given view, starting at its first key.
+         * @param view  the view (submap) to iterate over
+         */
+        LeafIterator (SubMap view)
+        {
+            int [] slot = new int [1];
+            leaf      = view.start (slot);
+            i         = slot[0];
+            backward  = view.descending;
+            bound     = backward ? view.lo : view.hi;
+            inclusive = backward ? view.loInclusive : view.hiInclusive;
+        } // constructor
+
+        /****************************************************************************
+         * Return the item (key, value or entry) for position j of the leaf.
+         */
+        abstract T item (Node leaf, int j);
+
+        public boolean hasNext ()
+        {
+            if (leaf == null) return false;
+            if (bound != null) {
+                int c = leaf.key[i].compareTo (bound);
+                if (backward) c = -c;
+                if (c > 0 || c == 0 && ! inclusive) { leaf = null; return false; }
+            } // if
+            return true;
+        } // hasNext
+
+        public T next ()
+        {
+            if (modCount != expected) throw new ConcurrentModificationException ();
+            if (! hasNext ()) throw new NoSuchElementException ();
+            T t  = item (leaf, i);
+            last = leaf.key[i];
+            if (backward) {
+                if (--i < 0) { leaf = leaf.prev; if (leaf != null) i = leaf.nKeys - 1; }   // go back to the previous leaf
+            } else {
+                if (++i == leaf.nKeys) { leaf = (Node) leaf.ref[leaf.nKeys]; i = 0; }      // go on to the next leaf
+            } // if
+            return t;
+        } // next
+
+        /****************************************************************************
+         * Remove the key last returned from the map.  As removal may move keys between
+         * leaves, the position of the following key is found again.
+         */
+        public void remove ()
+        {
+            if (last == null) throw new IllegalStateException ();
+            if (modCount != expected) throw new ConcurrentModificationException ();
+            BpTreeMap.this.remove (last);
+            int [] slot = new int [1];
+            leaf     = backward ? seekBack (last, false, slot) : seek (last, false, slot);
+            i        = slot[0];
+            last     = null;
+            expected = modCount;
+        } // remove
+
+    } // LeafIterator inner class
+
+    private class EntryIterator
+            extends LeafIterator <Map.Entry <K, V>>
+    {
+        EntryIterator (SubMap view) { super (view); }
+
+        @SuppressWarnings("unchecked")
+        Map.Entry <K, V> item (Node leaf, int j) { return new AbstractMap.SimpleImmutableEntry <> (leaf.key[j], (V) leaf.ref[j]); }
+    } // EntryIterator inner class
+
+    private class KeyIterator
+            extends LeafIterator <K>
+    {
+        KeyIterator (SubMap view) { super (view); }
+
+        K item (Node leaf, int j) { return leaf.key[j]; }
+    } // KeyIterator inner class
+
+    private class ValueIterator
+            extends LeafIterator <V>
+    {
+        ValueIterator (SubMap view) { super (view); }
+
+        @SuppressWarnings("unchecked")
+        V item (Node leaf, int j) { return (V) leaf.ref[j]; }
+    } // ValueIterator inner class
+
+    /********************************************************************************
+     * This inner class provides a view of the portion of the map within a range of
+     * keys, in ascending or descending order.  Nothing is copied: lookups go to the
+     * backing map and iteration starts at the leaf holding the first bound and follows
+     * the leaf links (O(log n + k) for k entries in range).  Bounds that are null are
+     * open.  The bounds lo and hi are always in ascending order.
+     */
+    private class SubMap
+            extends AbstractMap <K, V>
+            implements NavigableMap <K, V>
+    {
+        private final K       lo, hi;                 // the lower and upper bounds
+        private final boolean loInclusive;            // whether the lower bound is in range
+        private final boolean hiInclusive;            // whether the upper bound is in range
+        private final boolean descending;             // whether the view is in descending order
+
+        /****************************************************************************
+         * Construct a view of the keys between the bounds.
+         * @param _lo           the lower bound (null if none)
+         * @param _loInclusive  whether the lower bound is in range
+         * @param _hi           the upper bound (null if none)
+         * @param _hiInclusive  whether the upper bound is in range
+         * @param _descending   whether the view is in descending order
+         */
+        SubMap (K _lo, boolean _loInclusive, K _hi, boolean _hiInclusive, boolean _descending)
+        {
+            lo          = _lo;
+            loInclusive = _loInclusive;
+            hi          = _hi;
+            hiInclusive = _hiInclusive;
+            descending  = _descending;
+        } // constructor
+
+        /****************************************************************************
+         * Determine whether the key is below the lower bound or above the upper bound.
+         * @param k  the key to check
+         * @return  whether the key is out of range on that side
+         */
+        boolean tooLow (K k)
+        {
+            if (lo == null) return false;
+            int c = k.compareTo (lo);
+            return c < 0 || c == 0 && ! loInclusive;
+        } // tooLow
+
+        boolean tooHigh (K k)
+        {
+            if (hi == null) return false;
+            int c = k.compareTo (hi);
+            return c > 0 || c == 0 && ! hiInclusive;
+        } // tooHigh
+
+        boolean inRange (K k) { return ! tooLow (k) && ! tooHigh (k); }
+
+        /****************************************************************************
+         * Make a narrower view with the given bounds (in ascending order), checking
+         * that they lie within this view: an inclusive bound must be in range, while
+         * an exclusive one may equal a bound of this view.
+         * @param from      the new lower bound (null to keep this one)
+         * @param fromIncl  whether the new lower bound is in range
+         * @param to        the new upper bound (null to keep this one)
+         * @param toIncl    whether the new upper bound is in range
+         * @return  the narrower view
+         */
+        private SubMap range (K from, boolean fromIncl, K to, boolean toIncl)
+        {
+            if (from == null) { from = lo; fromIncl = loInclusive; }
+            else check (from, fromIncl);
+            if (to == null)   { to = hi; toIncl = hiInclusive; }
+            else check (to, toIncl);
+            if (from != null && to != null && from.compareTo (to) > 0) {
+                throw new IllegalArgumentException ("BpTreeMap.SubMap: fromKey > toKey");
+            } // if
+            return new SubMap (from, fromIncl, to, toIncl, descending);
+        } // range
+
+        /****************************************************************************
+         * Check that a bound for a narrower view lies within this view.
+         * @param k          the bound
+         * @param inclusive  whether the bound is in range
+         */
+        private void check (K k, boolean inclusive)
+        {
+            boolean ok = inclusive ? inRange (k)
+                                   : (lo == null || k.compareTo (lo) >= 0) && (hi == null || k.compareTo (hi) <= 0);
+            if (! ok) throw new IllegalArgumentException ("BpTreeMap.SubMap: key out of range " + k);
+        } // check
+
+        /****************************************************************************
+         * Return the entry in the view with the first key at least (or greater than)
+         * the given key, or the last key at most (or less than) the given key, in
+         * ascending order, i.e., ignoring the direction of the view.
+         * @param key        the key to compare with (null for the lowest/highest)
+         * @param inclusive  whether a key equal to the given key qualifies
+         * @return  the entry, or null if there is none in range
+         */
+        private Map.Entry <K, V> absAbove (K key, boolean inclusive)
+        {
+            Map.Entry <K, V> e = (key == null || tooLow (key)) ? above (lo, loInclusive) : above (key, inclusive);
+            return (e == null || tooHigh (e.getKey ())) ? null : e;
+        } // absAbove
+
+        private Map.Entry <K, V> absBelow (K key, boolean inclusive)
+        {
+            Map.Entry <K, V> e = (key == null || tooHigh (key)) ? below (hi, hiInclusive) : below (key, inclusive);
+            return (e == null || tooLow (e.getKey ())) ? null : e;
+        } // absBelow
+
+        public Comparator <? super K> comparator ()
+        {
+            return descending ? Collections.reverseOrder () : null;
+        } // comparator
+
+        @SuppressWarnings("unchecked")
+        public boolean containsKey (Object key)
+        {
+            return inRange ((K) key) && BpTreeMap.this.containsKey (key);
+        } // containsKey
+
+        @SuppressWarnings("unchecked")
+        public V get (Object key)
+        {
+            return inRange ((K) key) ? BpTreeMap.this.get (key) : null;
+        } // get
+
+        public V put (K key, V value)
+        {
+            if (! inRange (key)) throw new IllegalArgumentException ("BpTreeMap.SubMap.put: key out of range " + key);
+            return BpTreeMap.this.put (key, value);
+        } // put
+
+        @SuppressWarnings("unchecked")
+        public V remove (Object key)
+        {
+            return inRange ((K) key) ? BpTreeMap.this.remove (key) : null;
+        } // remove
+
+        /****************************************************************************
+         * Return the leaf holding the first key of the view (in its order), with the
+         * position of the key in slot [0], or null if there is none.
+         * @param slot  an array of length one to hold the position in the leaf
+         */
+        Node start (int [] slot)
+        {
+            return descending ? seekBack (hi, hiInclusive, slot) : seek (lo, loInclusive, slot);
+        } // start
+
+        public Set <Map.Entry <K, V>> entrySet ()
+        {
+            return new AbstractSet <Map.Entry <K, V>> () {
+                public Iterator <Map.Entry <K, V>> iterator () { return new EntryIterator (SubMap.this); }
+                public int size ()                               { return SubMap.this.size (); }
+                public boolean isEmpty ()                        { return ! iterator ().hasNext (); }
+            };
+        } // entrySet
+
+        public Collection <V> values ()
+        {
+            return new AbstractCollection <V> () {
+                public Iterator <V> iterator () { return new ValueIterator (SubMap.this); }
+                public int size ()              { return SubMap.this.size (); }
+                public boolean isEmpty ()       { return ! iterator ().hasNext (); }
+            };
+        } // values
+
+        public int size ()
+        {
+            if (lo == null && hi == null) return keyCount;
+            int n = 0;
+            for (Iterator <K> it = new KeyIterator (this); it.hasNext (); it.next ()) n++;
+            return n;
+        } // size
+
+        /****************************************************************************
+         * Apply the action to each key and value in the view, in order, reading them
+         * straight from the leaves (no entry is allocated).
+         * @param action  the action to apply to each key-value pair
+         */
+        @SuppressWarnings("unchecked")
+        public void forEach (BiConsumer <? super K, ? super V> action)
+        {
+            int expected = modCount;
+            for (LeafIterator <K> it = new KeyIterator (this); it.hasNext (); ) {
+                Node leaf = it.leaf;
+                int  j    = it.i;
+                action.accept (it.next (), (V) leaf.ref[j]);
+                if (modCount != expected) throw new ConcurrentModificationException ();
+            } // for
+        } // forEach
+
+        public Map.Entry <K, V> firstEntry ()         { return descending ? absBelow (null, true) : absAbove (null, true); }
+        public Map.Entry <K, V> lastEntry ()          { return descending ? absAbove (null, true) : absBelow (null, true); }
+        public Map.Entry <K, V> ceilingEntry (K key)  { return descending ? absBelow (key, true) : absAbove (key, true); }
+        public Map.Entry <K, V> higherEntry (K key)   { return descending ? absBelow (key, false) : absAbove (key, false); }
+        public Map.Entry <K, V> floorEntry (K key)    { return descending ? absAbove (key, true) : absBelow (key, true); }
+        public Map.Entry <K, V> lowerEntry (K key)    { return descending ? absAbove (key, false) : absBelow (key, false); }
+        public Map.Entry <K, V> pollFirstEntry ()     { return poll (firstEntry ()); }
+        public Map.Entry <K, V> pollLastEntry ()      { return poll (lastEntry ()); }
+
+        public K ceilingKey (K key) { return keyOrNull (ceilingEntry (key)); }
+        public K higherKey (K key)  { return keyOrNull (higherEntry (key)); }
+        public K floorKey (K key)   { return keyOrNull (floorEntry (key)); }
+        public K lowerKey (K key)   { return keyOrNull (lowerEntry (key)); }
+
+        public K firstKey ()
+        {
+            Map.Entry <K, V> e = firstEntry ();
+            if (e == null) throw new NoSuchElementException ("BpTreeMap.SubMap.firstKey: submap is empty");
+            return e.getKey ();
+        } // firstKey
+
+        public K lastKey ()
+        {
+            Map.Entry <K, V> e = lastEntry ();
+            if (e == null) throw new NoSuchElementException ("BpTreeMap.SubMap.lastKey: submap is empty");
+            return e.getKey ();
+        } // lastKey
+
+        public NavigableMap <K, V> descendingMap ()
+        {
+            return new SubMap (lo, loInclusive, hi, hiInclusive, ! descending);
+        } // descendingMap
+
+        public NavigableSet <K> keySet ()           { return navigableKeySet (); }
+        public NavigableSet <K> navigableKeySet ()  { return new KeySet (this); }
+        public NavigableSet <K> descendingKeySet () { return new KeySet (descendingMap ()); }
+
+        public NavigableMap <K, V> subMap (K fromKey, boolean fromInclusive, K toKey, boolean toInclusive)
+        {
+            if (fromKey == null || toKey == null) throw new NullPointerException ();
+            return descending ? range (toKey, toInclusive, fromKey, fromInclusive)
+                              : range (fromKey, fromInclusive, toKey, toInclusive);
+        } // subMap
+
+        public NavigableMap <K, V> headMap (K toKey, boolean inclusive)
+        {
+            if (toKey == null) throw new NullPointerException ();
+            return descending ? range (toKey, inclusive, null, true) : range (null, true, toKey, inclusive);
+        } // headMap
+
+        public NavigableMap <K, V> tailMap (K fromKey, boolean inclusive)
+        {
+            if (fromKey == null) throw new NullPointerException ();
+            return descending ? range (null, true, fromKey, inclusive) : range (fromKey, inclusive, null, true);
+        } // tailMap
+
+        public SortedMap <K, V> subMap (K fromKey, K toKey) { return subMap (fromKey, true, toKey, false); }
+        public SortedMap <K, V> headMap (K toKey)           { return headMap (toKey, false); }
+        public SortedMap <K, V> tailMap (K fromKey)         { return tailMap (fromKey, true); }
+
+    } // SubMap inner class
+
+    /********************************************************************************
+     * This inner class provides a navigable set view of the keys of the map or one of
+     * its submaps (the backing map), in the order of the backing map.
+     */
+    private class KeySet
+            extends AbstractSet <K>
+            implements NavigableSet <K>
+    {
+        private final NavigableMap <K, V> m;         // the backing map
+
+        /****************************************************************************
+         * Construct a key set view of the given map.
+         * @param _m  the backing map
+         */
+        KeySet (NavigableMap <K, V> _m)
+        {
+            m = _m;
+        } // constructor
+
+        public Iterator <K> iterator ()
+        {
+            if (m instanceof BpTreeMap.SubMap) return new KeyIterator ((SubMap) m);
+            Iterator <Map.Entry <K, V>> it = m.entrySet ().iterator ();
+            return new Iterator <K> () {
+                public boolean hasNext () { return it.hasNext (); }
+                public K next ()          { return it.next ().getKey (); }
+                public void remove ()     { it.remove (); }
+            };
+        } // iterator
+
+        public int size ()                           { return m.size (); }
+        public boolean isEmpty ()                    { return m.isEmpty (); }
+        public boolean contains (Object o)           { return m.containsKey (o); }
+        public boolean remove (Object o)             { boolean had = m.containsKey (o); m.remove (o); return had; }
+        public Comparator <? super K> comparator ()  { return m.comparator (); }
+        public K first ()                            { return m.firstKey (); }
+        public K last ()                             { return m.lastKey (); }
+        public K lower (K k)                         { return m.lowerKey (k); }
+        public K floor (K k)                         { return m.floorKey (k); }
+        public K ceiling (K k)                       { return m.ceilingKey (k); }
+        public K higher (K k)                        { return m.higherKey (k); }
+        public K pollFirst ()                        { return keyOrNull (m.pollFirstEntry ()); }
+        public K pollLast ()                         { return keyOrNull (m.pollLastEntry ()); }
+        public NavigableSet <K> descendingSet ()     { return new KeySet (m.descendingMap ()); }
+        public Iterator <K> descendingIterator ()    { return descendingSet ().iterator (); }
+
+        public NavigableSet <K> subSet (K from, boolean fromIncl, K to, boolean toIncl)
+        {
+            return new KeySet (m.subMap (from, fromIncl, to, toIncl));
+        } // subSet
+
+        public NavigableSet <K> headSet (K to, boolean incl)    { return new KeySet (m.headMap (to, incl)); }
+        public NavigableSet <K> tailSet (K from, boolean incl)  { return new KeySet (m.tailMap (from, incl)); }
+        public SortedSet <K> subSet (K from, K to)              { return subSet (from, true, to, false); }
+        public SortedSet <K> headSet (K to)                     { return headSet (to, false); }
+        public SortedSet <K> tailSet (K from)                   { return tailSet (from, true); }
+
+    } // KeySet inner class
+
     /********************************************************************************
      * The main method used for testing.
      * @param args The command-line arguments (args[0] gives number of keys to insert)
@@ -525,7 +1409,7 @@ public class BpTreeMap <K extends Comparable <K>, V>
             for (int i = 1; i <= totalKeys; i += 2) bpt.put (i, i * i);
         } // if
 
-        bpt.print (bpt.root, 0);
+        if (DEBUG || totalKeys <= 100) bpt.print (bpt.root, 0);
         for (int i = 0; i <= totalKeys; i++) {
             out.println ("key = " + i + " value = " + bpt.get (i));
         } // for
@@ -547,6 +1431,26 @@ public class BpTreeMap <K extends Comparable <K>, V>
         System.out.println(bpt.firstKey());
         System.out.println(bpt.lastKey());
 
+        Map <Integer, Integer> sorted = new TreeMap <> ();
+        for (int k = 0; k < 1000; k++) sorted.put (3 * k, k);
+        BpTreeMap <Integer, Integer> bulk = new BpTreeMap <> (Integer.class, Integer.class);
+        bulk.bulkLoad (sorted.entrySet ().iterator (), FILL_FACTOR);
+        bulk.put (1, -1);                                             // inserts still work after loading
+        int missing = 0;
+        for (int k = 0; k < 1000; k++) if (bulk.get (3 * k) == null || bulk.get (3 * k) != k) missing++;
+        out.println ("bulk loaded size = " + bulk.size () + ", missing = " + missing + ", get (1) = " + bulk.get (1));
+
+        SortedMap <Integer, Integer> range = bulk.subMap (300, 330);         // lazy view over the leaf chain
+        out.println ("subMap (300, 330) = " + range.keySet () + ", lastKey = " + range.lastKey ()
+                   + ", headMap (7) = " + bulk.headMap (7).keySet () + ", tailMap (2995) = " + bulk.tailMap (2995).keySet ());
+        out.println ("floorKey (301) = " + bulk.floorKey (301) + ", ceilingKey (301) = " + bulk.ceilingKey (301)
+                   + ", last 3 = " + bulk.descendingMap ().headMap (2990).keySet ());
+
+        for (int k = 0; k < 1000; k += 2) bulk.remove (3 * k);                  // delete every other key
+        missing = 0;
+        for (int k = 0; k < 1000; k++) if ((bulk.get (3 * k) == null) != (k % 2 == 0)) missing++;
+        out.println ("after removes size = " + bulk.size () + ", wrong = " + missing + ", firstKey = " + bulk.firstKey ());
+
     } // main
 
 } // BpTreeMap class
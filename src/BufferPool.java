@@ -0,0 +1,619 @@
+
+/************************************************************************************
+ * @file BufferPool.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * The BufferPool class caches fixed size pages of files (e.g., the data files of
+ * FileLists) in a bounded number of in-memory frames.  A page is pinned while in
+ * use and may only be evicted once it is unpinned.  Modified (dirty) pages are
+ * written back to their file when evicted or flushed.  The victim for eviction is
+ * chosen by a replacement policy: CLOCK or LRU-K.  A single shared pool is used by
+ * all files in the process.  Pages may also be prefetched (read ahead) by a background
+ * thread, so that a sequential scan finds its next pages already cached.
+ */
+public class BufferPool
+{
+    /** The supported page replacement policies.
+     */
+    public enum Policy { CLOCK, LRU_K }
+
+    /** The default number of frames in the shared pool.
+     */
+    public static final int DEFAULT_FRAMES = 1024;
+
+    /** The number of most recent references remembered per frame for LRU-K.
+     */
+    private static final int K = 2;
+
+    /********************************************************************************
+     * A file that stores its contents as fixed size pages and whose pages can be
+     * cached by the buffer pool.
+     */
+    public interface PageFile
+    {
+        /****************************************************************************
+         * Read the given page from the file into buf (zero filled beyond end-of-file).
+         * @param pageNo  the page number
+         * @param buf     the buffer of page size to read into
+         */
+        void readPage (int pageNo, byte [] buf) throws IOException;
+
+        /****************************************************************************
+         * Write buf to the given page of the file.
+         * @param pageNo  the page number
+         * @param buf     the buffer of page size to write
+         */
+        void writePage (int pageNo, byte [] buf) throws IOException;
+
+    } // PageFile interface
+
+    /********************************************************************************
+     * This inner class defines the frames holding the cached pages.
+     */
+    public static class Frame
+    {
+        final byte [] data;                              // the page contents
+        PageFile      file;                              // the file the page belongs to
+        int           pageNo;                            // the page number within the file
+        int           pinCount;                          // number of current users
+        boolean       dirty;                             // whether modified since read
+        boolean       refBit;                            // referenced bit (CLOCK)
+        boolean       prefetched;                        // read ahead and not yet pinned
+        boolean       loading;                           // being read in by a pin (not yet valid)
+        final long [] history = new long [K];            // most recent reference times (LRU-K)
+
+        /****************************************************************************
+         * Construct an empty frame.
+         * @param pageSize  the size of a page in bytes
+         */
+        Frame (int pageSize)
+        {
+            data = new byte [pageSize];
+        } // constructor
+
+        /****************************************************************************
+         * Return the contents of the page held in this frame.
+         * @return  the page contents
+         */
+        public byte [] data ()
+        {
+            return data;
+        } // data
+
+    } // Frame inner class
+
+    /** The shared buffer pool
+     */
+    private static BufferPool pool = new BufferPool (DEFAULT_FRAMES, FileList.PAGE_SIZE, Policy.CLOCK);
+
+    /** The frames holding the cached pages
+     */
+    private final Frame [] frames;
+
+    /** Map from (file, page number) to the frame holding that page (files are compared
+     *  by identity, as a FileList is also a List with content based equality)
+     */
+    private final Map <PageFile, Map <Integer, Frame>> pageTable = new IdentityHashMap <> ();
+
+    /** The replacement policy
+     */
+    private final Policy policy;
+
+    /** The size of a page in bytes
+     */
+    private final int pageSize;
+
+    /** The next frame to consider for eviction (CLOCK hand)
+     */
+    private int hand = 0;
+
+    /** Logical clock used to time page references (LRU-K)
+     */
+    private long clock = 0;
+
+    /** The number of frames in use
+     */
+    private int used = 0;
+
+    /** Counters for the number of page requests served from memory (hits), read from
+     *  a file (misses), evicted pages and pages written back (for performance testing)
+     */
+    private long hits = 0, misses = 0, evictions = 0, writes = 0;
+
+    /** Counters for the number of pages read ahead, and of those, the number later
+     *  pinned (used) and the number evicted or discarded without being pinned (unused)
+     */
+    private long prefetches = 0, prefetchUsed = 0, prefetchUnused = 0;
+
+    /** The pages being read ahead (a pin of such a page waits for the read to finish),
+     *  each mapped to whether the copy being read may be stale, as that page was
+     *  written back or its file's pages discarded meanwhile (so it is not installed)
+     */
+    private final Map <PageFile, Map <Integer, Boolean>> inFlight = new IdentityHashMap <> ();
+
+    /** The background thread reading pages ahead (shared by all pools)
+     */
+    private static final ExecutorService reader = Executors.newSingleThreadExecutor (r -> {
+        Thread t = new Thread (r, "BufferPool-readahead");
+        t.setDaemon (true);
+        return t;
+    });
+
+    static {
+        Runtime.getRuntime ().addShutdownHook (new Thread (() -> getInstance ().flushAll ()));
+    } // static
+
+    /********************************************************************************
+     * Construct a buffer pool.
+     * @param nFrames    the number of frames (maximum number of cached pages)
+     * @param _pageSize  the size of a page in bytes
+     * @param _policy    the replacement policy
+     */
+    public BufferPool (int nFrames, int _pageSize, Policy _policy)
+    {
+        frames   = new Frame [nFrames];
+        pageSize = _pageSize;
+        policy   = _policy;
+    } // constructor
+
+    /********************************************************************************
+     * Return the buffer pool shared by all files in this process.
+     * @return  the shared buffer pool
+     */
+    public static synchronized BufferPool getInstance ()
+    {
+        return pool;
+    } // getInstance
+
+    /********************************************************************************
+     * Replace the shared buffer pool by one with the given size and policy, after
+     * writing back all dirty pages of the current one.
+     * @param nFrames  the number of frames
+     * @param policy   the replacement policy
+     */
+    public static synchronized void configure (int nFrames, Policy policy)
+    {
+        pool.flushAll ();
+        pool = new BufferPool (nFrames, FileList.PAGE_SIZE, policy);
+    } // configure
+
+    /********************************************************************************
+     * Pin the given page of the file, reading it in if it is not already cached.  On a
+     * miss, the frame is allocated (pinned and marked loading) under the pool's lock,
+     * but the page is read without holding it, so other pins and the installing of
+     * pages read ahead go on meanwhile; pins of the same page wait for the read.
+     * @param file    the file holding the page
+     * @param pageNo  the page number
+     * @return  the frame holding the page
+     */
+    public Frame pin (PageFile file, int pageNo)
+    {
+        Frame fr;
+        synchronized (this) {
+            fr = await (file, pageNo);
+            if (fr != null) {
+                hits++;
+                if (fr.prefetched) { fr.prefetched = false; prefetchUsed++; }
+                reference (fr);
+                fr.pinCount++;
+                return fr;
+            } // if
+            misses++;
+            fr = allocate (file, pageNo);
+            fr.loading = true;
+            reference (fr);
+            fr.pinCount++;
+        } // synchronized
+
+        try {
+            file.readPage (pageNo, fr.data);
+        } catch (IOException ex) {
+            synchronized (this) {
+                fr.loading = false;
+                fr.pinCount--;
+                release (fr);
+                notifyAll ();
+            } // synchronized
+            throw new UncheckedIOException ("BufferPool.pin: unable to read page " + pageNo, ex);
+        } // try
+        synchronized (this) {
+            fr.loading = false;
+            notifyAll ();
+        } // synchronized
+        return fr;
+    } // pin
+
+    /********************************************************************************
+     * Pin a new (zero filled) page of the file without reading it from the file.
+     * @param file    the file the page is to be added to
+     * @param pageNo  the page number
+     * @return  the frame holding the page
+     */
+    public synchronized Frame pinNew (PageFile file, int pageNo)
+    {
+        Frame fr = await (file, pageNo);
+        if (fr == null) fr = allocate (file, pageNo);
+        fr.prefetched = false;
+        Arrays.fill (fr.data, (byte) 0);
+        reference (fr);
+        fr.pinCount++;
+        fr.dirty = true;
+        return fr;
+    } // pinNew
+
+    /********************************************************************************
+     * Ask the background thread to read the given page of the file into the pool, if
+     * it is not already cached.  The page is not pinned, so the caller must still pin
+     * it before use; a frame is only taken for the page if one can be had by eviction.
+     * @param file    the file holding the page
+     * @param pageNo  the page number
+     */
+    public void prefetch (PageFile file, int pageNo)
+    {
+        synchronized (this) {
+            if (lookup (file, pageNo) != null || isInFlight (file, pageNo)) return;
+            inFlight.computeIfAbsent (file, f -> new HashMap <> ()).put (pageNo, false);
+        } // synchronized
+        reader.execute (() -> {
+            byte [] data = new byte [pageSize];
+            try {
+                file.readPage (pageNo, data);
+            } catch (IOException ex) {
+                data = null;                             // only a hint: the file may be closed
+            } // try
+            install (file, pageNo, data);
+        });
+    } // prefetch
+
+    /********************************************************************************
+     * Unpin the frame, marking it dirty if its page was modified.
+     * @param fr     the frame to unpin
+     * @param dirty  whether the page was modified
+     */
+    public synchronized void unpin (Frame fr, boolean dirty)
+    {
+        if (fr.pinCount <= 0) throw new IllegalStateException ("BufferPool.unpin: page not pinned");
+        fr.pinCount--;
+        fr.dirty |= dirty;
+    } // unpin
+
+    /********************************************************************************
+     * Write back all dirty pages of the given file.
+     * @param file  the file whose pages are to be flushed
+     */
+    public synchronized void flush (PageFile file)
+    {
+        Map <Integer, Frame> pages = pageTable.get (file);
+        if (pages != null) for (Frame fr : pages.values ()) writeBack (fr);
+    } // flush
+
+    /********************************************************************************
+     * Write back all dirty pages in the pool.
+     */
+    public synchronized void flushAll ()
+    {
+        for (Map <Integer, Frame> pages : pageTable.values ()) {
+            for (Frame fr : pages.values ()) writeBack (fr);
+        } // for
+    } // flushAll
+
+    /********************************************************************************
+     * Write back and drop all pages of the given file (e.g., when it is closed).
+     * @param file  the file whose pages are to be discarded
+     */
+    public synchronized void discard (PageFile file)
+    {
+        flush (file);
+        Map <Integer, Frame> pages = pageTable.remove (file);
+        if (pages == null) return;
+        for (Frame fr : pages.values ()) {
+            if (fr.pinCount > 0) throw new IllegalStateException ("BufferPool.discard: page still pinned");
+            if (fr.prefetched) prefetchUnused++;
+            fr.file = null;
+            used--;
+        } // for
+        Map <Integer, Boolean> reading = inFlight.get (file);
+        if (reading != null) reading.replaceAll ((p, stale) -> true);  // the file may change under them
+    } // discard
+
+    /********************************************************************************
+     * Return the number of page requests served from memory.
+     * @return  the number of hits
+     */
+    public synchronized long getHits ()
+    {
+        return hits;
+    } // getHits
+
+    /********************************************************************************
+     * Return the number of page requests that required reading the page in.
+     * @return  the number of misses
+     */
+    public synchronized long getMisses ()
+    {
+        return misses;
+    } // getMisses
+
+    /********************************************************************************
+     * Return the fraction of page requests served from memory.
+     * @return  the hit ratio
+     */
+    public synchronized double hitRatio ()
+    {
+        return (hits + misses == 0) ? 0.0 : hits / (double) (hits + misses);
+    } // hitRatio
+
+    /********************************************************************************
+     * Return the number of pages read ahead that were evicted or discarded without
+     * ever being pinned.
+     * @return  the number of unused prefetched pages
+     */
+    public synchronized long getUnusedPrefetches ()
+    {
+        return prefetchUnused;
+    } // getUnusedPrefetches
+
+    /********************************************************************************
+     * Reset the performance counters.
+     */
+    public synchronized void resetStats ()
+    {
+        hits = misses = evictions = writes = 0;
+        prefetches = prefetchUsed = prefetchUnused = 0;
+    } // resetStats
+
+    /********************************************************************************
+     * Print the performance counters.
+     */
+    public synchronized void printStats ()
+    {
+        out.println ("BufferPool (" + policy + ", " + frames.length + " frames): hits = " + hits
+                   + ", misses = " + misses + ", hit ratio = " + hitRatio ()
+                   + ", evictions = " + evictions + ", writes = " + writes);
+        if (prefetches > 0) {
+            out.println ("BufferPool read-ahead: prefetched = " + prefetches + ", used = " + prefetchUsed
+                       + ", unused = " + prefetchUnused);
+        } // if
+    } // printStats
+
+    //-------------------------------------------------------------------------------
+    // Private Methods
+    //-------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * Find the frame holding the given page, if cached.
+     * @param file    the file holding the page
+     * @param pageNo  the page number
+     * @return  the frame or null if the page is not cached
+     */
+    private Frame lookup (PageFile file, int pageNo)
+    {
+        Map <Integer, Frame> pages = pageTable.get (file);
+        return (pages == null) ? null : pages.get (pageNo);
+    } // lookup
+
+    /********************************************************************************
+     * Wait until the given page is neither being read ahead nor being read in by a
+     * pin, and return the frame holding it (if cached).  Called holding the lock.
+     * @param file    the file holding the page
+     * @param pageNo  the page number
+     * @return  the frame or null if the page is not cached
+     */
+    private Frame await (PageFile file, int pageNo)
+    {
+        Frame fr = lookup (file, pageNo);
+        while (fr == null && isInFlight (file, pageNo) || fr != null && fr.loading) {
+            try {
+                wait ();
+            } catch (InterruptedException ex) {
+                Thread.currentThread ().interrupt ();
+                throw new IllegalStateException ("BufferPool.pin: interrupted", ex);
+            } // try
+            fr = lookup (file, pageNo);
+        } // while
+        return fr;
+    } // await
+
+    /********************************************************************************
+     * Install a page read ahead into a frame, unless the page got cached meanwhile or
+     * the copy read may be stale (the same page was written back or its file
+     * discarded since), and wake up any pins waiting for it.
+     * @param file    the file holding the page
+     * @param pageNo  the page number
+     * @param data    the page contents read (null if the read failed)
+     */
+    private synchronized void install (PageFile file, int pageNo, byte [] data)
+    {
+        Map <Integer, Boolean> reading = inFlight.get (file);
+        boolean                stale   = reading.remove (pageNo);
+        if (reading.isEmpty ()) inFlight.remove (file);
+        notifyAll ();
+        if (data == null || stale || lookup (file, pageNo) != null) return;
+        Frame fr;
+        try {
+            fr = allocate (file, pageNo);
+        } catch (IllegalStateException ex) {
+            return;                                      // all frames pinned: skip the hint
+        } // try
+        System.arraycopy (data, 0, fr.data, 0, pageSize);
+        reference (fr);
+        fr.prefetched = true;
+        prefetches++;
+    } // install
+
+    /********************************************************************************
+     * Determine whether the given page is being read ahead.
+     * @param file    the file holding the page
+     * @param pageNo  the page number
+     * @return  whether a read of the page is in flight
+     */
+    private boolean isInFlight (PageFile file, int pageNo)
+    {
+        Map <Integer, Boolean> pages = inFlight.get (file);
+        return pages != null && pages.containsKey (pageNo);
+    } // isInFlight
+
+    /********************************************************************************
+     * Allocate a frame for the given page, evicting a victim if the pool is full.
+     * @param file    the file holding the page
+     * @param pageNo  the page number
+     * @return  the allocated frame
+     */
+    private Frame allocate (PageFile file, int pageNo)
+    {
+        Frame fr;
+        if (used < frames.length) {
+            fr = findFree ();
+        } else {
+            fr = (policy == Policy.CLOCK) ? clockVictim () : lruKVictim ();
+            writeBack (fr);
+            pageTable.get (fr.file).remove (fr.pageNo);
+            if (fr.prefetched) prefetchUnused++;
+            evictions++;
+        } // if
+        if (fr.file == null) used++;
+        fr.file       = file;
+        fr.pageNo     = pageNo;
+        fr.pinCount   = 0;
+        fr.dirty      = false;
+        fr.refBit     = false;
+        fr.prefetched = false;
+        fr.loading    = false;
+        Arrays.fill (fr.history, 0);
+        pageTable.computeIfAbsent (file, f -> new HashMap <> ()).put (pageNo, fr);
+        return fr;
+    } // allocate
+
+    /********************************************************************************
+     * Return a frame that is not holding a page (one must exist).
+     * @return  a free frame
+     */
+    private Frame findFree ()
+    {
+        for (int i = 0; i < frames.length; i++) {
+            if (frames [i] == null) frames [i] = new Frame (pageSize);
+            if (frames [i].file == null) return frames [i];
+        } // for
+        throw new IllegalStateException ("BufferPool.findFree: no free frame");
+    } // findFree
+
+    /********************************************************************************
+     * Release a frame whose page could not be read.
+     * @param fr  the frame to release
+     */
+    private void release (Frame fr)
+    {
+        pageTable.get (fr.file).remove (fr.pageNo);
+        fr.file = null;
+        used--;
+    } // release
+
+    /********************************************************************************
+     * Record a reference to the page held in the frame.
+     * @param fr  the referenced frame
+     */
+    private void reference (Frame fr)
+    {
+        fr.refBit = true;
+        System.arraycopy (fr.history, 0, fr.history, 1, K - 1);
+        fr.history [0] = ++clock;
+    } // reference
+
+    /********************************************************************************
+     * Choose a victim using the CLOCK (second chance) algorithm: sweep the frames,
+     * clearing reference bits, until an unpinned frame with a clear bit is found.
+     * @return  the victim frame
+     */
+    private Frame clockVictim ()
+    {
+        for (int sweep = 0; sweep < 2 * frames.length; sweep++) {
+            Frame fr = frames [hand];
+            hand = (hand + 1) % frames.length;
+            if (fr.pinCount > 0) continue;
+            if (fr.refBit) fr.refBit = false;
+            else return fr;
+        } // for
+        throw new IllegalStateException ("BufferPool: all pages are pinned");
+    } // clockVictim
+
+    /********************************************************************************
+     * Choose a victim using LRU-K: the unpinned frame whose Kth most recent reference
+     * is oldest, where frames with fewer than K references are considered oldest (ties
+     * are broken by the most recent reference).  Pages read ahead but not yet used
+     * have a single reference, so they are only chosen if no other frame is unpinned.
+     * @return  the victim frame
+     */
+    private Frame lruKVictim ()
+    {
+        Frame victim = null;
+        for (Frame fr : frames) {
+            if (fr.pinCount > 0) continue;
+            if (victim == null || victim.prefetched && ! fr.prefetched ||
+                victim.prefetched == fr.prefetched &&
+                (fr.history [K-1] < victim.history [K-1] ||
+                 fr.history [K-1] == victim.history [K-1] && fr.history [0] < victim.history [0])) {
+                victim = fr;
+            } // if
+        } // for
+        if (victim == null) throw new IllegalStateException ("BufferPool: all pages are pinned");
+        return victim;
+    } // lruKVictim
+
+    /********************************************************************************
+     * Write the page held in the frame back to its file if it is dirty.
+     * @param fr  the frame to write back
+     */
+    private void writeBack (Frame fr)
+    {
+        if (! fr.dirty) return;
+        try {
+            fr.file.writePage (fr.pageNo, fr.data);
+        } catch (IOException ex) {
+            throw new UncheckedIOException ("BufferPool.writeBack: unable to write page " + fr.pageNo, ex);
+        } // try
+        fr.dirty = false;
+        writes++;
+        Map <Integer, Boolean> reading = inFlight.get (fr.file);
+        if (reading != null) reading.replace (fr.pageNo, true);         // a copy being read ahead is stale
+    } // writeBack
+
+    /********************************************************************************
+     * The main method used for testing: random page accesses under each policy,
+     * followed by a sequential scan using read-ahead.
+     * @param args  the command-line arguments
+     */
+    public static void main (String [] args)
+    {
+        Class [] dom = { Integer.class, String.class, String.class };
+        for (Policy p : Policy.values ()) {
+            configure (64, p);
+            FileList list = new FileList ("bufferPoolTest", dom);
+            for (int i = 0; i < 10000; i++) list.add (new Comparable [] { i, "name" + i, "dept" + i % 10 });
+            getInstance ().resetStats ();
+            Random rng = new Random (0);
+            for (int i = 0; i < 100000; i++) {
+                int j = (rng.nextInt (4) == 0) ? rng.nextInt (list.size ()) : rng.nextInt (500);
+                list.get (j);
+            } // for
+            getInstance ().printStats ();
+
+            getInstance ().resetStats ();
+            long sum = 0;
+            for (Comparable [] t : list) sum += (Integer) t [0];           // sequential scan
+            out.println ("scan sum = " + sum);
+            getInstance ().printStats ();
+            list.close ();
+            new File ("bufferPoolTest.dat").delete ();
+        } // for
+    } // main
+
+} // BufferPool class
@@ -0,0 +1,609 @@
+
+/*******************************************************************************
+ * @file  CompressedPage.java
+ *
+ * @author   John Miller
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/*******************************************************************************
+ * This class encodes the tuples of a FileList page column by column, using
+ * lightweight encodings that keep each value individually addressable:
+ *  - String values are dictionary encoded (each distinct string is stored once),
+ *  - integer (and Character) values are stored frame-of-reference, i.e., as the
+ *    offset from the minimum value in the page, bit-packed using as few bits as
+ *    the range of values requires,
+ *  - a column with few runs of equal values (e.g., a sorted column) stores one
+ *    code per run rather than per row (run-length encoding),
+ *  - real values (and integers with too wide a range) are stored plainly.
+ * A compressed page starts with the same header as a slotted page (the number of
+ * rows, with 0 as the start of record data marking the page as compressed) and
+ * zone map, followed by a directory giving the encoding and offset of each
+ * column.  Equality predicates can be evaluated on the codes (dictionary codes or
+ * offsets) without decoding the values.
+ * An instance also accumulates the tuples of a page being filled, tracking the
+ * size their encoding would take.
+ */
+public class CompressedPage
+{
+    /** The column encodings: values stored plainly (8 bytes each), one bit-packed
+     *  code per row, or one bit-packed code per run of equal values.
+     */
+    private static final byte PLAIN = 0, PACKED = 1, RUNS = 2;
+
+    /** The size of a column directory entry (encoding and offset) in bytes.
+     */
+    private static final int COL_SIZE = Byte.BYTES + Short.BYTES;
+
+    /** The widest code in bits that can be read with a single getLong.
+     */
+    private static final int MAX_WIDTH = 57;
+
+    /** The size of a page in bytes.
+     */
+    private static final int PAGE_SIZE = FileList.PAGE_SIZE;
+
+    /** The attribute domains of the tuples.
+     */
+    private final Class [] domain;
+
+    /** The offset of the column directory within a page (after the header and zone map).
+     */
+    private final int start;
+
+    /** The tuples of the page being filled.
+     */
+    private final List <Comparable []> rows = new ArrayList <> ();
+
+    /** The size statistics of each column for the tuples being filled: the distinct
+     *  strings and the number of bytes they take, the minimum and maximum values,
+     *  and the number of runs of equal values.
+     */
+    private final List <Map <Comparable, Integer>> dict = new ArrayList <> ();
+    private final int []  dictBytes;
+    private final long [] min, max;
+    private final int []  runs;
+
+    /***************************************************************************
+     * Construct an encoder/decoder for compressed pages.
+     * @param _domain  the attribute domains of the tuples
+     * @param _start   the offset of the column directory within a page
+     */
+    public CompressedPage (Class [] _domain, int _start)
+    {
+        domain    = _domain;
+        start     = _start;
+        dictBytes = new int [domain.length];
+        min       = new long [domain.length];
+        max       = new long [domain.length];
+        runs      = new int [domain.length];
+        for (int j = 0; j < domain.length; j++) dict.add (new HashMap <> ());
+        clear ();
+    } // constructor
+
+    //--------------------------------------------------------------------------
+    // Filling a page
+    //--------------------------------------------------------------------------
+
+    /***************************************************************************
+     * Remove all tuples from the page being filled.
+     */
+    public void clear ()
+    {
+        rows.clear ();
+        for (int j = 0; j < domain.length; j++) {
+            dict.get (j).clear ();
+            dictBytes [j] = 0;
+            min [j]       = Long.MAX_VALUE;
+            max [j]       = Long.MIN_VALUE;
+            runs [j]      = 0;
+        } // for
+    } // clear
+
+    /***************************************************************************
+     * Return the number of tuples in the page being filled.
+     * @return  the number of tuples
+     */
+    public int size ()
+    {
+        return rows.size ();
+    } // size
+
+    /***************************************************************************
+     * Return the rth tuple of the page being filled.
+     * @param r  the row number within the page
+     * @return  the tuple
+     */
+    public Comparable [] get (int r)
+    {
+        return rows.get (r);
+    } // get
+
+    /***************************************************************************
+     * Return the tuples of the page being filled.
+     * @return  the list of tuples
+     */
+    public List <Comparable []> rows ()
+    {
+        return rows;
+    } // rows
+
+    /***************************************************************************
+     * Determine whether the page would still fit if the tuple were added.
+     * @param tuple  the tuple to add
+     * @return  whether the encoded page would fit in PAGE_SIZE
+     */
+    public boolean fits (Comparable [] tuple)
+    {
+        return encodedSize (tuple) <= PAGE_SIZE;
+    } // fits
+
+    /***************************************************************************
+     * Determine whether the tuples of the page being filled fit in a page.
+     * @return  whether the encoded page fits in PAGE_SIZE
+     */
+    public boolean fits ()
+    {
+        return encodedSize (null) <= PAGE_SIZE;
+    } // fits
+
+    /***************************************************************************
+     * Add the tuple to the page being filled.
+     * @param tuple  the tuple to add
+     */
+    public void add (Comparable [] tuple)
+    {
+        for (int j = 0; j < domain.length; j++) {
+            Comparable v = tuple [j];
+            if (rows.isEmpty () || rows.get (rows.size () - 1) [j].compareTo (v) != 0) runs [j]++;
+            if (domain [j] == String.class) {
+                if (dict.get (j).putIfAbsent (v, dict.get (j).size ()) == null) dictBytes [j] += wordSize ((String) v);
+            } else if (isIntegral (domain [j])) {
+                long x = value (v);
+                min [j] = Math.min (min [j], x);
+                max [j] = Math.max (max [j], x);
+            } // if
+        } // for
+        rows.add (tuple);
+    } // add
+
+    /***************************************************************************
+     * Load the tuples into the page being filled, replacing its contents.
+     * @param tuples  the tuples to load
+     */
+    public void load (List <Comparable []> tuples)
+    {
+        List <Comparable []> copy = new ArrayList <> (tuples);
+        clear ();
+        for (Comparable [] t : copy) add (t);
+    } // load
+
+    /***************************************************************************
+     * Encode the tuples of the page being filled into the page (all but the zone
+     * map, which is maintained by FileList).
+     * @param buf  the page to write into
+     */
+    public void encode (ByteBuffer buf)
+    {
+        int n = rows.size ();
+        Arrays.fill (buf.array (), start, PAGE_SIZE, (byte) 0);
+        buf.putShort (0, (short) n);
+        buf.putShort (2, (short) 0);                                // marks a compressed page
+        int pos = start + domain.length * COL_SIZE;
+        for (int j = 0; j < domain.length; j++) {
+            int dir = start + j * COL_SIZE;
+            buf.putShort (dir + 1, (short) pos);
+            boolean string = domain [j] == String.class;
+            int     width  = string ? bits (dict.get (j).size () - 1) : bits (max [j] - min [j]);
+            if (! string && (! isIntegral (domain [j]) || max [j] - min [j] < 0 || width > MAX_WIDTH)) {
+                buf.put (dir, PLAIN);
+                for (Comparable [] t : rows) { buf.putLong (pos, plainBits (t [j])); pos += Long.BYTES; }
+                continue;
+            } // if
+
+            long [] codes = new long [n];
+            for (int r = 0; r < n; r++) {
+                codes [r] = string ? dict.get (j).get (rows.get (r) [j]) : value (rows.get (r) [j]) - min [j];
+            } // for
+            boolean byRun = runSize (runs [j], width) < packedSize (n, width);
+            buf.put (dir, byRun ? RUNS : PACKED);
+
+            // column header: code width, offset of the codes, then the dictionary or base value
+            buf.put (pos, (byte) width);
+            int hdr = pos;
+            pos += Byte.BYTES + Short.BYTES;
+            if (string) {
+                Comparable [] words = new Comparable [dict.get (j).size ()];
+                for (Map.Entry <Comparable, Integer> e : dict.get (j).entrySet ()) words [e.getValue ()] = e.getKey ();
+                buf.putShort (pos, (short) words.length);
+                int off = pos + Short.BYTES + words.length * Short.BYTES;
+                for (int w = 0; w < words.length; w++) {
+                    byte [] b = ((String) words [w]).getBytes (StandardCharsets.UTF_8);
+                    buf.putShort (pos + Short.BYTES + w * Short.BYTES, (short) off);
+                    buf.putShort (off, (short) b.length);
+                    System.arraycopy (b, 0, buf.array (), off + Short.BYTES, b.length);
+                    off += Short.BYTES + b.length;
+                } // for
+                pos = off;
+            } else {
+                buf.putLong (pos, min [j]);
+                pos += Long.BYTES;
+            } // if
+            buf.putShort (hdr + 1, (short) pos);
+
+            if (byRun) {
+                int nRuns = runs [j];
+                buf.putShort (pos, (short) nRuns);
+                int ends = pos + Short.BYTES, packed = ends + nRuns * Short.BYTES, k = 0;
+                for (int r = 0; r < n; r++) {
+                    if (r == n - 1 || codes [r + 1] != codes [r]) {
+                        buf.putShort (ends + k * Short.BYTES, (short) (r + 1));
+                        putBits (buf, packed, (long) k++ * width, width, codes [r]);
+                    } // if
+                } // for
+                pos += runSize (nRuns, width);
+            } else {
+                for (int r = 0; r < n; r++) putBits (buf, pos, (long) r * width, width, codes [r]);
+                pos += packedSize (n, width);
+            } // if
+        } // for
+    } // encode
+
+    //--------------------------------------------------------------------------
+    // Reading a page
+    //--------------------------------------------------------------------------
+
+    /***************************************************************************
+     * Determine whether the page starting at base in the buffer is compressed.
+     * @param buf   the buffer holding the page
+     * @param base  the offset of the page in the buffer
+     * @return  whether the page is compressed
+     */
+    public static boolean isCompressed (ByteBuffer buf, int base)
+    {
+        return buf.getShort (base + 2) == 0;
+    } // isCompressed
+
+    /***************************************************************************
+     * Decode the rth tuple of the compressed page.
+     * @param buf   the buffer holding the page
+     * @param base  the offset of the page in the buffer
+     * @param r     the row number within the page
+     * @return  the tuple
+     */
+    public Comparable [] decode (ByteBuffer buf, int base, int r)
+    {
+        Comparable [] tuple = new Comparable [domain.length];
+        for (int j = 0; j < domain.length; j++) tuple [j] = decode (buf, base, j, r);
+        return tuple;
+    } // decode
+
+    /***************************************************************************
+     * Decode the value of column j in the rth tuple of the compressed page.
+     * @param buf   the buffer holding the page
+     * @param base  the offset of the page in the buffer
+     * @param j     the column
+     * @param r     the row number within the page
+     * @return  the value
+     */
+    public Comparable decode (ByteBuffer buf, int base, int j, int r)
+    {
+        int  dir = base + start + j * COL_SIZE;
+        byte enc = buf.get (dir);
+        int  pos = base + (buf.getShort (dir + 1) & 0xffff);
+        if (enc == PLAIN) return fromPlain (domain [j], buf.getLong (pos + r * Long.BYTES));
+
+        int  width = buf.get (pos);
+        int  codes = base + (buf.getShort (pos + 1) & 0xffff);
+        long code;
+        if (enc == RUNS) {
+            int nRuns = buf.getShort (codes);
+            int lo = 0, hi = nRuns - 1;                             // first run ending after r
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if ((buf.getShort (codes + Short.BYTES + mid * Short.BYTES) & 0xffff) > r) hi = mid; else lo = mid + 1;
+            } // while
+            code = getBits (buf, codes + Short.BYTES + nRuns * Short.BYTES, (long) lo * width, width);
+        } else {
+            code = getBits (buf, codes, (long) r * width, width);
+        } // if
+        int hdr = pos + Byte.BYTES + Short.BYTES;
+        if (domain [j] == String.class) {
+            int off = base + (buf.getShort (hdr + Short.BYTES + (int) code * Short.BYTES) & 0xffff);
+            byte [] b = new byte [buf.getShort (off) & 0xffff];
+            for (int k = 0; k < b.length; k++) b [k] = buf.get (off + Short.BYTES + k);
+            return new String (b, StandardCharsets.UTF_8);
+        } // if
+        return fromValue (domain [j], buf.getLong (hdr) + code);
+    } // decode
+
+    /***************************************************************************
+     * Find the rows of the compressed page whose value in column j equals the given
+     * value.  The value is translated into a code once (a dictionary lookup or an
+     * offset from the base value) and compared against the codes of the rows, so
+     * values are not decoded.  If the value has no code in the page (e.g., it is
+     * not in the dictionary), no row is read at all.
+     * @param buf     the buffer holding the page
+     * @param base    the offset of the page in the buffer
+     * @param j       the column
+     * @param value   the value to look for
+     * @param action  the action to perform on each matching row number
+     */
+    public void matchEquals (ByteBuffer buf, int base, int j, Comparable value, IntConsumer action)
+    {
+        int  n   = buf.getShort (base);
+        int  dir = base + start + j * COL_SIZE;
+        byte enc = buf.get (dir);
+        int  pos = base + (buf.getShort (dir + 1) & 0xffff);
+        if (enc == PLAIN) {
+            for (int r = 0; r < n; r++) {
+                if (fromPlain (domain [j], buf.getLong (pos + r * Long.BYTES)).compareTo (value) == 0) action.accept (r);
+            } // for
+            return;
+        } // if
+
+        int  width = buf.get (pos);
+        int  codes = base + (buf.getShort (pos + 1) & 0xffff);
+        int  hdr   = pos + Byte.BYTES + Short.BYTES;
+        long code  = -1;
+        if (domain [j] == String.class) {
+            byte [] target = ((String) value).getBytes (StandardCharsets.UTF_8);
+            int     words  = buf.getShort (hdr);
+            for (int w = 0; w < words && code < 0; w++) {
+                int off = base + (buf.getShort (hdr + Short.BYTES + w * Short.BYTES) & 0xffff);
+                if (sameBytes (buf, off, target)) code = w;
+            } // for
+        } else {
+            long offset = value (value) - buf.getLong (hdr);
+            if (offset >= 0 && bits (offset) <= width) code = offset;
+        } // if
+        if (code < 0) return;                                       // value not in the page
+
+        if (enc == RUNS) {
+            int nRuns = buf.getShort (codes), begin = 0;
+            for (int k = 0; k < nRuns; k++) {
+                int end = buf.getShort (codes + Short.BYTES + k * Short.BYTES) & 0xffff;
+                if (getBits (buf, codes + Short.BYTES + nRuns * Short.BYTES, (long) k * width, width) == code) {
+                    for (int r = begin; r < end; r++) action.accept (r);
+                } // if
+                begin = end;
+            } // for
+        } else {
+            for (int r = 0; r < n; r++) {
+                if (getBits (buf, codes, (long) r * width, width) == code) action.accept (r);
+            } // for
+        } // if
+    } // matchEquals
+
+    //--------------------------------------------------------------------------
+    // Private Methods
+    //--------------------------------------------------------------------------
+
+    /***************************************************************************
+     * Return the size of the encoded page holding the tuples being filled, plus
+     * the given tuple if not null.
+     * @param tuple  the tuple to add (or null)
+     * @return  the size in bytes
+     */
+    private int encodedSize (Comparable [] tuple)
+    {
+        int n    = rows.size () + (tuple == null ? 0 : 1);
+        int size = start + domain.length * COL_SIZE;
+        for (int j = 0; j < domain.length; j++) {
+            if (tuple == null) {
+                if (domain [j] == String.class)     size += stringSize (n, dict.get (j).size (), dictBytes [j], runs [j]);
+                else if (isIntegral (domain [j]))   size += integralSize (n, min [j], max [j], runs [j]);
+                else                                size += n * Long.BYTES;
+                continue;
+            } // if
+            Comparable v    = tuple [j];
+            boolean    same = ! rows.isEmpty () && rows.get (rows.size () - 1) [j].compareTo (v) == 0;
+            int        nRun = runs [j] + (same ? 0 : 1);
+            if (domain [j] == String.class) {
+                boolean known = dict.get (j).containsKey (v);
+                int words = dict.get (j).size () + (known ? 0 : 1);
+                int bytes = dictBytes [j] + (known ? 0 : wordSize ((String) v));
+                size += stringSize (n, words, bytes, nRun);
+            } else if (isIntegral (domain [j])) {
+                long x = value (v);
+                size += integralSize (n, Math.min (min [j], x), Math.max (max [j], x), nRun);
+            } else {
+                size += n * Long.BYTES;
+            } // if
+        } // for
+        return size;
+    } // encodedSize
+
+    /***************************************************************************
+     * Return the size of a dictionary encoded column.
+     * @param n      the number of rows
+     * @param words  the number of distinct strings
+     * @param bytes  the number of bytes taken by the distinct strings
+     * @param nRuns  the number of runs of equal values
+     * @return  the size in bytes
+     */
+    private static int stringSize (int n, int words, int bytes, int nRuns)
+    {
+        int width = bits (words - 1);
+        return Byte.BYTES + 2 * Short.BYTES + words * Short.BYTES + bytes
+               + Math.min (packedSize (n, width), runSize (nRuns, width));
+    } // stringSize
+
+    /***************************************************************************
+     * Return the size of a frame-of-reference encoded integer column (or of a plain
+     * column if the range of values is too wide).
+     * @param n      the number of rows
+     * @param lo     the minimum value
+     * @param hi     the maximum value
+     * @param nRuns  the number of runs of equal values
+     * @return  the size in bytes
+     */
+    private static int integralSize (int n, long lo, long hi, int nRuns)
+    {
+        int width = bits (hi - lo);
+        if (hi - lo < 0 || width > MAX_WIDTH) return n * Long.BYTES;
+        return Byte.BYTES + Short.BYTES + Long.BYTES + Math.min (packedSize (n, width), runSize (nRuns, width));
+    } // integralSize
+
+    /***************************************************************************
+     * Return the size of n bit-packed codes, including slack so that any code can
+     * be read with a single getLong.
+     * @param n      the number of codes
+     * @param width  the width of a code in bits
+     * @return  the size in bytes
+     */
+    private static int packedSize (int n, int width)
+    {
+        return (width == 0) ? 0 : (int) (((long) n * width + 7) / 8) + Long.BYTES;
+    } // packedSize
+
+    /***************************************************************************
+     * Return the size of a run-length encoding: the number of runs, the end of each
+     * run and its bit-packed code.
+     * @param nRuns  the number of runs
+     * @param width  the width of a code in bits
+     * @return  the size in bytes
+     */
+    private static int runSize (int nRuns, int width)
+    {
+        return Short.BYTES + nRuns * Short.BYTES + packedSize (nRuns, width);
+    } // runSize
+
+    /***************************************************************************
+     * Return the number of bytes a distinct string takes in a dictionary.
+     * @param s  the string
+     * @return  the size in bytes (offset, length and UTF-8 bytes)
+     */
+    private static int wordSize (String s)
+    {
+        return 2 * Short.BYTES + s.getBytes (StandardCharsets.UTF_8).length;
+    } // wordSize
+
+    /***************************************************************************
+     * Return the number of bits needed to represent the non-negative value.
+     * @param x  the value
+     * @return  the number of bits
+     */
+    private static int bits (long x)
+    {
+        return Long.SIZE - Long.numberOfLeadingZeros (x);
+    } // bits
+
+    /***************************************************************************
+     * Write a code of the given width at a bit position (most significant bit first).
+     * @param buf     the page
+     * @param off     the offset of the bit-packed area
+     * @param bitPos  the bit position within the area
+     * @param width   the width of the code in bits
+     * @param code    the code
+     */
+    private static void putBits (ByteBuffer buf, int off, long bitPos, int width, long code)
+    {
+        for (int b = 0; b < width; b++) {
+            if ((code >>> (width - 1 - b) & 1) == 0) continue;
+            long p = bitPos + b;
+            int  i = off + (int) (p >>> 3);
+            buf.put (i, (byte) (buf.get (i) | 0x80 >>> (p & 7)));
+        } // for
+    } // putBits
+
+    /***************************************************************************
+     * Read a code of the given width at a bit position with a single getLong.
+     * @param buf     the buffer holding the page
+     * @param off     the offset of the bit-packed area
+     * @param bitPos  the bit position within the area
+     * @param width   the width of the code in bits (at most MAX_WIDTH)
+     * @return  the code
+     */
+    private static long getBits (ByteBuffer buf, int off, long bitPos, int width)
+    {
+        if (width == 0) return 0;
+        long word = buf.getLong (off + (int) (bitPos >>> 3));
+        return (word << (bitPos & 7)) >>> (Long.SIZE - width);
+    } // getBits
+
+    /***************************************************************************
+     * Determine whether the dictionary word at off has the given UTF-8 bytes.
+     * @param buf     the buffer holding the page
+     * @param off     the offset of the word (its length followed by its bytes)
+     * @param target  the bytes to compare with
+     * @return  whether the bytes are the same
+     */
+    private static boolean sameBytes (ByteBuffer buf, int off, byte [] target)
+    {
+        if ((buf.getShort (off) & 0xffff) != target.length) return false;
+        for (int k = 0; k < target.length; k++) {
+            if (buf.get (off + Short.BYTES + k) != target [k]) return false;
+        } // for
+        return true;
+    } // sameBytes
+
+    /***************************************************************************
+     * Determine whether the domain is an integer type (or Character).
+     * @param dom  the domain
+     * @return  whether values of the domain can be frame-of-reference encoded
+     */
+    private static boolean isIntegral (Class dom)
+    {
+        return dom == Integer.class || dom == Long.class || dom == Short.class ||
+               dom == Byte.class || dom == Character.class;
+    } // isIntegral
+
+    /***************************************************************************
+     * Return the value of an integer or Character attribute as a long.
+     * @param v  the attribute value
+     * @return  the value as a long
+     */
+    private static long value (Comparable v)
+    {
+        return (v instanceof Character) ? (Character) v : ((Number) v).longValue ();
+    } // value
+
+    /***************************************************************************
+     * Convert a long back into a value of an integer domain (or Character).
+     * @param dom  the domain
+     * @param x    the value as a long
+     * @return  the attribute value
+     */
+    private static Comparable fromValue (Class dom, long x)
+    {
+        switch (dom.getSimpleName ()) {
+        case "Integer":   return (int) x;
+        case "Long":      return x;
+        case "Short":     return (short) x;
+        case "Byte":      return (byte) x;
+        case "Character": return (char) x;
+        default:
+            throw new IllegalArgumentException ("CompressedPage: unsupported domain " + dom);
+        } // switch
+    } // fromValue
+
+    /***************************************************************************
+     * Return the 8 byte plain representation of a value (raw bits for reals).
+     * @param v  the attribute value
+     * @return  the plain representation
+     */
+    private static long plainBits (Comparable v)
+    {
+        return (v instanceof Double || v instanceof Float) ? Double.doubleToRawLongBits (((Number) v).doubleValue ())
+                                                           : value (v);
+    } // plainBits
+
+    /***************************************************************************
+     * Convert a plain representation back into a value of the domain.
+     * @param dom   the domain
+     * @param bits  the plain representation
+     * @return  the attribute value
+     */
+    private static Comparable fromPlain (Class dom, long bits)
+    {
+        if (dom == Double.class) return Double.longBitsToDouble (bits);
+        if (dom == Float.class)  return (float) Double.longBitsToDouble (bits);
+        return fromValue (dom, bits);
+    } // fromPlain
+
+} // CompressedPage class
@@ -0,0 +1,672 @@
+
+/************************************************************************************
+ * @file ConcurrentBpTreeMap.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.*;
+
+import static java.lang.Math.ceil;
+import static java.lang.System.out;
+
+/************************************************************************************
+ * The ConcurrentBpTreeMap class provides thread-safe B+Tree maps organized as B-link
+ * trees (Lehman and Yao).  Besides the references to its children, every node has a
+ * right link to its right sibling and a high key (the largest key it may hold), so a
+ * thread that reaches a node after a concurrent split moved some of its keys simply
+ * follows the right link.  As in BpTreeMap, divider keys are the largest key in their
+ * left subtree.
+ * <p>
+ * Each node has a StampedLock latch.  Lookups take no latches at all: they read a
+ * node under an optimistic stamp and retry the node if a writer changed it meanwhile.
+ * Writers descend the same way and write latch only the node they change (and, while
+ * moving right, its right sibling), then post a split to the parent after releasing
+ * the child.  Removed keys are deleted from their leaf without merging nodes, which
+ * is the usual compromise for B-link trees.  Iterators are weakly consistent.
+ */
+public class ConcurrentBpTreeMap <K extends Comparable <K>, V>
+       extends AbstractMap <K, V>
+       implements ConcurrentMap <K, V>, Serializable
+{
+    /** The default maximum fanout (number of children) for a node.
+     */
+    public static final int DEFAULT_ORDER = BpTreeMap.PAGE_ORDER;
+
+    /** The maximum fanout (number of children) for a node.
+     */
+    private final int order;
+
+    /** The ceiling of half the order (number of keys kept in a split node).
+     */
+    private final int half;
+
+    /** The class for type K.
+     */
+    private final Class <K> classK;
+
+    /** The class for type V.
+     */
+    private final Class <V> classV;
+
+    /********************************************************************************
+     * This inner class defines the nodes of the B-link tree.  The fields other than
+     * the latch may only be changed while holding the write latch and may be read
+     * optimistically (and must then be validated).
+     */
+    private class Node
+    {
+        final StampedLock latch = new StampedLock ();   // version/latch of the node
+        final Lock        write = latch.asWriteLock (); // the write latch
+        final boolean     isLeaf;                       // whether the node is a leaf
+        final int         level;                        // height above the leaves
+        int               nKeys;                        // number of active keys
+        final Object []   key;                          // array of keys
+        final Object []   ref;                          // array of values/children
+        Node              right;                        // right sibling (right link)
+        K                 high;                         // high key (null for the rightmost)
+
+        /****************************************************************************
+         * Construct a node.
+         * @param _level  the height of the node above the leaves (0 for a leaf)
+         */
+        Node (int _level)
+        {
+            level  = _level;
+            isLeaf = _level == 0;
+            key    = new Object [order - 1];
+            ref    = new Object [order];
+        } // constructor
+
+        /****************************************************************************
+         * Find the "<=" match position in this node using binary search.  During an
+         * optimistic read, the node may be inconsistent and this may throw.
+         * @param k  the key to be matched
+         * @return  the position of match within node, where nKeys indicates no match
+         */
+        @SuppressWarnings("unchecked")
+        int find (K k)
+        {
+            int lo = 0, hi = Math.min (nKeys, key.length);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (k.compareTo ((K) key[mid]) <= 0) hi = mid; else lo = mid + 1;
+            } // while
+            return lo;
+        } // find
+
+        /****************************************************************************
+         * Determine whether k belongs to a node further right (beyond the high key).
+         * @param k  the key to check
+         */
+        boolean beyond (K k)
+        {
+            return high != null && k.compareTo (high) > 0;
+        } // beyond
+
+    } // Node inner class
+
+    /** The root of the B-link tree (replaced when the root splits)
+     */
+    private transient volatile Node root;
+
+    /** The first (leftmost) leaf, which only changes when the map is cleared, as nodes
+     *  only split to the right
+     */
+    private transient volatile Node firstLeaf;
+
+    /** Lock for replacing the root
+     */
+    private transient Object rootLock;
+
+    /** The number of keys in the map
+     */
+    private transient AtomicInteger keyCount;
+
+    /********************************************************************************
+     * Construct an empty concurrent B+Tree map with the default (page-sized) order.
+     * @param _classK  the class for keys (K)
+     * @param _classV  the class for values (V)
+     */
+    public ConcurrentBpTreeMap (Class <K> _classK, Class <V> _classV)
+    {
+        this (_classK, _classV, DEFAULT_ORDER);
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty concurrent B+Tree map with the given order.
+     * @param _classK  the class for keys (K)
+     * @param _classV  the class for values (V)
+     * @param _order   the maximum number of children of a node (at least 3)
+     */
+    public ConcurrentBpTreeMap (Class <K> _classK, Class <V> _classV, int _order)
+    {
+        if (_order < 3) throw new IllegalArgumentException ("ConcurrentBpTreeMap: order must be at least 3");
+        classK    = _classK;
+        classV    = _classV;
+        order     = _order;
+        half      = (int) ceil (order / 2.0);
+        init ();
+    } // constructor
+
+    /********************************************************************************
+     * Make the tree empty (a single leaf), with its lock and key count.
+     */
+    private void init ()
+    {
+        rootLock = new Object ();
+        keyCount = new AtomicInteger ();
+        clear ();
+    } // init
+
+    /********************************************************************************
+     * Remove all the keys by replacing the tree with a single empty leaf.  Changes
+     * made concurrently by threads already inside the old tree may be lost.
+     */
+    public void clear ()
+    {
+        synchronized (rootLock) {
+            firstLeaf = new Node (0);
+            root      = firstLeaf;
+            keyCount.set (0);
+        } // synchronized
+    } // clear
+
+    /********************************************************************************
+     * Descend from the root to the node at the given level whose range covers the key,
+     * reading each node optimistically and following right links where a split moved
+     * the key's range.  The internal nodes passed on the way down are pushed on path.
+     * @param key    the key to look for
+     * @param level  the level of the node to return (0 for a leaf)
+     * @param path   the stack of ancestors visited (null if not needed)
+     * @return  the node at the level (not latched)
+     */
+    @SuppressWarnings("unchecked")
+    private Node descend (K key, int level, Deque <Node> path)
+    {
+        Node n = root;
+        for ( ; ; ) {
+            long    stamp = n.latch.tryOptimisticRead ();
+            Node    next  = null;
+            boolean down  = false;
+            try {
+                if (n.beyond (key))        next = n.right;                   // moved right by a split
+                else if (n.level > level) { next = (Node) n.ref[n.find (key)]; down = true; }
+            } catch (RuntimeException ex) {                                  // inconsistent read
+                stamp = 0;
+            } // try
+            if (stamp == 0 || ! n.latch.validate (stamp)) { Thread.onSpinWait (); continue; }
+            if (next == null) return n;                                      // reached the level
+            if (down && path != null) path.push (n);
+            n = next;
+        } // for
+    } // descend
+
+    /********************************************************************************
+     * Given the key, look up the value in the map without latching.
+     * @param key  the key used for look up
+     * @return  the value associated with the key or null if not found
+     */
+    @SuppressWarnings("unchecked")
+    public V get (Object key)
+    {
+        K    k = (K) key;
+        Node n = descend (k, 0, null);
+        for ( ; ; ) {
+            long   stamp = n.latch.tryOptimisticRead ();
+            Node   next  = null;
+            Object v     = null;
+            try {
+                if (n.beyond (k)) next = n.right;
+                else {
+                    int i = n.find (k);
+                    if (i < n.nKeys && k.compareTo ((K) n.key[i]) == 0) v = n.ref[i];
+                } // if
+            } catch (RuntimeException ex) {
+                stamp = 0;
+            } // try
+            if (stamp == 0 || ! n.latch.validate (stamp)) { Thread.onSpinWait (); continue; }
+            if (next == null) return (V) v;
+            n = next;
+        } // for
+    } // get
+
+    /********************************************************************************
+     * Determine whether the map contains the key.
+     * @param key  the key to look for
+     */
+    public boolean containsKey (Object key)
+    {
+        return get (key) != null;
+    } // containsKey
+
+    /********************************************************************************
+     * Write latch the node covering the key at the node's level, starting from node n
+     * and moving right (latching the right sibling before releasing the node).
+     * @param n    the node to start from
+     * @param key  the key
+     * @return  the latched node covering the key
+     */
+    private Node lockCovering (Node n, K key)
+    {
+        n.write.lock ();
+        while (n.beyond (key)) {
+            Node r = n.right;
+            r.write.lock ();
+            n.write.unlock ();
+            n = r;
+        } // while
+        return n;
+    } // lockCovering
+
+    /********************************************************************************
+     * Put the key-value pair in the map, replacing the value of an existing key.
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value for this key, or null if none
+     */
+    public V put (K key, V value)
+    {
+        return insert (key, value, false);
+    } // put
+
+    /********************************************************************************
+     * Put the key-value pair in the map unless the key is already present.
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the current value for this key, or null if it was inserted
+     */
+    public V putIfAbsent (K key, V value)
+    {
+        return insert (key, value, true);
+    } // putIfAbsent
+
+    /********************************************************************************
+     * Insert the key in its leaf, which is the only node latched unless it has to be
+     * split.  A split node is released before its parent is latched to take the new
+     * divider key and right sibling; the parent is the one recorded on the way down,
+     * or one to its right if it split meanwhile.
+     * @param key           the key to insert
+     * @param value         the value to insert
+     * @param onlyIfAbsent  whether to keep the value of an existing key
+     * @return  the previous value for this key, or null if none
+     */
+    @SuppressWarnings("unchecked")
+    private V insert (K key, V value, boolean onlyIfAbsent)
+    {
+        if (key == null || value == null) throw new NullPointerException ();
+        Deque <Node> path = new ArrayDeque <> ();
+        Node n = lockCovering (descend (key, 0, path), key);
+        int  i = n.find (key);
+        if (i < n.nKeys && key.compareTo ((K) n.key[i]) == 0) {               // existing key
+            V old = (V) n.ref[i];
+            if (! onlyIfAbsent) n.ref[i] = value;
+            n.write.unlock ();
+            return old;
+        } // if
+        keyCount.incrementAndGet ();
+
+        Object sep = key, child = value;                                     // entry to put in n
+        while (true) {
+            if (n.nKeys < order - 1) {                                       // room in n
+                wedge (n, i, sep, child);
+                n.write.unlock ();
+                return null;
+            } // if
+            Node rt = split (n, i, sep, child);
+            K    d  = n.high;                                                // divider - largest left
+            n.write.unlock ();
+
+            Node p = path.poll ();
+            if (p == null) {                                                 // n was the root when visited
+                synchronized (rootLock) {
+                    if (root == n) {
+                        Node nr   = new Node (n.level + 1);
+                        nr.nKeys  = 1;
+                        nr.key[0] = d;
+                        nr.ref[0] = n;
+                        nr.ref[1] = rt;
+                        root      = nr;
+                        rootLock.notifyAll ();
+                        return null;
+                    } // if
+                    awaitRoot (n.level + 1);                                 // the root's split is not posted yet
+                } // synchronized
+                p = descend (d, n.level + 1, null);                          // the root grew meanwhile
+            } // if
+            n     = lockCovering (p, d);
+            i     = n.find (d);
+            sep   = d;
+            child = rt;
+        } // while
+    } // insert
+
+    /********************************************************************************
+     * Wait until the root is at least at the given level.  A node reached by a right
+     * link from the root may split before the thread that split the root has posted
+     * the new root, and its divider must not be posted to a node below the level.
+     * Called holding rootLock; an interrupt is deferred, as the split must be posted.
+     * @param level  the level the root must reach
+     */
+    private void awaitRoot (int level)
+    {
+        boolean interrupted = false;
+        while (root.level < level) {
+            try {
+                rootLock.wait ();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            } // try
+        } // while
+        if (interrupted) Thread.currentThread ().interrupt ();
+    } // awaitRoot
+
+    /********************************************************************************
+     * Wedge a key and its value (leaf) or right child (internal node) into node n at
+     * position i.  The node must be write latched and not full.
+     */
+    private void wedge (Node n, int i, Object k, Object r)
+    {
+        int off = n.isLeaf ? 0 : 1;                                          // children go right of key
+        for (int j = n.nKeys; j > i; j--) {
+            n.key[j]     = n.key[j-1];
+            n.ref[j+off] = n.ref[j-1+off];
+        } // for
+        n.key[i]     = k;
+        n.ref[i+off] = r;
+        n.nKeys++;
+    } // wedge
+
+    /********************************************************************************
+     * Split the full, write latched node n while wedging in a key and value/child at
+     * position i.  The new right sibling is built completely before it is linked in,
+     * and n's high key becomes the divider.  Scratch arrays are local to the call.
+     * @return  the new right sibling
+     */
+    private Node split (Node n, int i, Object k, Object r)
+    {
+        int       off = n.isLeaf ? 0 : 1;
+        Object [] ks  = new Object [order];                                  // all keys, in order
+        Object [] rs  = new Object [order + 1];                              // all values/children
+        System.arraycopy (n.key, 0, ks, 0, i);
+        System.arraycopy (n.key, i, ks, i + 1, order - 1 - i);
+        ks[i] = k;
+        System.arraycopy (n.ref, 0, rs, 0, i + off);
+        System.arraycopy (n.ref, i + off, rs, i + off + 1, order - 1 - i);
+        rs[i+off] = r;
+
+        Node rt = new Node (n.level);
+        int  h  = n.isLeaf ? half : Math.min (half, order - 2);            // keys left in n
+        int  m  = n.isLeaf ? h : h + 1;                                      // first key for rt
+        rt.nKeys = order - m;
+        System.arraycopy (ks, m, rt.key, 0, rt.nKeys);
+        System.arraycopy (rs, m, rt.ref, 0, rt.nKeys + off);
+        rt.right = n.right;
+        rt.high  = n.high;
+
+        Arrays.fill (n.key, null);
+        Arrays.fill (n.ref, null);
+        System.arraycopy (ks, 0, n.key, 0, h);
+        System.arraycopy (rs, 0, n.ref, 0, h + off);
+        n.nKeys = h;
+        @SuppressWarnings("unchecked")
+        K d = (K) (n.isLeaf ? ks[h-1] : ks[h]);                              // divider - largest left
+        n.high  = d;
+        n.right = rt;                                                        // link in rt
+        return rt;
+    } // split
+
+    /********************************************************************************
+     * Remove the key from its leaf (without merging underfull leaves).
+     * @param key  the key to remove
+     * @return  the value that was associated with the key, or null if none
+     */
+    public V remove (Object key)
+    {
+        return change (key, null, null, false);
+    } // remove
+
+    /********************************************************************************
+     * Remove the key only if it is mapped to the given value.
+     */
+    public boolean remove (Object key, Object value)
+    {
+        return value != null && change (key, value, null, false) != null;
+    } // remove
+
+    /********************************************************************************
+     * Replace the value of the key only if it is present.
+     */
+    public V replace (K key, V value)
+    {
+        if (value == null) throw new NullPointerException ();
+        return change (key, null, value, true);
+    } // replace
+
+    /********************************************************************************
+     * Replace the value of the key only if it is mapped to oldValue.
+     */
+    public boolean replace (K key, V oldValue, V newValue)
+    {
+        if (oldValue == null || newValue == null) throw new NullPointerException ();
+        return change (key, oldValue, newValue, true) != null;
+    } // replace
+
+    /********************************************************************************
+     * Remove or replace the entry for the key in its write latched leaf.
+     * @param key     the key
+     * @param expect  the value the key must be mapped to (null for any)
+     * @param value   the replacement value (if replacing)
+     * @param keep    whether to replace the value rather than remove the entry
+     * @return  the previous value, or null if the key was absent or not matched
+     */
+    @SuppressWarnings("unchecked")
+    private V change (Object key, Object expect, V value, boolean keep)
+    {
+        K    k = (K) key;
+        Node n = lockCovering (descend (k, 0, null), k);
+        try {
+            int i = n.find (k);
+            if (i == n.nKeys || k.compareTo ((K) n.key[i]) != 0) return null;
+            V old = (V) n.ref[i];
+            if (expect != null && ! expect.equals (old)) return null;
+            if (keep) {
+                n.ref[i] = value;
+            } else {
+                for (int j = i; j < n.nKeys - 1; j++) { n.key[j] = n.key[j+1]; n.ref[j] = n.ref[j+1]; }
+                n.nKeys--;
+                n.key[n.nKeys] = null;
+                n.ref[n.nKeys] = null;
+                keyCount.decrementAndGet ();
+            } // if
+            return old;
+        } finally {
+            n.write.unlock ();
+        } // try
+    } // change
+
+    /********************************************************************************
+     * Return the number of keys in the map.
+     */
+    public int size ()
+    {
+        return keyCount.get ();
+    } // size
+
+    /********************************************************************************
+     * Return a set view of the entries in key order.  Its iterators are weakly
+     * consistent: each leaf is copied under an optimistic stamp and keys are returned
+     * in increasing order, reflecting some (but not necessarily all) concurrent changes.
+     * @return  the set view of the map
+     */
+    public Set <Map.Entry <K, V>> entrySet ()
+    {
+        return new AbstractSet <Map.Entry <K, V>> () {
+            public Iterator <Map.Entry <K, V>> iterator () { return new EntryIterator (); }
+            public int size ()                             { return keyCount.get (); }
+        };
+    } // entrySet
+
+    /********************************************************************************
+     * This inner class iterates over the leaves along their right links.
+     */
+    private class EntryIterator
+            implements Iterator <Map.Entry <K, V>>
+    {
+        private Node      leaf = firstLeaf;           // the next leaf to copy
+        private Object [] keys = new Object [0];      // keys copied from the current leaf
+        private Object [] vals = new Object [0];      // values copied from the current leaf
+        private int       i, n;                       // position in and size of the copy
+        private K         last;                       // the key last returned
+        private boolean   removable;                  // whether last may be removed
+
+        /****************************************************************************
+         * Copy the next non-empty leaf, skipping keys not beyond the last one returned.
+         */
+        @SuppressWarnings("unchecked")
+        private void advance ()
+        {
+            while (i == n && leaf != null) {
+                long stamp = leaf.latch.tryOptimisticRead ();
+                int  cnt   = Math.min (leaf.nKeys, leaf.key.length);
+                Object [] ks = Arrays.copyOf (leaf.key, cnt);
+                Object [] vs = Arrays.copyOf (leaf.ref, cnt);
+                Node next = leaf.right;
+                if (stamp == 0 || ! leaf.latch.validate (stamp)) { Thread.onSpinWait (); continue; }
+                keys = ks; vals = vs; i = 0; n = cnt;
+                while (i < n && last != null && ((K) keys[i]).compareTo (last) <= 0) i++;
+                leaf = next;
+            } // while
+        } // advance
+
+        public boolean hasNext ()
+        {
+            advance ();
+            return i < n;
+        } // hasNext
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry <K, V> next ()
+        {
+            if (! hasNext ()) throw new NoSuchElementException ();
+            last      = (K) keys[i];
+            removable = true;
+            return new AbstractMap.SimpleImmutableEntry <> (last, (V) vals[i++]);
+        } // next
+
+        public void remove ()
+        {
+            if (! removable) throw new IllegalStateException ();
+            ConcurrentBpTreeMap.this.remove (last);                       // last still bounds the scan
+            removable = false;
+        } // remove
+
+    } // EntryIterator inner class
+
+    /********************************************************************************
+     * Write the map as its order and classes followed by its keys and values in key
+     * order and a null marking the end (the nodes and latches are not written).  As
+     * the iterators are weakly consistent, concurrent changes may or may not be seen.
+     * @param oos  the stream to write the object to
+     */
+    private void writeObject (ObjectOutputStream oos)
+            throws IOException
+    {
+        oos.defaultWriteObject ();
+        for (Map.Entry <K, V> e : entrySet ()) {
+            oos.writeObject (e.getKey ());
+            oos.writeObject (e.getValue ());
+        } // for
+        oos.writeObject (null);
+    } // writeObject
+
+    /********************************************************************************
+     * Read the map back, putting the keys and values into a new tree.
+     * @param ois  the stream to read the object from
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject (ObjectInputStream ois)
+            throws IOException, ClassNotFoundException
+    {
+        ois.defaultReadObject ();
+        init ();
+        for (Object k; (k = ois.readObject ()) != null; ) put ((K) k, (V) ois.readObject ());
+    } // readObject
+
+    /********************************************************************************
+     * The main method used for testing: threads insert disjoint keys while others look
+     * keys up, after which all keys must be present and iterated in order.  Then many
+     * small trees are grown by several threads at once (so the root splits race with
+     * splits of its right siblings), and keys are removed through the views.
+     * @param args  the command-line arguments (args [0] gives the number of threads)
+     */
+    public static void main (String [] args)
+            throws InterruptedException
+    {
+        int nThreads = (args.length == 1) ? Integer.valueOf (args [0]) : Math.max (4, Runtime.getRuntime ().availableProcessors ());
+        int perThread = 200000;
+
+        for (int t : new int [] { 1, nThreads }) {
+            ConcurrentBpTreeMap <Integer, Integer> map = new ConcurrentBpTreeMap <> (Integer.class, Integer.class);
+            Thread [] threads = new Thread [t];
+            long begin = System.nanoTime ();
+            for (int k = 0; k < t; k++) {
+                final int id = k;
+                threads [k] = new Thread (() -> {
+                    Random rng = new Random (id);
+                    for (int j = 0; j < perThread; j++) {
+                        int key = rng.nextInt (1 << 30) / t * t + id;        // disjoint across threads
+                        map.put (key, key);
+                        map.get (rng.nextInt (1 << 30));
+                    } // for
+                });
+                threads [k].start ();
+            } // for
+            for (Thread th : threads) th.join ();
+            double secs = (System.nanoTime () - begin) / 1E9;
+
+            int missing = 0;
+            for (int k = 0; k < t; k++) {
+                Random rng = new Random (k);
+                for (int j = 0; j < perThread; j++) {
+                    int key = rng.nextInt (1 << 30) / t * t + k;
+                    if (! Integer.valueOf (key).equals (map.get (key))) missing++;
+                    rng.nextInt (1 << 30);
+                } // for
+            } // for
+            int ordered = 0, prev = Integer.MIN_VALUE;
+            for (Map.Entry <Integer, Integer> e : map.entrySet ()) { if (e.getKey () > prev) ordered++; prev = e.getKey (); }
+            out.println (t + " threads: " + (int) (2 * t * perThread / secs) + " operations per second, size = "
+                       + map.size () + ", iterated in order = " + ordered + ", missing = " + missing);
+        } // for
+
+        int wrong = 0;                                                       // races while the root grows
+        for (int trial = 0; trial < 2000; trial++) {
+            ConcurrentBpTreeMap <Integer, Integer> map = new ConcurrentBpTreeMap <> (Integer.class, Integer.class, 3);
+            Thread [] threads = new Thread [nThreads];
+            for (int k = 0; k < nThreads; k++) {
+                final int id = k;
+                threads [k] = new Thread (() -> { for (int j = id; j < 64; j += nThreads) map.put (j, j); });
+                threads [k].start ();
+            } // for
+            for (Thread th : threads) th.join ();
+            for (int j = 0; j < 64; j++) if (! Integer.valueOf (j).equals (map.get (j))) wrong++;
+            for (Map.Entry <Integer, ?> e : map.entrySet ()) if (! e.getKey ().equals (e.getValue ())) wrong++;
+            if (map.size () != 64) wrong++;
+
+            map.keySet ().removeIf (k -> k % 2 == 0);                       // removal through the views
+            int odd = 0;
+            for (int k : map.keySet ()) if (k % 2 == 1) odd++;
+            if (odd != 32 || map.size () != 32 || map.containsKey (10)) wrong++;
+            map.clear ();
+            map.put (7, 7);
+            if (map.size () != 1 || map.get (7) != 7 || map.get (9) != null) wrong++;
+        } // for
+        out.println ("growing the root concurrently and removing: wrong = " + wrong);
+    } // main
+
+} // ConcurrentBpTreeMap class
@@ -0,0 +1,544 @@
+
+/************************************************************************************
+ * @file ConcurrentLinHashMap.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * The ConcurrentLinHashMap class provides thread-safe hash maps that use the Linear
+ * Hashing algorithm.  Each bucket is a chain of nodes, one per key.  Buckets are
+ * guarded by a fixed array of lock stripes (bucket i uses stripe i % STRIPES), so
+ * writers to different buckets rarely contend, while lookups take no locks at all.
+ * <p>
+ * Splitting the next bucket locks only its stripe and that of the new bucket.  The
+ * split builds new chains (copying the nodes) rather than relinking nodes a reader
+ * may be on: the new bucket is published first, then the split pointer is advanced
+ * and finally the old bucket's chain is replaced.  The level and split pointer are
+ * kept in a single volatile word, so a lookup that misses re-reads it and retries
+ * if a split moved the key meanwhile.  Iterators are weakly consistent.
+ */
+public class ConcurrentLinHashMap <K, V>
+       extends AbstractMap <K, V>
+       implements ConcurrentMap <K, V>, Serializable
+{
+    /** The number of lock stripes guarding the buckets.
+     */
+    private static final int STRIPES = 64;
+
+    /** The number of buckets per segment of the bucket directory.
+     */
+    private static final int SEGMENT = 1024;
+
+    /** The load factor: the average number of keys per bucket before the next bucket
+     *  is split.
+     */
+    private final double loadFactor;
+
+    /********************************************************************************
+     * This inner class defines the nodes making up the bucket chains.  The key is
+     * fixed; the value and the link may only be changed while holding the bucket's
+     * lock and are volatile, so readers see them without locking.
+     */
+    private static final class Node <K, V>
+    {
+        final K             key;                      // the key
+        final int           hash;                     // the (spread) hash code of the key
+        volatile V          value;                    // the value
+        volatile Node <K, V> next;                    // the next node in the chain
+
+        Node (K _key, int _hash, V _value, Node <K, V> _next)
+        {
+            key   = _key;
+            hash  = _hash;
+            value = _value;
+            next  = _next;
+        } // constructor
+    } // Node inner class
+
+    /** The directory of buckets (the heads of their chains), in segments of SEGMENT
+     *  buckets, so that growing it only copies the array of segments.
+     */
+    private transient volatile AtomicReferenceArray <Node <K, V>> [] directory;
+
+    /** The modulus for low resolution hashing (in the upper half) and the index of the
+     *  next bucket to split (in the lower half), read and written together.
+     */
+    private transient volatile long state;
+
+    /** The lock stripes guarding the buckets.
+     */
+    private final ReentrantLock [] stripe = new ReentrantLock [STRIPES];
+
+    /** The lock held while splitting (one split at a time).
+     */
+    private final ReentrantLock splitLock = new ReentrantLock ();
+
+    /** The number of keys in the map.
+     */
+    private transient AtomicInteger keyCount;
+
+    /********************************************************************************
+     * Construct an empty concurrent hash table that uses Linear Hashing.
+     * @param initSize     the initial number of buckets
+     * @param _loadFactor  the average number of keys per bucket before a split
+     */
+    public ConcurrentLinHashMap (int initSize, double _loadFactor)
+    {
+        if (initSize < 1 || ! (_loadFactor > 0.0)) {
+            throw new IllegalArgumentException ("ConcurrentLinHashMap: bad initial size or load factor");
+        } // if
+        loadFactor = _loadFactor;
+        for (int i = 0; i < STRIPES; i++) stripe [i] = new ReentrantLock ();
+        init (initSize);
+    } // constructor
+
+    /********************************************************************************
+     * Make the table empty, with the given number of buckets.
+     * @param initSize  the initial number of buckets
+     */
+    @SuppressWarnings("unchecked")
+    private void init (int initSize)
+    {
+        int nSegs = (2 * initSize + SEGMENT - 1) / SEGMENT;
+        directory = new AtomicReferenceArray [nSegs];
+        for (int i = 0; i < nSegs; i++) directory [i] = new AtomicReferenceArray <> (SEGMENT);
+        state    = (long) initSize << 32;
+        keyCount = new AtomicInteger ();
+    } // init
+
+    /********************************************************************************
+     * Construct an empty concurrent hash table with the defaults of LinHashMap (the
+     * load factor being the same fraction of a bucket of SLOTS keys).
+     */
+    public ConcurrentLinHashMap ()
+    {
+        this (LinHashMap.INIT_SIZE, LinHashMap.LOAD_FACTOR * LinHashMap.SLOTS);
+    } // constructor
+
+    /********************************************************************************
+     * Spread the hash code of the key (so that the low bits depend on the high bits)
+     * and make it non-negative.
+     * @param key  the key to hash
+     */
+    private static int hash (Object key)
+    {
+        int h = key.hashCode ();
+        return (h ^ (h >>> 16)) & 0x7fffffff;
+    } // hash
+
+    /********************************************************************************
+     * Return the bucket for the hash code in the given state (level and split pointer).
+     * @param hash  the spread hash code
+     * @param s     the state
+     */
+    private static int bucket (int hash, long s)
+    {
+        int mod1 = (int) (s >>> 32);
+        int i    = hash % mod1;
+        return (i < (int) s) ? hash % (2 * mod1) : i;                 // bucket i has been split
+    } // bucket
+
+    /********************************************************************************
+     * Return the head of the chain of bucket i, and set it.
+     */
+    private Node <K, V> head (int i)
+    {
+        return directory [i / SEGMENT].get (i % SEGMENT);
+    } // head
+
+    private void setHead (int i, Node <K, V> n)
+    {
+        directory [i / SEGMENT].set (i % SEGMENT, n);
+    } // setHead
+
+    /********************************************************************************
+     * Return the number of buckets in the given state.
+     */
+    private static int buckets (long s)
+    {
+        return (int) (s >>> 32) + (int) s;
+    } // buckets
+
+    /********************************************************************************
+     * Find the node for the key, without locking.  If the key is not found and the
+     * state changed meanwhile (a split may have moved it), look again.
+     * @param key  the key to look for
+     * @return  the node holding the key, or null if there is none
+     */
+    private Node <K, V> find (Object key)
+    {
+        int h = hash (key);
+        while (true) {
+            long s = state;
+            for (Node <K, V> n = head (bucket (h, s)); n != null; n = n.next) {
+                if (n.hash == h && key.equals (n.key)) return n;
+            } // for
+            if (state == s) return null;
+        } // while
+    } // find
+
+    /********************************************************************************
+     * Given the key, look up the value in the hash table (without locking).
+     * @param key  the key used for look up
+     * @return  the value associated with the key, or null if none
+     */
+    public V get (Object key)
+    {
+        Node <K, V> n = find (key);
+        return (n == null) ? null : n.value;
+    } // get
+
+    /********************************************************************************
+     * Determine whether the hash table contains the key (without locking).
+     * @param key  the key to look for
+     */
+    public boolean containsKey (Object key)
+    {
+        return find (key) != null;
+    } // containsKey
+
+    /********************************************************************************
+     * Lock the stripe of the key's bucket, making sure the bucket did not change (by a
+     * split) before the lock was acquired.
+     * @param h  the spread hash code of the key
+     * @return  the bucket of the key, whose stripe is now locked
+     */
+    private int lockBucket (int h)
+    {
+        while (true) {
+            int           i    = bucket (h, state);
+            ReentrantLock lock = stripe [i % STRIPES];
+            lock.lock ();
+            if (bucket (h, state) == i) return i;                      // no split moved the key
+            lock.unlock ();
+        } // while
+    } // lockBucket
+
+    /********************************************************************************
+     * Put the key-value pair in the hash table, replacing the value of an existing key.
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value for this key, or null if none
+     */
+    public V put (K key, V value)
+    {
+        return insert (key, value, false);
+    } // put
+
+    /********************************************************************************
+     * Put the key-value pair in the hash table unless the key is already present.
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the current value for this key, or null if it was added
+     */
+    public V putIfAbsent (K key, V value)
+    {
+        return insert (key, value, true);
+    } // putIfAbsent
+
+    /********************************************************************************
+     * Insert the key-value pair under the lock of its bucket, then split a bucket if
+     * the load factor is exceeded.
+     * @param key        the key to insert
+     * @param value      the value to insert
+     * @param onlyIfAbsent  whether to keep the value of an existing key
+     * @return  the previous value for this key, or null if none
+     */
+    private V insert (K key, V value, boolean onlyIfAbsent)
+    {
+        if (key == null || value == null) throw new NullPointerException ();
+        int h = hash (key);
+        int i = lockBucket (h);
+        try {
+            Node <K, V> first = head (i);
+            for (Node <K, V> n = first; n != null; n = n.next) {
+                if (n.hash == h && key.equals (n.key)) {                 // existing key
+                    V old = n.value;
+                    if (! onlyIfAbsent) n.value = value;
+                    return old;
+                } // if
+            } // for
+            setHead (i, new Node <> (key, h, value, first));           // prepend: readers see a whole chain
+        } finally {
+            stripe [i % STRIPES].unlock ();
+        } // try
+        if (keyCount.incrementAndGet () > loadFactor * buckets (state)) split ();
+        return null;
+    } // insert
+
+    /********************************************************************************
+     * Split buckets while the load factor is exceeded, unless another thread is
+     * already splitting (it will then split as needed).  For each split, only the
+     * bucket split and the new bucket are locked.
+     */
+    @SuppressWarnings("unchecked")
+    private void split ()
+    {
+        if (! splitLock.tryLock ()) return;
+        try {
+            while (keyCount.get () > loadFactor * buckets (state)) {
+                long s    = state;
+                int  mod1 = (int) (s >>> 32);
+                int  sp   = (int) s;
+                int  nb   = mod1 + sp;                                 // the new bucket
+                if (nb / SEGMENT >= directory.length) {                // grow the directory by a segment
+                    AtomicReferenceArray <Node <K, V>> [] d = Arrays.copyOf (directory, directory.length + 1);
+                    d [d.length - 1] = new AtomicReferenceArray <> (SEGMENT);
+                    directory = d;
+                } // if
+
+                ReentrantLock a = stripe [sp % STRIPES], b = stripe [nb % STRIPES];
+                if (sp % STRIPES > nb % STRIPES) { ReentrantLock t = a; a = b; b = t; }   // lock in stripe order
+                a.lock ();
+                if (b != a) b.lock ();
+                try {
+                    Node <K, V> stay = null, move = null;              // copies of the nodes
+                    for (Node <K, V> n = head (sp); n != null; n = n.next) {
+                        if (n.hash % (2 * mod1) == sp) stay = new Node <> (n.key, n.hash, n.value, stay);
+                        else                           move = new Node <> (n.key, n.hash, n.value, move);
+                    } // for
+                    setHead (nb, move);                                // 1. publish the new bucket
+                    state = (sp + 1 == mod1) ? (long) (2 * mod1) << 32 // 2. advance the split pointer
+                                             : (long) mod1 << 32 | (sp + 1);
+                    setHead (sp, stay);                                // 3. replace the old chain
+                } finally {
+                    if (b != a) b.unlock ();
+                    a.unlock ();
+                } // try
+            } // while
+        } finally {
+            splitLock.unlock ();
+        } // try
+    } // split
+
+    /********************************************************************************
+     * Remove the key (and its value) from the hash table.
+     * @param key  the key to remove
+     * @return  the value that was associated with the key, or null if none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove (Object key)
+    {
+        return change ((K) key, null, null, true);
+    } // remove
+
+    /********************************************************************************
+     * Remove the key only if it is currently mapped to the given value.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean remove (Object key, Object value)
+    {
+        return value != null && change ((K) key, (V) value, null, true) != null;
+    } // remove
+
+    /********************************************************************************
+     * Replace the value of the key only if it is currently mapped to some value.
+     */
+    public V replace (K key, V value)
+    {
+        if (value == null) throw new NullPointerException ();
+        return change (key, null, value, false);
+    } // replace
+
+    /********************************************************************************
+     * Replace the value of the key only if it is currently mapped to oldValue.
+     */
+    public boolean replace (K key, V oldValue, V newValue)
+    {
+        if (oldValue == null || newValue == null) throw new NullPointerException ();
+        return change (key, oldValue, newValue, false) != null;
+    } // replace
+
+    /********************************************************************************
+     * Remove the key or replace its value under the lock of its bucket, if it is
+     * present (and mapped to expect, unless expect is null).  A removed node is
+     * unlinked, so a reader on it still reaches the rest of the chain.
+     * @param key     the key to change
+     * @param expect  the value the key must map to (null for any)
+     * @param value   the new value (for a replacement)
+     * @param delete  whether to remove the key (otherwise replace its value)
+     * @return  the previous value, or null if nothing was changed
+     */
+    private V change (K key, V expect, V value, boolean delete)
+    {
+        int h = hash (key);
+        int i = lockBucket (h);
+        try {
+            Node <K, V> prev = null;
+            for (Node <K, V> n = head (i); n != null; prev = n, n = n.next) {
+                if (n.hash != h || ! key.equals (n.key)) continue;
+                V old = n.value;
+                if (expect != null && ! expect.equals (old)) return null;
+                if (! delete) {
+                    n.value = value;
+                } else {
+                    if (prev == null) setHead (i, n.next); else prev.next = n.next;
+                    keyCount.decrementAndGet ();
+                } // if
+                return old;
+            } // for
+            return null;
+        } finally {
+            stripe [i % STRIPES].unlock ();
+        } // try
+    } // change
+
+    /********************************************************************************
+     * Return the size (number of keys) of the hash table.
+     */
+    public int size ()
+    {
+        return keyCount.get ();
+    } // size
+
+    /********************************************************************************
+     * Return a set view of the entries.  Its iterator is weakly consistent: it starts
+     * from the bucket chains at the time it was created (taken while no split is in
+     * progress, so each key is in one chain), sees later changes to values and may or
+     * may not see keys added later.
+     * @return  the set view of the map
+     */
+    public Set <Map.Entry <K, V>> entrySet ()
+    {
+        return new AbstractSet <Map.Entry <K, V>> () {
+            public Iterator <Map.Entry <K, V>> iterator () { return new EntryIterator (); }
+            public int size ()                               { return ConcurrentLinHashMap.this.size (); }
+        };
+    } // entrySet
+
+    /********************************************************************************
+     * This inner class iterates over the entries in a snapshot of the bucket heads.
+     */
+    private class EntryIterator
+            implements Iterator <Map.Entry <K, V>>
+    {
+        private final List <Node <K, V>> heads = new ArrayList <> ();   // the non-empty chains
+        private int         b = 0;                    // the position of the next chain in heads
+        private Node <K, V> n = null;                 // the next node
+        private K           last;                     // the key last returned (null if none)
+
+        EntryIterator ()
+        {
+            splitLock.lock ();
+            try {
+                int nb = buckets (state);
+                for (int i = 0; i < nb; i++) if (head (i) != null) heads.add (head (i));
+            } finally {
+                splitLock.unlock ();
+            } // try
+        } // constructor
+
+        public boolean hasNext ()
+        {
+            while (n == null && b < heads.size ()) n = heads.get (b++);
+            return n != null;
+        } // hasNext
+
+        public Map.Entry <K, V> next ()
+        {
+            if (! hasNext ()) throw new NoSuchElementException ();
+            Map.Entry <K, V> e = new AbstractMap.SimpleImmutableEntry <> (n.key, n.value);
+            last = n.key;
+            n    = n.next;
+            return e;
+        } // next
+
+        public void remove ()
+        {
+            if (last == null) throw new IllegalStateException ();
+            ConcurrentLinHashMap.this.remove (last);
+            last = null;
+        } // remove
+
+    } // EntryIterator inner class
+
+    /********************************************************************************
+     * Write the map as its load factor and number of buckets followed by its keys and
+     * values and a null marking the end (the chains and the directory are not
+     * written).  As the iterators are weakly consistent, concurrent changes may or may
+     * not be seen.
+     * @param oos  the stream to write the object to
+     */
+    private void writeObject (ObjectOutputStream oos)
+            throws IOException
+    {
+        oos.defaultWriteObject ();
+        oos.writeInt (buckets (state));
+        for (Map.Entry <K, V> e : entrySet ()) {
+            oos.writeObject (e.getKey ());
+            oos.writeObject (e.getValue ());
+        } // for
+        oos.writeObject (null);
+    } // writeObject
+
+    /********************************************************************************
+     * Read the map back, putting the keys and values into a table that starts with
+     * as many buckets as were written (so it need not split while loading).
+     * @param ois  the stream to read the object from
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject (ObjectInputStream ois)
+            throws IOException, ClassNotFoundException
+    {
+        ois.defaultReadObject ();
+        init (ois.readInt ());
+        for (Object k; (k = ois.readObject ()) != null; ) put ((K) k, (V) ois.readObject ());
+    } // readObject
+
+    /********************************************************************************
+     * The main method used for testing: compare the throughput of one thread and of
+     * several threads putting disjoint keys and looking up random ones.
+     * @param args  the command-line arguments (args [0] gives number of threads)
+     */
+    public static void main (String [] args)
+            throws InterruptedException
+    {
+        int nThreads = (args.length == 1) ? Integer.valueOf (args [0]) : Math.max (4, Runtime.getRuntime ().availableProcessors ());
+        int perThread = 200000;
+
+        for (int t : new int [] { 1, nThreads }) {
+            ConcurrentLinHashMap <Integer, Integer> map = new ConcurrentLinHashMap <> ();
+            Thread [] threads = new Thread [t];
+            long begin = System.nanoTime ();
+            for (int k = 0; k < t; k++) {
+                final int id = k;
+                threads [k] = new Thread (() -> {
+                    Random rng = new Random (id);
+                    for (int j = 0; j < perThread; j++) {
+                        int key = rng.nextInt (1 << 30) / t * t + id;        // disjoint across threads
+                        map.put (key, key);
+                        map.get (rng.nextInt (1 << 30));
+                    } // for
+                });
+                threads [k].start ();
+            } // for
+            for (Thread th : threads) th.join ();
+            double secs = (System.nanoTime () - begin) / 1E9;
+
+            int missing = 0;
+            for (int k = 0; k < t; k++) {
+                Random rng = new Random (k);
+                for (int j = 0; j < perThread; j++) {
+                    int key = rng.nextInt (1 << 30) / t * t + k;
+                    if (! Integer.valueOf (key).equals (map.get (key))) missing++;
+                    rng.nextInt (1 << 30);
+                } // for
+            } // for
+            int iterated = 0;
+            for (Map.Entry <Integer, Integer> e : map.entrySet ()) iterated++;
+            out.println (t + " threads: " + (int) (2 * t * perThread / secs) + " operations per second, size = "
+                       + map.size () + ", iterated = " + iterated + ", missing = " + missing);
+        } // for
+    } // main
+
+} // ConcurrentLinHashMap class
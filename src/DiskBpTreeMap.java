@@ -0,0 +1,991 @@
+
+/************************************************************************************
+ * @file DiskBpTreeMap.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * The DiskBpTreeMap class provides B+Tree maps whose nodes are fixed size pages of an
+ * index file, so that an index may be larger than memory and is reopened from its file
+ * rather than rebuilt from the tuples.  Nodes are read and written through the shared
+ * BufferPool, like the pages of a FileList, and refer to their children by page
+ * number.  Keys (KeyType) are packed into fixed size slots using the table's record
+ * format, so nodes are searched in place.  A leaf stores, with each key, the number
+ * of the row holding the tuple in the table's data list (e.g., a FileList), rather
+ * than the tuple itself, so tuples are not stored twice and leaves hold many keys.
+ * As in BpTreeMap, each divider key is the largest key in its left subtree and
+ * leaves are linked both ways.
+ * <p>
+ * Page 0 of the file is a header holding the root, first leaf, number of pages,
+ * number of keys, number of puts and the first free page.  Removing a key removes it
+ * from its leaf; a leaf left empty is unlinked from the leaf chain and from its
+ * parent (internal nodes left with no children are removed in turn), and its page
+ * is put on the free list to be reused.
+ */
+public class DiskBpTreeMap
+       extends AbstractMap <KeyType, Comparable []>
+       implements SortedMap <KeyType, Comparable []>, BufferPool.PageFile, Serializable
+{
+    /** Magic number ("BPI2") starting an index file (with row numbers as values).
+     */
+    private static final int MAGIC = 0x42504932;
+
+    /** The size of a page (node) in bytes, the same as for data files.
+     */
+    private static final int PAGE_SIZE = FileList.PAGE_SIZE;
+
+    /** The size of the node header: whether a leaf (byte), the number of keys (short),
+     *  and for leaves, the next and previous leaf pages (int).
+     */
+    private static final int HEADER = 16;
+
+    /** The offsets of the fields in the node header.
+     */
+    private static final int IS_LEAF = 0, N_KEYS = 1, NEXT = 3, PREV = 7;
+
+    /** The page number used for no page (e.g., no next leaf).
+     */
+    private static final int NONE = -1;
+
+    /** The name of the index file.
+     */
+    private final String fileName;
+
+    /** The domains of the key attributes.
+     */
+    private final Class [] keyDomain;
+
+    /** The rows (tuples) of the table, which the row numbers in the leaves refer to.
+     */
+    private final List <Comparable []> rows;
+
+    /** The sizes of a key slot, a value slot (row number) and a leaf entry in bytes.
+     */
+    private final int keySize, valueSize, entrySize;
+
+    /** The maximum number of keys in a leaf and of children of an internal node.
+     */
+    private final int leafCap, innerCap;
+
+    /** The random access file holding the pages (reopened after deserialization).
+     */
+    private transient RandomAccessFile file;
+
+    /** The page numbers of the root and the first leaf, the number of pages in the
+     *  file, the number of keys and the first page on the free list (kept in the
+     *  header page).
+     */
+    private transient int root, firstLeaf, nPages, keyCount, freeList;
+
+    /** The number of puts since the index was created or cleared (kept in the header
+     *  page), so an owner can tell whether the index is in step with its data.
+     */
+    private transient long puts;
+
+    /** The divider key for the right sibling returned by the last split.
+     */
+    private transient KeyType divider;
+
+    /** The row previously associated with the key being put or removed (NONE if none).
+     */
+    private transient int previous;
+
+    /** The counter for the number nodes accessed (for performance testing).
+     */
+    private transient int count = 0;
+
+    /********************************************************************************
+     * Open (or create) a disk-resident B+Tree map in the given file.
+     * @param _fileName   the name of the index file
+     * @param _keyDomain  the domains of the key attributes
+     * @param _rows       the rows (tuples) that the index refers to by number
+     */
+    public DiskBpTreeMap (String _fileName, Class [] _keyDomain, List <Comparable []> _rows)
+    {
+        fileName    = _fileName;
+        keyDomain   = _keyDomain;
+        rows        = _rows;
+        keySize     = Table.recordSize (keyDomain);
+        valueSize   = Integer.BYTES;
+        entrySize   = keySize + valueSize;
+        leafCap     = (PAGE_SIZE - HEADER) / entrySize;
+        innerCap    = (PAGE_SIZE - HEADER + keySize) / (keySize + Integer.BYTES);
+        if (leafCap < 2 || innerCap < 4) {
+            throw new IllegalArgumentException ("DiskBpTreeMap: entries too large for page size " + PAGE_SIZE);
+        } // if
+        open ();
+    } // constructor
+
+    /********************************************************************************
+     * Open the index file, reading its header, or initialize it (a header page and an
+     * empty root leaf) if it is new.
+     */
+    private void open ()
+    {
+        try {
+            file = new RandomAccessFile (fileName, "rw");
+        } catch (IOException ex) {
+            throw new UncheckedIOException ("DiskBpTreeMap: unable to open " + fileName, ex);
+        } // try
+        BufferPool       pool = BufferPool.getInstance ();
+        BufferPool.Frame fr   = pool.pin (this, 0);
+        ByteBuffer       buf  = ByteBuffer.wrap (fr.data ());
+        boolean          init = buf.getInt (0) != MAGIC;
+        if (! init && (buf.getInt (20) != keySize || buf.getInt (24) != valueSize)) {
+            pool.unpin (fr, false);
+            throw new IllegalStateException ("DiskBpTreeMap: " + fileName + " has a different key or value format");
+        } // if
+        root      = buf.getInt (4);
+        firstLeaf = buf.getInt (8);
+        nPages    = buf.getInt (12);
+        keyCount  = buf.getInt (16);
+        puts      = buf.getLong (28);
+        freeList  = buf.getInt (36);
+        pool.unpin (fr, false);
+        if (init) reset ();
+    } // open
+
+    /********************************************************************************
+     * Make the index empty: a header page and an empty root leaf.
+     */
+    private void reset ()
+    {
+        root      = 1;
+        firstLeaf = 1;
+        nPages    = 2;
+        keyCount  = 0;
+        puts      = 0;
+        freeList  = NONE;
+        BufferPool       pool = BufferPool.getInstance ();
+        BufferPool.Frame fr   = pool.pinNew (this, 1);
+        initNode (ByteBuffer.wrap (fr.data ()), true);
+        pool.unpin (fr, true);
+        writeHeader ();
+    } // reset
+
+    /********************************************************************************
+     * Write the header fields to page 0 (through the buffer pool, so they are written
+     * back along with the nodes).
+     */
+    private void writeHeader ()
+    {
+        BufferPool       pool = BufferPool.getInstance ();
+        BufferPool.Frame fr   = pool.pin (this, 0);
+        ByteBuffer       buf  = ByteBuffer.wrap (fr.data ());
+        buf.putInt (0, MAGIC).putInt (4, root).putInt (8, firstLeaf).putInt (12, nPages)
+           .putInt (16, keyCount).putInt (20, keySize).putInt (24, valueSize).putLong (28, puts)
+           .putInt (36, freeList);
+        pool.unpin (fr, true);
+    } // writeHeader
+
+    /********************************************************************************
+     * Initialize an empty node in the page buffer.
+     * @param buf     the page buffer
+     * @param isLeaf  whether the node is a leaf
+     */
+    private static void initNode (ByteBuffer buf, boolean isLeaf)
+    {
+        buf.put (IS_LEAF, (byte) (isLeaf ? 1 : 0)).putShort (N_KEYS, (short) 0);
+        buf.putInt (NEXT, NONE).putInt (PREV, NONE);
+    } // initNode
+
+    /********************************************************************************
+     * Return the offsets of leaf entry i, internal key i and child reference i.
+     */
+    private int entryPos (int i) { return HEADER + i * entrySize; }
+    private int keyPos (int i)   { return HEADER + innerCap * Integer.BYTES + i * keySize; }
+    private int childPos (int i) { return HEADER + i * Integer.BYTES; }
+
+    /********************************************************************************
+     * Read the key at the given position of a page.
+     * @param buf  the page buffer
+     * @param pos  the position of the key
+     * @return  the key
+     */
+    private KeyType readKey (ByteBuffer buf, int pos)
+    {
+        return new KeyType (Table.unpackTuple (buf, pos, keyDomain));
+    } // readKey
+
+    /********************************************************************************
+     * Pack a key into its slot at the given position of a page.
+     * @param buf  the page buffer
+     * @param pos  the position of the slot
+     * @param tup  the values to pack
+     * @param dom  their domains
+     */
+    private static void write (ByteBuffer buf, int pos, Comparable [] tup, Class [] dom)
+    {
+        buf.position (pos);
+        if (! Table.packTuple (tup, dom, buf)) {
+            throw new IllegalArgumentException ("DiskBpTreeMap: unable to pack " + Arrays.toString (tup));
+        } // if
+    } // write
+
+    /********************************************************************************
+     * Find the "<=" match position in the node in the page buffer using binary search.
+     * @param buf  the page buffer
+     * @param k    the key to be matched
+     * @return  the position of match within node, where nKeys indicates no match
+     */
+    private int find (ByteBuffer buf, KeyType k)
+    {
+        boolean leaf = buf.get (IS_LEAF) == 1;
+        int lo = 0, hi = buf.getShort (N_KEYS);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (k.compareTo (readKey (buf, leaf ? entryPos (mid) : keyPos (mid))) <= 0) hi = mid; else lo = mid + 1;
+        } // while
+        return lo;
+    } // find
+
+    /********************************************************************************
+     * Given the key, look up the value (tuple) in the B+Tree map, fetching it from
+     * the rows by the row number found in the leaf.
+     * @param key  the key used for look up
+     * @return  the value associated with the key or null if not found
+     */
+    public Comparable [] get (Object key)
+    {
+        int row = getRow ((KeyType) key);
+        return (row == NONE) ? null : rows.get (row);
+    } // get
+
+    /********************************************************************************
+     * Given the key, look up the number of the row holding its tuple.
+     * @param k  the key used for look up
+     * @return  the row number, or NONE (-1) if not found
+     */
+    public synchronized int getRow (KeyType k)
+    {
+        BufferPool pool = BufferPool.getInstance ();
+        int        page = root;
+        while (true) {
+            count++;
+            BufferPool.Frame fr  = pool.pin (this, page);
+            ByteBuffer       buf = ByteBuffer.wrap (fr.data ());
+            int              i   = find (buf, k);
+            if (buf.get (IS_LEAF) == 1) {
+                int row = NONE;
+                if (i < buf.getShort (N_KEYS) && k.compareTo (readKey (buf, entryPos (i))) == 0) {
+                    row = buf.getInt (entryPos (i) + keySize);
+                } // if
+                pool.unpin (fr, false);
+                return row;
+            } // if
+            page = buf.getInt (childPos (i));
+            pool.unpin (fr, false);
+        } // while
+    } // getRow
+
+    /********************************************************************************
+     * Determine whether the B+Tree map contains the key.
+     * @param key  the key to look for
+     */
+    public boolean containsKey (Object key)
+    {
+        return getRow ((KeyType) key) != NONE;
+    } // containsKey
+
+    /********************************************************************************
+     * The values are rows of the table's data list, so entries are added by row
+     * number (putRow) rather than by tuple.
+     */
+    public Comparable [] put (KeyType key, Comparable [] value)
+    {
+        throw new UnsupportedOperationException ("DiskBpTreeMap.put: values are rows, use putRow");
+    } // put
+
+    /********************************************************************************
+     * Put the key and the number of the row holding its tuple in the B+Tree map,
+     * replacing the row of an existing key.
+     * @param key  the key to insert
+     * @param row  the row number of the tuple
+     * @return  the previous row for this key, or NONE (-1) if none
+     */
+    public synchronized int putRow (KeyType key, int row)
+    {
+        previous = NONE;
+        int rt = insert (root, key, row);
+        if (rt != NONE) {                                                // root was split: make a new root
+            int              nr  = allocatePage ();
+            BufferPool.Frame fr  = BufferPool.getInstance ().pinNew (this, nr);
+            ByteBuffer       buf = ByteBuffer.wrap (fr.data ());
+            initNode (buf, false);
+            buf.putShort (N_KEYS, (short) 1);
+            buf.putInt (childPos (0), root).putInt (childPos (1), rt);
+            write (buf, keyPos (0), divider.key, keyDomain);
+            BufferPool.getInstance ().unpin (fr, true);
+            root = nr;
+        } // if
+        puts++;
+        writeHeader ();
+        return previous;
+    } // put
+
+    /********************************************************************************
+     * Recursive helper function for inserting a key in the subtree rooted at the page.
+     * A full node is split first, and the new entry goes to the half it belongs in.
+     * @param page  the page of the current node
+     * @param key   the key to insert
+     * @param row   the row number to insert
+     * @return  the page of the new right sibling of the node (with its divider key in
+     *          divider), or NONE if it was not split
+     */
+    private int insert (int page, KeyType key, int row)
+    {
+        count++;
+        BufferPool       pool = BufferPool.getInstance ();
+        BufferPool.Frame fr   = pool.pin (this, page);
+        ByteBuffer       buf  = ByteBuffer.wrap (fr.data ());
+        int              i    = find (buf, key);
+        int              n    = buf.getShort (N_KEYS);
+
+        if (buf.get (IS_LEAF) == 1) {
+            if (i < n && key.compareTo (readKey (buf, entryPos (i))) == 0) {   // existing key: replace row
+                previous = buf.getInt (entryPos (i) + keySize);
+                buf.putInt (entryPos (i) + keySize, row);
+                pool.unpin (fr, true);
+                return NONE;
+            } // if
+            keyCount++;
+            if (n < leafCap) {
+                wedgeLeaf (buf, i, key, row);
+                pool.unpin (fr, true);
+                return NONE;
+            } // if
+            int rt = splitLeaf (page, buf);
+            if (key.compareTo (divider) <= 0) {
+                wedgeLeaf (buf, i, key, row);
+            } else {
+                BufferPool.Frame rf = pool.pin (this, rt);
+                wedgeLeaf (ByteBuffer.wrap (rf.data ()), i - buf.getShort (N_KEYS), key, row);
+                pool.unpin (rf, true);
+            } // if
+            pool.unpin (fr, true);
+            return rt;
+        } // if
+
+        int child = buf.getInt (childPos (i));
+        pool.unpin (fr, false);
+        int crt = insert (child, key, row);                            // recursive call to insert
+        if (crt == NONE) return NONE;                                    // no split below
+        KeyType d = divider;
+
+        fr  = pool.pin (this, page);
+        buf = ByteBuffer.wrap (fr.data ());
+        if (n < innerCap - 1) {
+            wedgeInner (buf, i, d, crt);
+            pool.unpin (fr, true);
+            return NONE;
+        } // if
+        int rt = splitInner (buf);
+        int h  = buf.getShort (N_KEYS);
+        if (d.compareTo (divider) < 0) {
+            wedgeInner (buf, i, d, crt);
+        } else {
+            BufferPool.Frame rf = pool.pin (this, rt);
+            wedgeInner (ByteBuffer.wrap (rf.data ()), i - h - 1, d, crt);
+            pool.unpin (rf, true);
+        } // if
+        pool.unpin (fr, true);
+        return rt;
+    } // insert
+
+    /********************************************************************************
+     * Wedge the key and row entry into a leaf at position i, shifting later entries.
+     */
+    private void wedgeLeaf (ByteBuffer buf, int i, KeyType key, int row)
+    {
+        int n = buf.getShort (N_KEYS);
+        System.arraycopy (buf.array (), entryPos (i), buf.array (), entryPos (i + 1), (n - i) * entrySize);
+        write (buf, entryPos (i), key.key, keyDomain);
+        buf.putInt (entryPos (i) + keySize, row);
+        buf.putShort (N_KEYS, (short) (n + 1));
+    } // wedgeLeaf
+
+    /********************************************************************************
+     * Wedge the divider key into an internal node at position i, with the child page
+     * to its right, shifting later keys and children.
+     */
+    private void wedgeInner (ByteBuffer buf, int i, KeyType key, int child)
+    {
+        int n = buf.getShort (N_KEYS);
+        System.arraycopy (buf.array (), keyPos (i), buf.array (), keyPos (i + 1), (n - i) * keySize);
+        System.arraycopy (buf.array (), childPos (i + 1), buf.array (), childPos (i + 2), (n - i) * Integer.BYTES);
+        write (buf, keyPos (i), key.key, keyDomain);
+        buf.putInt (childPos (i + 1), child);
+        buf.putShort (N_KEYS, (short) (n + 1));
+    } // wedgeInner
+
+    /********************************************************************************
+     * Split the full leaf in the page buffer, moving its upper half to a new right
+     * sibling that is linked in after it.  The divider is the largest key left.
+     * @param page  the page of the leaf
+     * @param buf   the page buffer of the leaf
+     * @return  the page of the new right sibling
+     */
+    private int splitLeaf (int page, ByteBuffer buf)
+    {
+        BufferPool       pool = BufferPool.getInstance ();
+        int              n    = buf.getShort (N_KEYS);
+        int              h    = (n + 1) / 2;
+        int              rt   = allocatePage ();
+        BufferPool.Frame rf   = pool.pinNew (this, rt);
+        ByteBuffer       rbuf = ByteBuffer.wrap (rf.data ());
+        initNode (rbuf, true);
+        System.arraycopy (buf.array (), entryPos (h), rbuf.array (), entryPos (0), (n - h) * entrySize);
+        rbuf.putShort (N_KEYS, (short) (n - h));
+        buf.putShort (N_KEYS, (short) h);
+
+        int next = buf.getInt (NEXT);                                    // link rt between page and next
+        rbuf.putInt (NEXT, next).putInt (PREV, page);
+        buf.putInt (NEXT, rt);
+        if (next != NONE) {
+            BufferPool.Frame nf = pool.pin (this, next);
+            ByteBuffer.wrap (nf.data ()).putInt (PREV, rt);
+            pool.unpin (nf, true);
+        } // if
+        pool.unpin (rf, true);
+        divider = readKey (buf, entryPos (h - 1));                       // divider - largest left
+        return rt;
+    } // splitLeaf
+
+    /********************************************************************************
+     * Split the full internal node in the page buffer: the middle key moves up as the
+     * divider and the keys and children after it move to a new right sibling.
+     * @param buf  the page buffer of the node
+     * @return  the page of the new right sibling
+     */
+    private int splitInner (ByteBuffer buf)
+    {
+        BufferPool       pool = BufferPool.getInstance ();
+        int              n    = buf.getShort (N_KEYS);
+        int              h    = n / 2;
+        int              rt   = allocatePage ();
+        BufferPool.Frame rf   = pool.pinNew (this, rt);
+        ByteBuffer       rbuf = ByteBuffer.wrap (rf.data ());
+        initNode (rbuf, false);
+        divider = readKey (buf, keyPos (h));                             // middle key moves up
+        System.arraycopy (buf.array (), keyPos (h + 1), rbuf.array (), keyPos (0), (n - h - 1) * keySize);
+        System.arraycopy (buf.array (), childPos (h + 1), rbuf.array (), childPos (0), (n - h) * Integer.BYTES);
+        rbuf.putShort (N_KEYS, (short) (n - h - 1));
+        buf.putShort (N_KEYS, (short) h);
+        pool.unpin (rf, true);
+        return rt;
+    } // splitInner
+
+    /********************************************************************************
+     * Return a page for a new node: the first page on the free list, if any, or else
+     * a new page at the end of the file.
+     * @return  the page number
+     */
+    private int allocatePage ()
+    {
+        if (freeList == NONE) return nPages++;
+        int              page = freeList;
+        BufferPool.Frame fr   = BufferPool.getInstance ().pin (this, page);
+        freeList = ByteBuffer.wrap (fr.data ()).getInt (NEXT);          // a free page links to the next
+        BufferPool.getInstance ().unpin (fr, false);
+        return page;
+    } // allocatePage
+
+    /********************************************************************************
+     * Put the page of a removed node on the free list.
+     * @param page  the page number
+     */
+    private void freePage (int page)
+    {
+        BufferPool.Frame fr  = BufferPool.getInstance ().pinNew (this, page);
+        ByteBuffer.wrap (fr.data ()).putInt (NEXT, freeList);
+        BufferPool.getInstance ().unpin (fr, true);
+        freeList = page;
+    } // freePage
+
+    /********************************************************************************
+     * Remove the key (and its row) from the B+Tree map.  A leaf left empty is removed
+     * from the tree and the leaf chain, and a root left with a single child is
+     * replaced by that child.
+     * @param key  the key to remove
+     * @return  the value (tuple) that was associated with the key, or null if none
+     */
+    public Comparable [] remove (Object key)
+    {
+        int row = removeRow ((KeyType) key);
+        return (row == NONE) ? null : rows.get (row);
+    } // remove
+
+    /********************************************************************************
+     * Remove the key from the B+Tree map, returning the number of its row.
+     * @param key  the key to remove
+     * @return  the row that was associated with the key, or NONE (-1) if none
+     */
+    public synchronized int removeRow (KeyType key)
+    {
+        previous = NONE;
+        delete (root, key);
+        BufferPool pool = BufferPool.getInstance ();
+        while (true) {                                                   // shrink: drop a root with one child
+            BufferPool.Frame fr  = pool.pin (this, root);
+            ByteBuffer       buf = ByteBuffer.wrap (fr.data ());
+            boolean          one = buf.get (IS_LEAF) == 0 && buf.getShort (N_KEYS) == 0;
+            int              ch  = buf.getInt (childPos (0));
+            pool.unpin (fr, false);
+            if (! one) break;
+            freePage (root);
+            root = ch;
+        } // while
+        if (previous != NONE) writeHeader ();
+        return previous;
+    } // removeRow
+
+    /********************************************************************************
+     * Recursive helper function for deleting a key from the subtree rooted at the page.
+     * A node left with no keys (leaf) or no children (internal node) is freed, and
+     * its parent removes its reference to it.  Divider keys are left in place when the
+     * key they equal is deleted, as they still separate the subtrees.
+     * @param page  the page of the current node
+     * @param key   the key to delete
+     * @return  whether the node was left empty and freed
+     */
+    private boolean delete (int page, KeyType key)
+    {
+        count++;
+        BufferPool       pool = BufferPool.getInstance ();
+        BufferPool.Frame fr   = pool.pin (this, page);
+        ByteBuffer       buf  = ByteBuffer.wrap (fr.data ());
+        int              i    = find (buf, key);
+        int              n    = buf.getShort (N_KEYS);
+
+        if (buf.get (IS_LEAF) == 1) {
+            if (i == n || key.compareTo (readKey (buf, entryPos (i))) != 0) {   // key not found
+                pool.unpin (fr, false);
+                return false;
+            } // if
+            previous = buf.getInt (entryPos (i) + keySize);
+            System.arraycopy (buf.array (), entryPos (i + 1), buf.array (), entryPos (i), (n - i - 1) * entrySize);
+            buf.putShort (N_KEYS, (short) (n - 1));
+            keyCount--;
+            boolean empty = n == 1 && page != root;
+            if (empty) unlinkLeaf (buf);
+            pool.unpin (fr, true);
+            if (empty) freePage (page);
+            return empty;
+        } // if
+
+        int child = buf.getInt (childPos (i));
+        pool.unpin (fr, false);
+        if (! delete (child, key)) return false;                         // child still in use
+
+        fr  = pool.pin (this, page);
+        buf = ByteBuffer.wrap (fr.data ());
+        if (n > 0) {                                                     // drop child i and a divider next to it
+            int k = (i < n) ? i : n - 1;
+            System.arraycopy (buf.array (), keyPos (k + 1), buf.array (), keyPos (k), (n - k - 1) * keySize);
+            System.arraycopy (buf.array (), childPos (i + 1), buf.array (), childPos (i), (n - i) * Integer.BYTES);
+            buf.putShort (N_KEYS, (short) (n - 1));
+        } // if
+        pool.unpin (fr, true);
+        if (n == 0) freePage (page);                                     // its only child is gone
+        return n == 0;
+    } // delete
+
+    /********************************************************************************
+     * Unlink the leaf in the page buffer from the leaf chain, linking its previous
+     * and next leaves to each other.
+     * @param buf  the page buffer of the leaf
+     */
+    private void unlinkLeaf (ByteBuffer buf)
+    {
+        BufferPool pool = BufferPool.getInstance ();
+        int        next = buf.getInt (NEXT), prev = buf.getInt (PREV);
+        if (prev == NONE) {
+            firstLeaf = next;
+        } else {
+            BufferPool.Frame pf = pool.pin (this, prev);
+            ByteBuffer.wrap (pf.data ()).putInt (NEXT, next);
+            pool.unpin (pf, true);
+        } // if
+        if (next != NONE) {
+            BufferPool.Frame nf = pool.pin (this, next);
+            ByteBuffer.wrap (nf.data ()).putInt (PREV, prev);
+            pool.unpin (nf, true);
+        } // if
+    } // unlinkLeaf
+
+    /********************************************************************************
+     * Remove all the keys, discarding all the nodes.
+     */
+    public synchronized void clear ()
+    {
+        BufferPool.getInstance ().discard (this);
+        try {
+            file.setLength (0);
+        } catch (IOException ex) {
+            throw new UncheckedIOException ("DiskBpTreeMap.clear: unable to truncate " + fileName, ex);
+        } // try
+        reset ();
+    } // clear
+
+    /********************************************************************************
+     * Return the size (number of keys) in the B+Tree.
+     */
+    public synchronized int size ()
+    {
+        return keyCount;
+    } // size
+
+    /********************************************************************************
+     * Return the number of puts (including those replacing a value) since the index
+     * was created or last cleared.
+     */
+    public synchronized long putCount ()
+    {
+        return puts;
+    } // putCount
+
+    /********************************************************************************
+     * Return null to use the natural order of the keys.
+     */
+    public Comparator <? super KeyType> comparator ()
+    {
+        return null;
+    } // comparator
+
+    /********************************************************************************
+     * Return the first (smallest) key, the first key of the first leaf.
+     */
+    public KeyType firstKey ()
+    {
+        return new View (null, null).firstKey ();
+    } // firstKey
+
+    /********************************************************************************
+     * Return the last (largest) key, found by descending along the rightmost children.
+     */
+    public synchronized KeyType lastKey ()
+    {
+        if (keyCount == 0) throw new NoSuchElementException ("DiskBpTreeMap.lastKey: map is empty");
+        BufferPool pool = BufferPool.getInstance ();
+        int        page = root;
+        while (true) {
+            BufferPool.Frame fr  = pool.pin (this, page);
+            ByteBuffer       buf = ByteBuffer.wrap (fr.data ());
+            int              n   = buf.getShort (N_KEYS);
+            if (buf.get (IS_LEAF) == 1) {
+                KeyType k = readKey (buf, entryPos (n - 1));
+                pool.unpin (fr, false);
+                return k;
+            } // if
+            page = buf.getInt (childPos (n));
+            pool.unpin (fr, false);
+        } // while
+    } // lastKey
+
+    /********************************************************************************
+     * Return a set view of the entries, scanned in key order along the leaf chain.
+     */
+    public Set <Map.Entry <KeyType, Comparable []>> entrySet ()
+    {
+        return new View (null, null).entrySet ();
+    } // entrySet
+
+    /********************************************************************************
+     * Return views of the portions of the map with keys below toKey, at least fromKey,
+     * or in [fromKey, toKey), scanned lazily from the leaf holding the lower bound.
+     */
+    public SortedMap <KeyType, Comparable []> headMap (KeyType toKey)                  { return new View (null, toKey); }
+    public SortedMap <KeyType, Comparable []> tailMap (KeyType fromKey)                { return new View (fromKey, null); }
+    public SortedMap <KeyType, Comparable []> subMap (KeyType fromKey, KeyType toKey)  { return new View (fromKey, toKey); }
+
+    /********************************************************************************
+     * This inner class provides a view of the keys in [lo, hi), where a null bound is
+     * open.  Its iterator descends once to the leaf holding lo and then follows the
+     * leaf links, decoding one leaf at a time.
+     */
+    private class View
+            extends AbstractMap <KeyType, Comparable []>
+            implements SortedMap <KeyType, Comparable []>
+    {
+        private final KeyType lo, hi;                 // the bounds (null if open)
+
+        View (KeyType _lo, KeyType _hi)
+        {
+            if (_lo != null && _hi != null && _lo.compareTo (_hi) > 0) {
+                throw new IllegalArgumentException ("DiskBpTreeMap.View: fromKey > toKey");
+            } // if
+            lo = _lo;
+            hi = _hi;
+        } // constructor
+
+        boolean inRange (KeyType k)
+        {
+            return (lo == null || k.compareTo (lo) >= 0) && (hi == null || k.compareTo (hi) < 0);
+        } // inRange
+
+        public Comparator <? super KeyType> comparator () { return null; }
+
+        public Comparable [] get (Object key)
+        {
+            return inRange ((KeyType) key) ? DiskBpTreeMap.this.get (key) : null;
+        } // get
+
+        public boolean containsKey (Object key)
+        {
+            return get (key) != null;
+        } // containsKey
+
+        public Comparable [] put (KeyType key, Comparable [] value)
+        {
+            if (! inRange (key)) throw new IllegalArgumentException ("DiskBpTreeMap.View.put: key out of range " + key);
+            return DiskBpTreeMap.this.put (key, value);
+        } // put
+
+        public Comparable [] remove (Object key)
+        {
+            return inRange ((KeyType) key) ? DiskBpTreeMap.this.remove (key) : null;
+        } // remove
+
+        public Set <Map.Entry <KeyType, Comparable []>> entrySet ()
+        {
+            return new AbstractSet <Map.Entry <KeyType, Comparable []>> () {
+                public Iterator <Map.Entry <KeyType, Comparable []>> iterator () { return new LeafIterator (lo, hi); }
+                public int size ()
+                {
+                    if (lo == null && hi == null) return DiskBpTreeMap.this.size ();
+                    int n = 0;
+                    for (Iterator <?> it = iterator (); it.hasNext (); it.next ()) n++;
+                    return n;
+                } // size
+                public boolean isEmpty () { return ! iterator ().hasNext (); }
+            };
+        } // entrySet
+
+        public KeyType firstKey ()
+        {
+            Iterator <Map.Entry <KeyType, Comparable []>> it = entrySet ().iterator ();
+            if (! it.hasNext ()) throw new NoSuchElementException ("DiskBpTreeMap.firstKey: map is empty");
+            return it.next ().getKey ();
+        } // firstKey
+
+        public KeyType lastKey ()
+        {
+            if (hi == null) {
+                KeyType k = DiskBpTreeMap.this.lastKey ();
+                if (lo == null || k.compareTo (lo) >= 0) return k;
+                throw new NoSuchElementException ("DiskBpTreeMap.lastKey: submap is empty");
+            } // if
+            KeyType last = null;
+            for (KeyType k : keySet ()) last = k;
+            if (last == null) throw new NoSuchElementException ("DiskBpTreeMap.lastKey: submap is empty");
+            return last;
+        } // lastKey
+
+        public SortedMap <KeyType, Comparable []> headMap (KeyType toKey)                 { return subMap (lo, toKey); }
+        public SortedMap <KeyType, Comparable []> tailMap (KeyType fromKey)               { return subMap (fromKey, hi); }
+        public SortedMap <KeyType, Comparable []> subMap (KeyType fromKey, KeyType toKey)
+        {
+            if (fromKey != null && ! (inRange (fromKey) || fromKey.equals (hi)) || toKey != null && ! (inRange (toKey) || toKey.equals (hi))) {
+                throw new IllegalArgumentException ("DiskBpTreeMap.View.subMap: key out of range");
+            } // if
+            return new View (fromKey, toKey);
+        } // subMap
+
+    } // View inner class
+
+    /********************************************************************************
+     * This inner class iterates over the entries in [lo, hi) leaf by leaf.  The keys
+     * and row numbers of a leaf are decoded together, and each tuple is fetched from
+     * the rows as its entry is returned.
+     */
+    private class LeafIterator
+            implements Iterator <Map.Entry <KeyType, Comparable []>>
+    {
+        private final KeyType hi;                     // the upper bound (null if open)
+        private final List <KeyType> keys = new ArrayList <> ();   // the keys of the current leaf
+        private final int [] rowNos = new int [leafCap];  // the row numbers of the current leaf
+        private int   i;                              // the position of the next entry in keys
+        private int   next;                           // the next leaf to decode
+
+        /****************************************************************************
+         * Construct an iterator starting at the first key at least lo.
+         */
+        LeafIterator (KeyType lo, KeyType _hi)
+        {
+            hi = _hi;
+            synchronized (DiskBpTreeMap.this) {
+                BufferPool pool = BufferPool.getInstance ();
+                int        page = (lo == null) ? firstLeaf : root;
+                while (true) {
+                    BufferPool.Frame fr  = pool.pin (DiskBpTreeMap.this, page);
+                    ByteBuffer       buf = ByteBuffer.wrap (fr.data ());
+                    int              pos = (lo == null) ? 0 : find (buf, lo);
+                    if (buf.get (IS_LEAF) == 1) {
+                        decode (buf, pos);
+                        pool.unpin (fr, false);
+                        break;
+                    } // if
+                    page = buf.getInt (childPos (pos));
+                    pool.unpin (fr, false);
+                } // while
+            } // synchronized
+        } // constructor
+
+        /****************************************************************************
+         * Decode the entries of the leaf in the buffer from position pos on.
+         */
+        private void decode (ByteBuffer buf, int pos)
+        {
+            keys.clear ();
+            i = 0;
+            int n = buf.getShort (N_KEYS);
+            for (int j = pos; j < n; j++) {
+                rowNos [keys.size ()] = buf.getInt (entryPos (j) + keySize);
+                keys.add (readKey (buf, entryPos (j)));
+            } // for
+            next = buf.getInt (NEXT);
+        } // decode
+
+        public boolean hasNext ()
+        {
+            while (i == keys.size () && next != NONE) {
+                synchronized (DiskBpTreeMap.this) {
+                    BufferPool       pool = BufferPool.getInstance ();
+                    BufferPool.Frame fr   = pool.pin (DiskBpTreeMap.this, next);
+                    decode (ByteBuffer.wrap (fr.data ()), 0);
+                    pool.unpin (fr, false);
+                } // synchronized
+            } // while
+            return i < keys.size () && (hi == null || keys.get (i).compareTo (hi) < 0);
+        } // hasNext
+
+        public Map.Entry <KeyType, Comparable []> next ()
+        {
+            if (! hasNext ()) throw new NoSuchElementException ();
+            Map.Entry <KeyType, Comparable []> e = new AbstractMap.SimpleImmutableEntry <> (keys.get (i), rows.get (rowNos [i]));
+            i++;
+            return e;
+        } // next
+
+    } // LeafIterator inner class
+
+    /***************************************************************************
+     * Read the given page from the index file (zero filled beyond end-of-file).
+     * @param pageNo  the page number
+     * @param buf     the buffer of PAGE_SIZE to read into
+     */
+    public synchronized void readPage (int pageNo, byte [] buf)
+            throws IOException
+    {
+        long pos = (long) pageNo * PAGE_SIZE;
+        int  len = (int) Math.max (0, Math.min (PAGE_SIZE, file.length () - pos));
+        file.seek (pos);
+        file.readFully (buf, 0, len);
+        Arrays.fill (buf, len, PAGE_SIZE, (byte) 0);
+    } // readPage
+
+    /***************************************************************************
+     * Write the given page to the index file.
+     * @param pageNo  the page number
+     * @param buf     the buffer of PAGE_SIZE to write
+     */
+    public synchronized void writePage (int pageNo, byte [] buf)
+            throws IOException
+    {
+        file.seek ((long) pageNo * PAGE_SIZE);
+        file.write (buf, 0, PAGE_SIZE);
+    } // writePage
+
+    /***************************************************************************
+     * Write the cached dirty pages of the index back to its file.
+     */
+    public void flush ()
+    {
+        BufferPool.getInstance ().flush (this);
+    } // flush
+
+    /***************************************************************************
+     * Close the index file, after writing back its cached pages.
+     */
+    public void close ()
+    {
+        BufferPool.getInstance ().discard (this);
+        try {
+            file.close ();
+        } catch (IOException ex) {
+            out.println ("DiskBpTreeMap.close: unable to close - " + ex);
+        } // try
+    } // close
+
+    /***************************************************************************
+     * Reopen the index file after deserialization (the file handle is transient).
+     * @param ois  the stream to read the object from
+     */
+    private void readObject (ObjectInputStream ois)
+            throws IOException, ClassNotFoundException
+    {
+        ois.defaultReadObject ();
+        open ();
+    } // readObject
+
+    /********************************************************************************
+     * The main method used for testing: build an index much larger than a small
+     * buffer pool, then reopen it and check lookups, a range scan and removals.
+     * @param args  the command-line arguments (args [0] gives number of keys to insert)
+     */
+    public static void main (String [] args)
+    {
+        int       totalKeys = (args.length == 1) ? Integer.valueOf (args [0]) : 100000;
+        Class []  keyDom    = { Integer.class };
+        String    name      = "diskBpTreeTest.idx";
+        new File (name).delete ();
+        BufferPool.configure (64, BufferPool.Policy.CLOCK);
+
+        List <Comparable []> rows = new ArrayList <> ();
+        DiskBpTreeMap idx = new DiskBpTreeMap (name, keyDom, rows);
+        Random rng = new Random (1);
+        for (int i = 0; i < totalKeys; i++) {
+            int k = rng.nextInt (2 * totalKeys);
+            rows.add (new Comparable [] { k, "name" + k });
+            idx.putRow (new KeyType (k), i);
+        } // for
+        int size = idx.size ();
+        out.println ("size = " + size + ", pages = " + idx.nPages + ", keys per leaf = " + idx.leafCap
+                   + ", average nodes accessed per put = " + idx.count / (double) totalKeys);
+        idx.close ();
+
+        DiskBpTreeMap again = new DiskBpTreeMap (name, keyDom, rows);           // reopen without rebuilding
+        rng = new Random (1);
+        int missing = 0;
+        for (int i = 0; i < totalKeys; i++) {
+            int k = rng.nextInt (2 * totalKeys);
+            Comparable [] t = again.get (new KeyType (k));
+            if (t == null || ! t [1].equals ("name" + k)) missing++;
+        } // for
+        int inRange = again.subMap (new KeyType (1000), new KeyType (2000)).size ();
+        out.println ("reopened size = " + again.size () + " (was " + size + "), missing = " + missing
+                   + ", keys in [1000, 2000) = " + inRange + ", first = " + again.firstKey () + ", last = " + again.lastKey ());
+
+        int removed = 0;
+        for (int k = 0; k < 2 * totalKeys; k++) if (k % 4 != 0 && again.remove (new KeyType (k)) != null) removed++;
+        int wrong = 0;
+        for (Map.Entry <KeyType, Comparable []> e : again.entrySet ()) {
+            if ((Integer) e.getKey ().key [0] % 4 != 0 || ! e.getValue () [0].equals (e.getKey ().key [0])) wrong++;
+        } // for
+        int pages = again.nPages;
+        for (int k = 1; k < 2 * totalKeys; k += 4) again.putRow (new KeyType (k), 0);   // reuse freed pages
+        out.println ("removed = " + removed + ", size = " + again.size () + ", wrong = " + wrong
+                   + ", pages after reinserting = " + again.nPages + " (was " + pages + ")");
+        BufferPool.getInstance ().printStats ();
+        again.close ();
+        new File (name).delete ();
+    } // main
+
+} // DiskBpTreeMap class
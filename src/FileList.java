@@ -6,31 +6,79 @@
  */
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import static java.lang.System.out;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 
 /*******************************************************************************
  * This class allows data tuples/tuples (e.g., those making up a relational table)
- * to be stored in a random access file.  This implementation requires that each
- * tuple be packed into a fixed length byte array.
+ * to be stored in a random access file.  Each tuple is packed into a variable length
+ * byte array (strings are not padded).  Records are stored in fixed size slotted
+ * pages: a page starts with a header (the number of slots and the start of the
+ * record data) followed by a directory of slots giving the offset and length of each
+ * record, while the record data grows from the end of the page towards the directory.
+ * The index of a tuple in the list is its row ID and maps to a (page, slot) pair, so
+ * it stays stable when records are moved by compacting a page.
+ * The page header also holds a zone map: the minimum and maximum value in the page
+ * of each numeric (or Character) column, so that range scans can skip pages that
+ * cannot hold matching tuples.  The zone maps of all pages are also kept in memory.
+ * Pages are accessed through the shared BufferPool.  When a scan is detected
+ * (consecutive pages being read), the next pages are read ahead into the pool by a
+ * background thread.  In mapped mode, records are
+ * instead read by decoding them directly from memory mapped segments of the file,
+ * which suits sequential scans.
+ * In compressed mode, tuples are instead added to a CompressedPage that is filled in
+ * memory and written once as many tuples as fit have been added, using dictionary,
+ * frame-of-reference and run-length encodings, so that more tuples fit in a page.
+ * Both kinds of pages may be mixed in a file.
  */
 public class FileList
         extends AbstractList <Comparable []>
-        implements Serializable, List <Comparable []>, RandomAccess
+        implements Serializable, List <Comparable []>, RandomAccess, BufferPool.PageFile
 {
     /** File extension for data files.
      */
     private static final String EXT = ".dat";
 
+    /** The size of a page in bytes.
+     */
+    public static final int PAGE_SIZE = 4096;
+
+    /** The size of the fixed page header (number of slots, start of record data) in
+     *  bytes.  It is followed by the zone map, then the slot directory.
+     */
+    private static final int HEADER_SIZE = 2 * Short.BYTES;
+
+    /** The size of the zone map entry (min and max) for a column in bytes.
+     */
+    private static final int ZONE_SIZE = 2 * Long.BYTES;
+
+    /** The size of a slot (offset and length of a record) in bytes.
+     */
+    private static final int SLOT_SIZE = 2 * Short.BYTES;
+
+    /** The space in bytes kept free in each page when adding records, so that
+     *  records updated to a longer value can stay in their page.
+     */
+    private static final int RESERVE = PAGE_SIZE / 10;
+
+    /** The number of pages in a memory mapped segment of the file.
+     */
+    private static final int SEGMENT_PAGES = 16384;
+
     /** The random access file that holds the tuples.
      */
-    private RandomAccessFile file;
+    private transient RandomAccessFile file;
 
     /** The name of table.
      */
     private final String tableName;
 
-    /** The number bytes required to store a "packed tuple"/record.
+    /** The maximum number bytes required to store a "packed tuple"/record.
      */
     private final int recordSize;
 
@@ -38,6 +86,22 @@ public class FileList
      */
     private int nRecords = 0;
 
+    /** The number of pages in the file.
+     */
+    private transient int nPages;
+
+    /** The row ID of the first record in each page (the page directory).
+     */
+    private transient int [] pageStart;
+
+    /** The page of the most recently located row (speeds up sequential access).
+     */
+    private transient int lastPage;
+
+    /** Buffer used to pack a tuple before copying it into a page.
+     */
+    private transient ByteBuffer scratch;
+
     /** Array of attribute domains: a domain may be
      *  integer types: Long, Integer, Short, Byte
      *  real types: Double, Float
@@ -45,71 +109,705 @@ public class FileList
      */
     private final Class [] domain;
 
+    /** The zone map column number of each column, or -1 if the column has no zone map
+     *  (String columns).
+     */
+    private final int [] zone;
+
+    /** The number of columns with a zone map.
+     */
+    private final int nZones;
+
+    /** The offset of the slot directory within a page (after the zone map).
+     */
+    private final int dirStart;
+
+    /** The in-memory copy of the zone maps: the min and max for zone z of page p are
+     *  at index p * nZones + z (doubles are stored as their raw long bits).
+     */
+    private transient long [] zoneMin, zoneMax;
+
+    /** Counter for the number of pages skipped by range scans (for performance testing).
+     */
+    private transient long pagesSkipped = 0;
+
+    /** The number of pages to read ahead during scans (0 turns read-ahead off).
+     */
+    private static int readAhead = 8;
+
+    /** The page accessed last by get (to detect sequential access).
+     */
+    private transient int prevPage = -1;
+
+    /** The last page requested to be read ahead.
+     */
+    private transient int aheadTo = -1;
+
+    /** Whether records are read from memory mapped segments rather than the buffer pool.
+     */
+    private final boolean mapped;
+
+    /** Whether new pages are written as compressed pages.
+     */
+    private final boolean compressed;
+
+    /** The encoder/decoder for compressed pages, also holding the tuples of the last
+     *  page while it is being filled (compressed mode).
+     */
+    private transient CompressedPage codec;
+
+    /** The memory mapped segments of the file (mapped mode).
+     */
+    private transient List <MappedByteBuffer> segments;
+
+    /** The number of records covered by the current mapping (mapped mode).
+     */
+    private transient int mappedRecords = 0;
+
     /***************************************************************************
      * Construct a FileList.
      * @param _tableName   the name of the table
-     * @param _recordSize  the size of tuple in bytes.
+     * @param _recordSize  the maximum size of tuple in bytes.
+     * @param _domain      the attribute domains of the tuples
      */
     public FileList (String _tableName, int _recordSize, Class [] _domain)
     {
-        tableName  = _tableName;
-        recordSize = _recordSize;
-        domain = _domain;
+        this (_tableName, _recordSize, _domain, false);
+    } // constructor
 
+    /***************************************************************************
+     * Construct a FileList, optionally reading records via memory mapping.
+     * @param _tableName   the name of the table
+     * @param _recordSize  the maximum size of tuple in bytes.
+     * @param _domain      the attribute domains of the tuples
+     * @param _mapped      whether to read records from a memory mapping of the file
+     */
+    public FileList (String _tableName, int _recordSize, Class [] _domain, boolean _mapped)
+    {
+        this (_tableName, _recordSize, _domain, _mapped, false);
+    } // constructor
+
+    /***************************************************************************
+     * Construct a FileList, optionally reading records via memory mapping and
+     * writing compressed pages.
+     * @param _tableName   the name of the table
+     * @param _recordSize  the maximum size of tuple in bytes.
+     * @param _domain      the attribute domains of the tuples
+     * @param _mapped      whether to read records from a memory mapping of the file
+     * @param _compressed  whether to write new pages as compressed pages
+     */
+    public FileList (String _tableName, int _recordSize, Class [] _domain, boolean _mapped,
+                     boolean _compressed)
+    {
+        tableName    = _tableName;
+        recordSize   = _recordSize;
+        domain       = _domain;
+        mapped       = _mapped;
+        compressed   = _compressed;
+        zone         = new int [domain.length];
+        int z = 0;
+        for (int j = 0; j < domain.length; j++) zone [j] = (domain [j] == String.class) ? -1 : z++;
+        nZones       = z;
+        dirStart     = HEADER_SIZE + nZones * ZONE_SIZE;
+        if (recordSize > PAGE_SIZE - dirStart - SLOT_SIZE) {
+            throw new IllegalArgumentException ("FileList: record size " + recordSize
+                                              + " exceeds page size " + PAGE_SIZE);
+        } // if
+        open ();
+    } // constructor
+
+    /***************************************************************************
+     * Construct a FileList whose record size is derived from the domains.
+     * @param _tableName  the name of the table
+     * @param _domain     the attribute domains of the tuples
+     */
+    public FileList (String _tableName, Class [] _domain)
+    {
+        this (_tableName, Table.recordSize (_domain), _domain, false);
+    } // constructor
+
+    /***************************************************************************
+     * Construct a FileList whose record size is derived from the domains,
+     * optionally reading records via memory mapping.
+     * @param _tableName  the name of the table
+     * @param _domain     the attribute domains of the tuples
+     * @param _mapped     whether to read records from a memory mapping of the file
+     */
+    public FileList (String _tableName, Class [] _domain, boolean _mapped)
+    {
+        this (_tableName, Table.recordSize (_domain), _domain, _mapped);
+    } // constructor
+
+    /***************************************************************************
+     * Construct a FileList whose record size is derived from the domains,
+     * optionally reading records via memory mapping and writing compressed pages.
+     * @param _tableName   the name of the table
+     * @param _domain      the attribute domains of the tuples
+     * @param _mapped      whether to read records from a memory mapping of the file
+     * @param _compressed  whether to write new pages as compressed pages
+     */
+    public FileList (String _tableName, Class [] _domain, boolean _mapped, boolean _compressed)
+    {
+        this (_tableName, Table.recordSize (_domain), _domain, _mapped, _compressed);
+    } // constructor
+
+    /***************************************************************************
+     * Open (or create) the data file and build the page directory from the
+     * number of slots in each page.  In compressed mode, the tuples of a last
+     * page that is compressed are loaded, so that it continues to be filled.
+     */
+    private void open ()
+    {
+        codec         = new CompressedPage (domain, dirStart);
+        segments      = new ArrayList <> ();
+        mappedRecords = 0;
+        scratch       = ByteBuffer.allocate (recordSize);
+        lastPage      = 0;
         try {
-            file = new RandomAccessFile (tableName + EXT, "rw");
-        } catch (FileNotFoundException ex) {
+            file      = new RandomAccessFile (tableName + EXT, "rw");
+            nPages    = (int) (file.length () / PAGE_SIZE);
+            pageStart = new int [Math.max (16, nPages)];
+            zoneMin   = new long [pageStart.length * nZones];
+            zoneMax   = new long [pageStart.length * nZones];
+            for (int p = 0; p < nPages; p++) {
+                file.seek ((long) p * PAGE_SIZE);
+                pageStart [p] = nRecords;
+                nRecords     += file.readShort ();
+                file.readShort ();
+                for (int z = 0; z < nZones; z++) {
+                    zoneMin [p * nZones + z] = file.readLong ();
+                    zoneMax [p * nZones + z] = file.readLong ();
+                } // for
+            } // for
+        } catch (IOException ex) {
             file = null;
             out.println ("FileList.constructor: unable to open - " + ex);
+            return;
         } // try
-    } // constructor
+        if (compressed && nPages > 0) {
+            BufferPool       pool = BufferPool.getInstance ();
+            BufferPool.Frame fr   = pool.pin (this, nPages - 1);
+            ByteBuffer       buf  = ByteBuffer.wrap (fr.data ());
+            if (CompressedPage.isCompressed (buf, 0)) {
+                for (int r = 0; r < nRecords - pageStart [nPages - 1]; r++) codec.add (codec.decode (buf, 0, r));
+            } // if
+            pool.unpin (fr, false);
+        } // if
+    } // open
 
     /***************************************************************************
      * Add a new tuple into the file list by packing it into a record and writing
-     * this record to the random access file.  Write the record either at the
-     * end-of-file or into a empty slot.
+     * this record to the random access file.  Write the record into a new slot
+     * of the last page, starting a new page when it does not have enough room
+     * (beyond the space reserved for updates).  In compressed mode, add the tuple
+     * to the page being filled, first writing it out if the tuple would not fit.
      * @param tuple  the tuple to add
      * @return  whether the addition succeeded
      */
     public boolean add (Comparable [] tuple)
     {
-//        byte [] record = null;  // FIX: table.pack (tuple);
-//
-//        record = Table.convertTupleToByteArray(tuple, recordSize, domain);
-//        if (record.length != recordSize) {
-//            out.println ("FileList.add: wrong record size " + record.length);
-//            return false;
-//        } // if
-//
-//        try {
-//            file.seek(nRecords * recordSize);
-//            file.write(record);
-//            nRecords++;
-//        } catch (IOException e) {
-//        }
+        scratch.clear ();
+        if (! Table.packTuple (tuple, domain, scratch)) {
+            out.println ("FileList.add: unable to pack tuple");
+            return false;
+        } // if
+        int len = scratch.position ();
+
+        if (compressed) {
+            if (codec.size () == 0 || ! codec.fits (tuple)) {
+                if (codec.size () > 0) {                              // write out the full page
+                    writeTail ();
+                    codec.clear ();
+                } // if
+                newPage ();
+            } // if
+            codec.add (tuple);
+            widenZones (nPages - 1, tuple);
+            nRecords++;
+            modCount++;
+            return true;
+        } // if
 
+        BufferPool       pool = BufferPool.getInstance ();
+        BufferPool.Frame fr   = null;
+        ByteBuffer       buf  = null;
+        if (nPages > 0) {
+            fr  = pool.pin (this, nPages - 1);
+            buf = ByteBuffer.wrap (fr.data ());
+            if (CompressedPage.isCompressed (buf, 0) || freeSpace (buf) < len + SLOT_SIZE + RESERVE) {
+                pool.unpin (fr, false);
+                fr = null;
+            } // if
+        } // if
+        if (fr == null) {                                             // start a new page
+            fr  = pool.pinNew (this, nPages);
+            buf = ByteBuffer.wrap (fr.data ());
+            buf.putShort (2, (short) PAGE_SIZE);
+            newPage ();
+        } // if
+
+        int nSlots = buf.getShort (0);
+        int start  = (buf.getShort (2) & 0xffff) - len;
+        System.arraycopy (scratch.array (), 0, fr.data (), start, len);
+        buf.putShort (dirStart + nSlots * SLOT_SIZE, (short) start);
+        buf.putShort (dirStart + nSlots * SLOT_SIZE + 2, (short) len);
+        buf.putShort (0, (short) (nSlots + 1));
+        buf.putShort (2, (short) start);
+        widenZones (nPages - 1, tuple);
+        putZones (buf, nPages - 1);
+        pool.unpin (fr, true);
+        nRecords++;
+        modCount++;
         return true;
     } // add
 
     /***************************************************************************
-     * Get the ith tuple by seeking to the correct file position and reading the
-     * record.
+     * Replace the ith tuple.  The record is rewritten in its own slot, compacting
+     * the page if the new record is longer, so that its row ID is unchanged.
+     * A compressed page is re-encoded, which fails if it then no longer fits.
+     * @param i      the index of the tuple to replace
+     * @param tuple  the new tuple
+     * @return  the tuple previously at index i
+     */
+    public Comparable [] set (int i, Comparable [] tuple)
+    {
+        if (i < 0 || i >= nRecords) throw new IndexOutOfBoundsException ("FileList.set: " + i);
+        scratch.clear ();
+        if (! Table.packTuple (tuple, domain, scratch)) {
+            throw new IllegalArgumentException ("FileList.set: unable to pack tuple");
+        } // if
+        int len  = scratch.position ();
+        int page = pageOf (i);
+        int r    = i - pageStart [page];
+        int slot = dirStart + r * SLOT_SIZE;
+        if (codec.size () > 0 && page == nPages - 1) {                // page being filled
+            Comparable [] old = codec.get (r);
+            replace (codec, r, tuple, page);
+            widenZones (page, tuple);
+            return old;
+        } // if
+
+        BufferPool       pool = BufferPool.getInstance ();
+        BufferPool.Frame fr   = pool.pin (this, page);
+        ByteBuffer       buf  = ByteBuffer.wrap (fr.data ());
+        try {
+            if (CompressedPage.isCompressed (buf, 0)) {
+                CompressedPage rows = new CompressedPage (domain, dirStart);
+                for (int k = 0; k < pageRecords (page); k++) rows.add (codec.decode (buf, 0, k));
+                Comparable [] old = rows.get (r);
+                replace (rows, r, tuple, page);
+                rows.encode (buf);
+                widenZones (page, tuple);
+                putZones (buf, page);
+                mappedRecords = Math.min (mappedRecords, pageStart [page]);
+                return old;
+            } // if
+            int           off = buf.getShort (slot) & 0xffff;
+            Comparable [] old = Table.unpackTuple (buf, off, domain);
+            if (len > (buf.getShort (slot + 2) & 0xffff)) {           // does not fit in place
+                buf.putShort (slot + 2, (short) 0);
+                compact (buf);
+                if (freeSpace (buf) < len) {
+                    throw new IllegalStateException ("FileList.set: no room in page " + page);
+                } // if
+                off = (buf.getShort (2) & 0xffff) - len;
+                buf.putShort (2, (short) off);
+                buf.putShort (slot, (short) off);
+            } // if
+            System.arraycopy (scratch.array (), 0, fr.data (), off, len);
+            buf.putShort (slot + 2, (short) len);
+            widenZones (page, tuple);
+            putZones (buf, page);
+            mappedRecords = Math.min (mappedRecords, pageStart [page]);
+            return old;
+        } finally {
+            pool.unpin (fr, true);
+        } // try
+    } // set
+
+    /***************************************************************************
+     * Replace the rth tuple of the compressed page, checking that it still fits.
+     * @param rows   the tuples of the page
+     * @param r      the row number within the page
+     * @param tuple  the new tuple
+     * @param page   the page number
+     */
+    private void replace (CompressedPage rows, int r, Comparable [] tuple, int page)
+    {
+        List <Comparable []> old  = new ArrayList <> (rows.rows ());
+        List <Comparable []> next = new ArrayList <> (old);
+        next.set (r, tuple);
+        rows.load (next);
+        if (! rows.fits ()) {
+            rows.load (old);
+            throw new IllegalStateException ("FileList.set: no room in compressed page " + page);
+        } // if
+    } // replace
+
+    /***************************************************************************
+     * Get the ith tuple by pinning the page holding it in the buffer pool (or
+     * using the memory mapping) and unpacking the record.
      * @param i  the index of the tuple to get
      * @return  the ith tuple
      */
     public Comparable [] get (int i)
     {
-        byte [] record = new byte [recordSize];
+        if (i < 0 || i >= nRecords) throw new IndexOutOfBoundsException ("FileList.get: " + i);
 
-        try {
-            file.seek(i * recordSize);
-            file.read(record);
-        } catch (IOException e) {
-        }
+        int page = pageOf (i);
+        int r    = i - pageStart [page];
+        int slot = dirStart + r * SLOT_SIZE;
+        if (codec.size () > 0 && page == nPages - 1) return codec.get (r);   // page being filled
+        if (mapped) {
+            if (i >= mappedRecords) remap ();
+            ByteBuffer seg  = segments.get (page / SEGMENT_PAGES);
+            int        base = (page % SEGMENT_PAGES) * PAGE_SIZE;
+            if (CompressedPage.isCompressed (seg, base)) return codec.decode (seg, base, r);
+            return Table.unpackTuple (seg, base + (seg.getShort (base + slot) & 0xffff), domain);
+        } // if
 
-        return null;// Table.convertByteArrayToTuple(record, recordSize, domain);   // FIX: table.unpack (record);
+        if (page != prevPage) {
+            if (page == prevPage + 1) readAhead (page, -1, null, null);
+            prevPage = page;
+        } // if
+        BufferPool       pool = BufferPool.getInstance ();
+        BufferPool.Frame fr   = pool.pin (this, page);
+        try {
+            ByteBuffer buf = ByteBuffer.wrap (fr.data ());
+            if (CompressedPage.isCompressed (buf, 0)) return codec.decode (buf, 0, r);
+            return Table.unpackTuple (buf, buf.getShort (slot) & 0xffff, domain);
+        } finally {
+            pool.unpin (fr, false);
+        } // try
     } // get
 
+    /***************************************************************************
+     * Return the page holding the ith record, i.e., the last page whose first
+     * row ID is at most i.
+     * @param i  the index (row ID) of the record
+     * @return  the page number
+     */
+    private int pageOf (int i)
+    {
+        if (lastPage < nPages && pageStart [lastPage] <= i &&
+            (lastPage == nPages - 1 || i < pageStart [lastPage + 1])) return lastPage;
+        int lo = 0, hi = nPages - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (pageStart [mid] <= i) lo = mid; else hi = mid - 1;
+        } // while
+        return lastPage = lo;
+    } // pageOf
+
+    /***************************************************************************
+     * Visit the tuples that may have a value in [low, high] for the given column:
+     * all tuples in pages whose zone map overlaps the range (in row ID order).
+     * The tuples visited must still be checked against the range.  Pages whose
+     * zone map does not overlap are skipped without being read.
+     * @param col     the column to restrict
+     * @param low     the lower bound of the range (inclusive)
+     * @param high    the upper bound of the range (inclusive)
+     * @param action  the action to perform on each visited tuple
+     */
+    public void scan (int col, Comparable low, Comparable high, Consumer <Comparable []> action)
+    {
+        int z = zone [col];
+        for (int p = 0; p < nPages; p++) {
+            if (z >= 0 && ! overlaps (p * nZones + z, domain [col], low, high)) {
+                pagesSkipped++;
+                continue;
+            } // if
+            if (codec.size () > 0 && p == nPages - 1) {               // page being filled
+                codec.rows ().forEach (action);
+                continue;
+            } // if
+            if (! mapped) readAhead (p, col, low, high);
+            int n = pageRecords (p);
+            withPage (p, (buf, base) -> {
+                boolean packed = CompressedPage.isCompressed (buf, base);
+                for (int r = 0; r < n; r++) {
+                    if (packed) {
+                        action.accept (codec.decode (buf, base, r));
+                    } else {
+                        int off = buf.getShort (base + dirStart + r * SLOT_SIZE) & 0xffff;
+                        action.accept (Table.unpackTuple (buf, base + off, domain));
+                    } // if
+                } // for
+            });
+        } // for
+    } // scan
+
+    /***************************************************************************
+     * Visit the tuples whose value for the given column equals the value (in row
+     * ID order).  Pages whose zone map rules out the value are skipped, and in
+     * compressed pages the value is compared in encoded form, so that only the
+     * matching tuples are decoded.
+     * @param col     the column to restrict
+     * @param value   the value to look for
+     * @param action  the action to perform on each matching tuple
+     */
+    public void scanEquals (int col, Comparable value, Consumer <Comparable []> action)
+    {
+        int z = zone [col];
+        for (int p = 0; p < nPages; p++) {
+            if (z >= 0 && ! overlaps (p * nZones + z, domain [col], value, value)) {
+                pagesSkipped++;
+                continue;
+            } // if
+            if (codec.size () > 0 && p == nPages - 1) {               // page being filled
+                for (Comparable [] t : codec.rows ()) if (t [col].compareTo (value) == 0) action.accept (t);
+                continue;
+            } // if
+            if (! mapped) readAhead (p, col, value, value);
+            int n = pageRecords (p);
+            withPage (p, (buf, base) -> {
+                if (CompressedPage.isCompressed (buf, base)) {
+                    codec.matchEquals (buf, base, col, value, r -> action.accept (codec.decode (buf, base, r)));
+                    return;
+                } // if
+                for (int r = 0; r < n; r++) {
+                    int           off = buf.getShort (base + dirStart + r * SLOT_SIZE) & 0xffff;
+                    Comparable [] t   = Table.unpackTuple (buf, base + off, domain);
+                    if (t [col].compareTo (value) == 0) action.accept (t);
+                } // for
+            });
+        } // for
+    } // scanEquals
+
+    /***************************************************************************
+     * Perform an action on the given page, which is either pinned in the buffer
+     * pool or accessed in the memory mapping (mapped mode).  The action is given
+     * the buffer holding the page and the offset of the page in the buffer.
+     * @param p     the page number
+     * @param body  the action to perform
+     */
+    private void withPage (int p, ObjIntConsumer <ByteBuffer> body)
+    {
+        if (mapped) {
+            if (pageStart [p] + pageRecords (p) > mappedRecords) remap ();
+            body.accept (segments.get (p / SEGMENT_PAGES), (p % SEGMENT_PAGES) * PAGE_SIZE);
+            return;
+        } // if
+        BufferPool       pool = BufferPool.getInstance ();
+        BufferPool.Frame fr   = pool.pin (this, p);
+        try {
+            body.accept (ByteBuffer.wrap (fr.data ()), 0);
+        } finally {
+            pool.unpin (fr, false);
+        } // try
+    } // withPage
+
+    /***************************************************************************
+     * Return the number of records in the given page.
+     * @param p  the page number
+     * @return  the number of records
+     */
+    private int pageRecords (int p)
+    {
+        return ((p == nPages - 1) ? nRecords : pageStart [p + 1]) - pageStart [p];
+    } // pageRecords
+
+    /***************************************************************************
+     * Start a new (last) page, adding it to the page directory with empty zone maps.
+     */
+    private void newPage ()
+    {
+        if (nPages == pageStart.length) {
+            pageStart = Arrays.copyOf (pageStart, 2 * nPages);
+            zoneMin   = Arrays.copyOf (zoneMin, pageStart.length * nZones);
+            zoneMax   = Arrays.copyOf (zoneMax, pageStart.length * nZones);
+        } // if
+        for (int j = 0; j < domain.length; j++) {
+            if (zone [j] < 0) continue;
+            boolean real = isReal (domain [j]);
+            zoneMin [nPages * nZones + zone [j]] = real ? Double.doubleToRawLongBits (Double.POSITIVE_INFINITY) : Long.MAX_VALUE;
+            zoneMax [nPages * nZones + zone [j]] = real ? Double.doubleToRawLongBits (Double.NEGATIVE_INFINITY) : Long.MIN_VALUE;
+        } // for
+        pageStart [nPages++] = nRecords;
+    } // newPage
+
+    /***************************************************************************
+     * Encode the page being filled (compressed mode) into the last page of the
+     * buffer pool, from where it is written back to the file.
+     */
+    private void writeTail ()
+    {
+        BufferPool       pool = BufferPool.getInstance ();
+        BufferPool.Frame fr   = pool.pinNew (this, nPages - 1);
+        ByteBuffer       buf  = ByteBuffer.wrap (fr.data ());
+        codec.encode (buf);
+        putZones (buf, nPages - 1);
+        pool.unpin (fr, true);
+    } // writeTail
+
+    /***************************************************************************
+     * Request the pages following the given page (up to the read-ahead depth) to
+     * be read into the buffer pool in the background.  If a column is given, only
+     * the pages whose zone map overlaps [low, high] are requested.
+     * @param page  the page currently being scanned
+     * @param col   the column restricted by the scan (-1 if none)
+     * @param low   the lower bound of the range
+     * @param high  the upper bound of the range
+     */
+    private void readAhead (int page, int col, Comparable low, Comparable high)
+    {
+        if (readAhead <= 0) return;
+        int last = Math.min (nPages - 1, page + readAhead);
+        int z    = (col < 0) ? -1 : zone [col];
+        if (aheadTo < page || aheadTo > last) aheadTo = page;       // new or restarted scan
+        BufferPool pool = BufferPool.getInstance ();
+        for (int p = aheadTo + 1; p <= last; p++) {
+            if (z < 0 || overlaps (p * nZones + z, domain [col], low, high)) pool.prefetch (this, p);
+        } // for
+        aheadTo = last;
+    } // readAhead
+
+    /***************************************************************************
+     * Set the number of pages read ahead when a scan is detected.
+     * @param pages  the read-ahead depth (0 turns read-ahead off)
+     */
+    public static void setReadAhead (int pages)
+    {
+        readAhead = pages;
+    } // setReadAhead
+
+    /***************************************************************************
+     * Return the number of pages skipped by range scans using the zone maps.
+     * @return  the number of pages skipped
+     */
+    public long getPagesSkipped ()
+    {
+        return pagesSkipped;
+    } // getPagesSkipped
+
+    /***************************************************************************
+     * Determine whether the zone map entry (min, max) overlaps [low, high].
+     * @param k     the index of the zone map entry
+     * @param dom   the domain of the column
+     * @param low   the lower bound of the range
+     * @param high  the upper bound of the range
+     * @return  whether the page may hold values in the range
+     */
+    private boolean overlaps (int k, Class dom, Comparable low, Comparable high)
+    {
+        if (isReal (dom)) {
+            return Double.longBitsToDouble (zoneMin [k]) <= ((Number) high).doubleValue () &&
+                   Double.longBitsToDouble (zoneMax [k]) >= ((Number) low).doubleValue ();
+        } // if
+        return zoneMin [k] <= zoneValue (high) && zoneMax [k] >= zoneValue (low);
+    } // overlaps
+
+    /***************************************************************************
+     * Widen the (in-memory) zone maps of the page to cover the values of the tuple.
+     * @param page   the page number
+     * @param tuple  the tuple written into the page
+     */
+    private void widenZones (int page, Comparable [] tuple)
+    {
+        for (int j = 0; j < domain.length; j++) {
+            int z = zone [j];
+            if (z < 0) continue;
+            int k = page * nZones + z;
+            if (isReal (domain [j])) {
+                double v = ((Number) tuple [j]).doubleValue ();
+                if (v < Double.longBitsToDouble (zoneMin [k])) zoneMin [k] = Double.doubleToRawLongBits (v);
+                if (v > Double.longBitsToDouble (zoneMax [k])) zoneMax [k] = Double.doubleToRawLongBits (v);
+            } else {
+                long v = zoneValue (tuple [j]);
+                if (v < zoneMin [k]) zoneMin [k] = v;
+                if (v > zoneMax [k]) zoneMax [k] = v;
+            } // if
+        } // for
+    } // widenZones
+
+    /***************************************************************************
+     * Copy the in-memory zone maps of the page into its page header.
+     * @param buf   the page
+     * @param page  the page number
+     */
+    private void putZones (ByteBuffer buf, int page)
+    {
+        for (int z = 0; z < nZones; z++) {
+            buf.putLong (HEADER_SIZE + z * ZONE_SIZE, zoneMin [page * nZones + z]);
+            buf.putLong (HEADER_SIZE + z * ZONE_SIZE + Long.BYTES, zoneMax [page * nZones + z]);
+        } // for
+    } // putZones
+
+    /***************************************************************************
+     * Return the value of an integer or Character attribute as a long.
+     * @param v  the attribute value
+     * @return  the value as a long
+     */
+    private static long zoneValue (Comparable v)
+    {
+        return (v instanceof Character) ? (Character) v : ((Number) v).longValue ();
+    } // zoneValue
+
+    /***************************************************************************
+     * Determine whether the domain is a real (floating point) type.
+     * @param dom  the domain
+     * @return  whether the domain is Double or Float
+     */
+    private static boolean isReal (Class dom)
+    {
+        return dom == Double.class || dom == Float.class;
+    } // isReal
+
+    /***************************************************************************
+     * Return the free space between the slot directory and the record data.
+     * @param buf  the page
+     * @return  the number of free bytes
+     */
+    private int freeSpace (ByteBuffer buf)
+    {
+        return (buf.getShort (2) & 0xffff) - dirStart - buf.getShort (0) * SLOT_SIZE;
+    } // freeSpace
+
+    /***************************************************************************
+     * Compact the page by moving the records (in slot order) to the end of the
+     * page, reclaiming the space of records that shrank or were rewritten.  The
+     * slots (and so the row IDs) are unchanged, only their offsets are updated.
+     * @param buf  the page
+     */
+    private void compact (ByteBuffer buf)
+    {
+        byte [] data   = buf.array ();
+        byte [] tmp    = new byte [PAGE_SIZE];
+        int     nSlots = buf.getShort (0);
+        int     end    = PAGE_SIZE;
+        for (int s = 0; s < nSlots; s++) {
+            int slot = dirStart + s * SLOT_SIZE;
+            int len  = buf.getShort (slot + 2) & 0xffff;
+            end -= len;
+            System.arraycopy (data, buf.getShort (slot) & 0xffff, tmp, end, len);
+            buf.putShort (slot, (short) end);
+        } // for
+        System.arraycopy (tmp, end, data, end, PAGE_SIZE - end);
+        buf.putShort (2, (short) end);
+    } // compact
+
+    /***************************************************************************
+     * Extend the memory mapping to cover all records: write back the pages cached
+     * in the buffer pool, then (re)map the last, partial segment and any new ones.
+     */
+    private void remap ()
+    {
+        flush ();
+        int seg = Math.max (0, segments.size () - 1);
+        try {
+            FileChannel ch = file.getChannel ();
+            for ( ; seg * SEGMENT_PAGES < nPages; seg++) {
+                int  pages = Math.min (SEGMENT_PAGES, nPages - seg * SEGMENT_PAGES);
+                long pos   = (long) seg * SEGMENT_PAGES * PAGE_SIZE;
+                MappedByteBuffer mbb = ch.map (FileChannel.MapMode.READ_ONLY, pos, (long) pages * PAGE_SIZE);
+                if (seg < segments.size ()) segments.set (seg, mbb); else segments.add (mbb);
+            } // for
+        } catch (IOException ex) {
+            throw new UncheckedIOException ("FileList.remap: unable to map - " + tableName, ex);
+        } // try
+        mappedRecords = nRecords;
+    } // remap
+
     /***************************************************************************
      * Return the size of the file list in terms of the number of tuples/records.
      * @return  the number of tuples
@@ -120,10 +818,51 @@ public class FileList
     } // size
 
     /***************************************************************************
-     * Close the file.
+     * Read the given page from the data file (zero filled beyond end-of-file).
+     * @param pageNo  the page number
+     * @param buf     the buffer of PAGE_SIZE to read into
+     */
+    public synchronized void readPage (int pageNo, byte [] buf)
+            throws IOException
+    {
+        long pos = (long) pageNo * PAGE_SIZE;
+        int  len = (int) Math.max (0, Math.min (PAGE_SIZE, file.length () - pos));
+        file.seek (pos);
+        file.readFully (buf, 0, len);
+        Arrays.fill (buf, len, PAGE_SIZE, (byte) 0);
+    } // readPage
+
+    /***************************************************************************
+     * Write the given page to the data file.
+     * @param pageNo  the page number
+     * @param buf     the buffer of PAGE_SIZE to write
+     */
+    public synchronized void writePage (int pageNo, byte [] buf)
+            throws IOException
+    {
+        file.seek ((long) pageNo * PAGE_SIZE);
+        file.write (buf, 0, PAGE_SIZE);
+    } // writePage
+
+    /***************************************************************************
+     * Write the cached dirty pages of this list (including the page being filled
+     * in compressed mode) back to the data file.
+     */
+    public void flush ()
+    {
+        if (codec.size () > 0) writeTail ();
+        BufferPool.getInstance ().flush (this);
+    } // flush
+
+    /***************************************************************************
+     * Close the file, after writing back its cached pages.
      */
     public void close ()
     {
+        if (codec.size () > 0) writeTail ();
+        BufferPool.getInstance ().discard (this);
+        segments.clear ();
+        mappedRecords = 0;
         try {
             file.close ();
         } catch (IOException ex) {
@@ -131,4 +870,80 @@ public class FileList
         } // try
     } // close
 
+    /***************************************************************************
+     * Reopen the data file after deserialization (the file handle is transient).
+     * @param ois  the stream to read the object from
+     */
+    private void readObject (ObjectInputStream ois)
+            throws IOException, ClassNotFoundException
+    {
+        ois.defaultReadObject ();
+        nRecords = 0;
+        open ();
+    } // readObject
+
+    /***************************************************************************
+     * The main method is used for testing purposes only.
+     * @param args  the command-line arguments
+     */
+    public static void main (String [] args)
+    {
+        Class []  dom  = { Integer.class, String.class, Double.class, Character.class };
+        FileList  list = new FileList ("fileListTest", dom);
+        int       n    = 1000;
+
+        for (int i = 0; i < n; i++) list.add (new Comparable [] { i, "name" + i, i * 1.5, 'x' });
+        out.println ("records = " + list.size () + ", first = " + Arrays.toString (list.get (0))
+                   + ", last = " + Arrays.toString (list.get (n - 1)));
+        list.close ();
+
+        FileList again = new FileList ("fileListTest", dom);
+        out.println ("reopened records = " + again.size ()
+                   + ", middle = " + Arrays.toString (again.get (n / 2)));
+        again.close ();
+
+        FileList scan = new FileList ("fileListTest", dom, true);
+        double   sum  = 0.0;
+        for (Comparable [] t : scan) sum += (Double) t [2];
+        scan.add (new Comparable [] { n, "name" + n, n * 1.5, 'y' });
+        out.println ("mapped scan sum = " + sum + ", appended = " + Arrays.toString (scan.get (n)));
+        scan.set (3, new Comparable [] { 3, "a_much_longer_name_than_before_3", 4.5, 'z' });
+        out.println ("updated = " + Arrays.toString (scan.get (3)) + ", neighbor = "
+                   + Arrays.toString (scan.get (4)) + ", pages = " + scan.nPages);
+        scan.close ();
+
+        FileList range = new FileList ("fileListTest", dom);
+        List <Comparable []> hits = new ArrayList <> ();
+        range.scan (0, 400, 420, t -> { if ((Integer) t [0] >= 400 && (Integer) t [0] <= 420) hits.add (t); });
+        out.println ("range hits = " + hits.size () + ", pages skipped = " + range.getPagesSkipped ()
+                   + " of " + range.nPages);
+        range.close ();
+        new File ("fileListTest" + EXT).delete ();
+
+        Class []  dom2  = { Integer.class, String.class, Integer.class, String.class };
+        Random    rng   = new Random (0);
+        FileList  plain = new FileList ("plainTest", dom2);
+        FileList  comp  = new FileList ("compressedTest", dom2, false, true);
+        for (int i = 0; i < 20000; i++) {
+            Comparable [] t = { i, "name" + rng.nextInt (100), rng.nextInt (10), (i < 10000) ? "Fall" : "Spring" };
+            plain.add (t);
+            comp.add (t);
+        } // for
+        out.println ("pages: plain = " + plain.nPages + ", compressed = " + comp.nPages);
+        comp.close ();
+        comp = new FileList ("compressedTest", dom2, true, true);
+        int [] count = new int [2];
+        plain.scanEquals (1, "name42", t -> count [0]++);
+        comp.scanEquals (1, "name42", t -> count [1]++);
+        comp.add (new Comparable [] { 20000, "name42", 3, "Spring" });
+        comp.set (5, new Comparable [] { 5, "name42", 3, "Fall" });
+        out.println ("name42: plain = " + count [0] + ", compressed = " + count [1]
+                   + ", row 5 = " + Arrays.toString (comp.get (5)) + ", last = " + Arrays.toString (comp.get (20000))
+                   + ", equal = " + Arrays.equals (plain.get (12345), comp.get (12345)));
+        plain.close ();
+        comp.close ();
+        new File ("plainTest" + EXT).delete ();
+        new File ("compressedTest" + EXT).delete ();
+    } // main
+
 } // FileList class
@@ -44,19 +44,70 @@ public class KeyType
 
     /*************************************************************************************
      * Compare two keys (negative => less than, zero => equals, positive => greater than).
+     * Keys are compared attribute by attribute, and a key that is a prefix of another
+     * (e.g., a truncated divider key in a B+Tree) is less than it.
      * @param k  the other key (to compare with this)
      * @return  resultant integer that's negative, zero or positive
      */
     @SuppressWarnings("unchecked")
     public int compareTo (KeyType k)
     {
-        for (int i = 0; i < key.length; i++) {
-            if (key [i].compareTo (k.key [i]) < 0) return -1;
-            if (key [i].compareTo (k.key [i]) > 0) return 1;
+        int n = Math.min (key.length, k.key.length);
+        for (int i = 0; i < n; i++) {
+            int c = key [i].compareTo (k.key [i]);
+            if (c != 0) return (c < 0) ? -1 : 1;
         } // for
-        return 0;
+        return Integer.compare (key.length, k.key.length);
     } // compareTo
 
+    /*************************************************************************************
+     * Return the shortest key s such that left <= s < right, for use as a divider key
+     * between the keys in two B+Tree nodes: the attributes after the first one that
+     * differs are dropped, and a differing String is cut to its shortest prefix that
+     * still sorts above left.  If nothing can be dropped, left itself is returned.
+     * @param left   the largest key on the left (less than right)
+     * @param right  the smallest key on the right
+     * @return  the shortest separator key
+     */
+    public static KeyType separator (KeyType left, KeyType right)
+    {
+        int n = Math.min (left.key.length, right.key.length);
+        int i = 0;
+        while (i < n && left.key [i].compareTo (right.key [i]) == 0) i++;
+        if (i == n) return left;                                        // left is a prefix of right
+
+        Comparable x   = right.key [i];
+        boolean    cut = false;                                         // whether x was shortened
+        if (x instanceof String && left.key [i] instanceof String) {
+            String s = separator ((String) left.key [i], (String) x);
+            cut = s.length () < ((String) x).length ();
+            x   = s;
+        } // if
+        if (i + 1 == right.key.length && ! cut) return left;           // the separator would equal right
+        if (i + 1 == left.key.length && ! (cut && ((String) x).length () < ((String) left.key [i]).length ())) {
+            return left;                                                // no shorter than left
+        } // if
+        Comparable [] sep = new Comparable [i + 1];
+        System.arraycopy (left.key, 0, sep, 0, i);
+        sep [i] = x;
+        return new KeyType (sep);
+    } // separator
+
+    /*************************************************************************************
+     * Return the shortest prefix of right that is greater than left (where left < right),
+     * i.e., right cut just after the first character where they differ.
+     * @param left   the smaller string
+     * @param right  the larger string
+     * @return  the shortest prefix of right sorting above left
+     */
+    public static String separator (String left, String right)
+    {
+        int n = Math.min (left.length (), right.length ());
+        int p = 0;
+        while (p < n && left.charAt (p) == right.charAt (p)) p++;
+        return right.substring (0, Math.min (p + 1, right.length ()));
+    } // separator
+
     /*************************************************************************************
      * Determine whether two keys are equal (equals must agree with compareTo).
      * @param k  the other key (to compare with this)
@@ -122,6 +173,10 @@ public class KeyType
         out.println ("key1.equals (key3): " + key1.equals (key3));
         out.println ("key1.hashCode () == key2.hashCode (): " + (key1.hashCode () == key2.hashCode ()));
         out.println ("key1.hashCode () == key3.hashCode (): " + (key1.hashCode () == key3.hashCode ()));
+        out.println ();
+        KeyType key4 = new KeyType (new Comparable [] { "Star_Wars_2", 1977 });
+        out.println ("separator (key2, key1) = " + separator (key2, key1));
+        out.println ("separator (key4, key1) = " + separator (key4, key1));
     } // main
 
 } // KeyType class
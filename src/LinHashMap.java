@@ -11,20 +11,45 @@ import java.io.*;
 import java.lang.reflect.Array;
 import static java.lang.System.out;
 import java.util.*;
+import java.util.function.BiConsumer;
 
 
 /************************************************************************************
  * This class provides hash maps that use the Linear Hashing algorithm.
  * A hash table is created that is an array of buckets.
  * The buckets in turn will have chains of other buckets depending the hash value of the key associated.
+ * The initial number of buckets, the number of slots per bucket and the load factor
+ * (keys per slot) at which the next bucket is split may be tuned per map, trading
+ * memory against the length of the chains probed.
  */
 public class LinHashMap <K, V>
         extends AbstractMap <K, V>
         implements Serializable, Cloneable, Map <K, V>
 {
+    /** The default number of slots (for key-value pairs) per bucket.
+     */
+    public static final int SLOTS = 4;
+
+    /** The default initial number of buckets.
+     */
+    public static final int INIT_SIZE = 4;
+
+    /** The default load factor: the fraction of the slots in the home buckets filled
+     *  before the next bucket is split.
+     */
+    public static final double LOAD_FACTOR = 0.5;
+
     /** The number of slots (for key-value pairs) per bucket.
      */
-    private static final int SLOTS = 4;
+    private final int slots;
+
+    /** The load factor at which the next bucket is split.
+     */
+    private final double loadFactor;
+
+    /** The initial number of buckets, below which the hash table does not contract.
+     */
+    private final int initSize;
 
     /** The class for type K.
      */
@@ -48,15 +73,15 @@ public class LinHashMap <K, V>
         Bucket (Bucket n)
         {
             nKeys = 0;
-            key   = (K []) Array.newInstance (classK, SLOTS);
-            value = (V []) Array.newInstance (classV, SLOTS);
+            key   = (K []) Array.newInstance (classK, slots);
+            value = (V []) Array.newInstance (classV, slots);
             next  = n;
         } // constructor
     } // Bucket inner class
 
     /** The list of buckets making up the hash table.
      */
-    private final List <Bucket> hTable;
+    private final ArrayList <Bucket> hTable;
 
     /** The modulus for low resolution hashing
      */
@@ -74,208 +99,444 @@ public class LinHashMap <K, V>
      */
     private int split = 0;
 
-    /** To store the number of keys inserted in the hashmap
+    /** The number of structural modifications (keys added or removed), used to detect
+     *  changes to the map while iterating over it.
+     */
+    private int modCount = 0;
+
+    /** The number of keys in this hash table.
      */
-    public static int keysCount = 0;
+    private int keyCount = 0;
 
 
 
     /********************************************************************************
-     * Construct a hash table that uses Linear Hashing.
+     * Construct a hash table that uses Linear Hashing, with the default initial size,
+     * bucket capacity and load factor.
      * @param _classK    the class for keys (K)
      * @param _classV    the class for keys (V)
      */
-    public LinHashMap (Class <K> _classK, Class <V> _classV)    // , int initSize)
+    public LinHashMap (Class <K> _classK, Class <V> _classV)
     {
-        classK = _classK;
-        classV = _classV;
-        hTable = new ArrayList <> ();
-        mod1   = 4;                        // initSize;
-        mod2   = 2 * mod1;
-
-        //initializing the hashmap with 4 buckets at the starting.
-        hTable.add(new Bucket(null));
-        hTable.add(new Bucket(null));
-        hTable.add(new Bucket(null));
-        hTable.add(new Bucket(null));
+        this (_classK, _classV, INIT_SIZE, SLOTS, LOAD_FACTOR);
+    } // constructor
 
+    /********************************************************************************
+     * Construct a hash table that uses Linear Hashing.
+     * @param _classK      the class for keys (K)
+     * @param _classV      the class for keys (V)
+     * @param _initSize    the initial number of buckets
+     * @param _slots       the number of slots (key-value pairs) per bucket
+     * @param _loadFactor  the fraction of the slots filled before a bucket is split
+     */
+    public LinHashMap (Class <K> _classK, Class <V> _classV, int _initSize, int _slots, double _loadFactor)
+    {
+        if (_initSize < 1 || _slots < 1 || ! (_loadFactor > 0.0)) {
+            throw new IllegalArgumentException ("LinHashMap: bad initial size, slots or load factor");
+        } // if
+        classK     = _classK;
+        classV     = _classV;
+        slots      = _slots;
+        loadFactor = _loadFactor;
+        initSize   = _initSize;
+        hTable     = new ArrayList <> ();
+        clear ();
     } // constructor
 
     /********************************************************************************
-     * Return a set containing all the entries as pairs of keys and values.
+     * This inner class iterates over the hash table by walking each bucket chain in
+     * turn.  The iterators for keys and values return them straight from the buckets,
+     * and only the iterator for entries allocates (an entry per key).  Removing a key
+     * moves the last key of its chain into the hole, so the iterator re-seeks the slot
+     * of the key removed.  A contraction would move keys into a chain already passed,
+     * so the table is only contracted once the iteration reaches the end.
+     */
+    private abstract class BucketIterator <T>
+            implements Iterator <T>
+    {
+        private int     home     = -1;                // the position of the current chain in hTable
+        private Bucket  b        = null;              // the bucket holding the next key
+        private int     j        = 0;                 // the position of the next key in b
+        private int     expected = modCount;          // modCount when iteration started
+        private K       last     = null;              // the key last returned (null if none)
+        private int     lastHome;                     // the chain, bucket and slot it was in
+        private Bucket  lastB;
+        private int     lastJ;
+        private boolean shrink   = false;             // whether removals left the table to contract
+
+        BucketIterator () { advance (); }
+
+        /****************************************************************************
+         * Move to the next occupied slot (from position j of bucket b), or past the end.
+         */
+        private void advance ()
+        {
+            while (b == null || j >= b.nKeys) {
+                if (b != null && b.next != null) { b = b.next; j = 0; continue; }
+                if (++home >= hTable.size ()) {
+                    b = null;
+                    if (shrink) { shrink = false; contract (); }
+                    return;
+                } // if
+                b = hTable.get (home);
+                j = 0;
+            } // while
+        } // advance
+
+        /****************************************************************************
+         * Return the item (key, value or entry) for slot j of bucket b.
+         */
+        abstract T item (Bucket b, int j);
+
+        public boolean hasNext () { return b != null; }
+
+        public T next ()
+        {
+            if (modCount != expected) throw new ConcurrentModificationException ();
+            if (b == null) throw new NoSuchElementException ();
+            last     = b.key[j];
+            lastHome = home;
+            lastB    = b;
+            lastJ    = j;
+            T t = item (b, j++);
+            advance ();
+            return t;
+        } // next
+
+        public void remove ()
+        {
+            if (last == null) throw new IllegalStateException ();
+            if (modCount != expected) throw new ConcurrentModificationException ();
+            boolean done = b == null;
+            delete (last);
+            if (done) {                                                // nothing left to visit
+                contract ();
+            } else {                                                   // revisit the hole
+                home   = lastHome;
+                b      = lastB;
+                j      = lastJ;
+                shrink = true;
+                advance ();
+            } // if
+            last     = null;
+            expected = modCount;
+        } // remove
+
+    } // BucketIterator inner class
+
+    /********************************************************************************
+     * Return a set containing all the entries as pairs of keys and values.  The set is
+     * a view: iterating over it walks the buckets, and nothing is copied.
      * @return  the set view of the map
      */
     public Set <Map.Entry <K, V>> entrySet ()
     {
-        Set <Map.Entry <K, V>> enSet = new HashSet <> ();
-        Map tempMap = new HashMap<K,V>();
-        for (Bucket presentBucket :
-                hTable) {
-                while(presentBucket != null) {
-                   for (int i = 0; i < presentBucket.nKeys; i++) {
-                    tempMap.put(presentBucket.key[i],presentBucket.value[i]);
-                }
-                presentBucket = presentBucket.next;
-            }
-        }
-        enSet.addAll(tempMap.entrySet());
-        return enSet;
+        return new AbstractSet <Map.Entry <K, V>> () {
+            public Iterator <Map.Entry <K, V>> iterator ()
+            {
+                return new BucketIterator <Map.Entry <K, V>> () {
+                    Map.Entry <K, V> item (Bucket b, int j) { return new AbstractMap.SimpleImmutableEntry <> (b.key[j], b.value[j]); }
+                };
+            } // iterator
+            public int size ()                 { return LinHashMap.this.size (); }
+            public boolean contains (Object o)
+            {
+                if (! (o instanceof Map.Entry)) return false;
+                Map.Entry <?, ?> e = (Map.Entry <?, ?>) o;
+                return containsKey (e.getKey ()) && Objects.equals (get (e.getKey ()), e.getValue ());
+            } // contains
+        };
     } // entrySet
 
     /********************************************************************************
-     * Given the key, look up the value in the hash table.
+     * Return a set view of the keys, read straight from the buckets.
+     * @return  the set view of the keys
+     */
+    public Set <K> keySet ()
+    {
+        return new AbstractSet <K> () {
+            public Iterator <K> iterator ()
+            {
+                return new BucketIterator <K> () {
+                    K item (Bucket b, int j) { return b.key[j]; }
+                };
+            } // iterator
+            public int size ()                 { return LinHashMap.this.size (); }
+            public boolean contains (Object o) { return containsKey (o); }
+        };
+    } // keySet
+
+    /********************************************************************************
+     * Return a collection view of the values, read straight from the buckets.
+     * @return  the collection view of the values
+     */
+    public Collection <V> values ()
+    {
+        return new AbstractCollection <V> () {
+            public Iterator <V> iterator ()
+            {
+                return new BucketIterator <V> () {
+                    V item (Bucket b, int j) { return b.value[j]; }
+                };
+            } // iterator
+            public int size () { return LinHashMap.this.size (); }
+        };
+    } // values
+
+    /********************************************************************************
+     * Apply the action to each key and value, walking the buckets without allocating
+     * an entry per key.
+     * @param action  the action to apply to each key-value pair
+     */
+    public void forEach (BiConsumer <? super K, ? super V> action)
+    {
+        int expected = modCount;
+        for (Bucket home : hTable) {
+            for (Bucket b = home; b != null; b = b.next) {
+                for (int j = 0; j < b.nKeys; j++) action.accept (b.key[j], b.value[j]);
+                if (modCount != expected) throw new ConcurrentModificationException ();
+            } // for
+        } // for
+    } // forEach
+
+    /********************************************************************************
+     * Return the home bucket (the start of the bucket chain) for the key, using the
+     * high resolution hash function for buckets that have already been split.
+     * @param key  the key to locate
+     * @return  the first bucket of the chain that would hold the key
+     */
+    private Bucket home (Object key)
+    {
+        int i = h (key);
+        if (i < split) i = h2 (key);                                   // bucket i has been split
+        return hTable.get (i);
+    } // home
+
+    /********************************************************************************
+     * Given the key, look up the value in the hash table, probing only the key's
+     * bucket chain.
      * @param key  the key used for look up
      * @return  the value associated with the key
      */
     public V get (Object key)
     {
-        int i = h (key); 
-        if(i < split)      
-            i = h2(key);   
-        Bucket bucket = hTable.get(i);
-        V value = null;
-        if(bucket.nKeys == 0)
-            return null;
-        while(bucket != null) {
-            for (int j = 0; j < bucket.nKeys; j++) {
-                if(key.getClass() == Integer.class){
-                    if (((K)key).equals((K)bucket.key[j])) {
-                        value = bucket.value[j];        
-                        return value;
-                    }
-                }
-                else {
-                    if (((KeyType) key).equals((KeyType) bucket.key[j])) {
-                        value = bucket.value[j];        
-                        return value;
-                    }
-                }
-            }
-            bucket = bucket.next;
-        }
+        for (Bucket b = home (key); b != null; b = b.next) {
+            count++;
+            for (int j = 0; j < b.nKeys; j++) {
+                if (key.equals (b.key[j])) return b.value[j];
+            } // for
+        } // for
         return null;
     } // get
 
     /********************************************************************************
-     * Put the key-value pair in the hash table.
+     * Determine whether the hash table contains the key, probing only the key's bucket
+     * chain.
+     * @param key  the key to look for
+     * @return  whether the key is present
+     */
+    public boolean containsKey (Object key)
+    {
+        for (Bucket b = home (key); b != null; b = b.next) {
+            count++;
+            for (int j = 0; j < b.nKeys; j++) {
+                if (key.equals (b.key[j])) return true;
+            } // for
+        } // for
+        return false;
+    } // containsKey
+
+    /********************************************************************************
+     * Put the key-value pair in the hash table, replacing the value of an existing key.
+     * A single pass over the key's bucket chain both looks for the key and finds the
+     * first free slot.
      * @param key    the key to insert
      * @param value  the value to insert
-     * @return  null (not the previous value)
+     * @return  the previous value for this key, or null if none
      */
     public V put (K key, V value)
     {
-        int i = h (key);
-//        out.println ("LinearHashMap.put: key = " + key + ", h() = " + i + ", value = " + value);
-        if(i < split) // to check if a split has been made on the bucket
-            i = h2(key);
-//        out.println ("LinearHashMap.put: key = " + key + ", h() = " + i + ", value = " + value);
-        if(!containsKey(key)) {  
-            Bucket bucket = hTable.get(i);
-            if (bucket.nKeys < SLOTS) {
-                bucket.key[bucket.nKeys] = key;
-                bucket.value[bucket.nKeys] = value;
-                if(bucket.nKeys < 4)
-                    bucket.nKeys++;
-                keysCount++;
-            } 
-            else {
-                while(bucket != null) {
-                    if (bucket.next == null) {
-                        Bucket chainBucket = new Bucket(null);
-                        bucket.next = chainBucket;
-                        bucket = bucket.next;	
-                        if (bucket.nKeys < SLOTS) {
-                            bucket.key[bucket.nKeys] = key;
-                            bucket.value[bucket.nKeys] = value;
-                            if (bucket.nKeys < 4)
-                                bucket.nKeys++;
-                            keysCount++;
-                        }
-                    } else {
-                        bucket = bucket.next;
-                        if (bucket.nKeys < SLOTS) {
-                            bucket.key[bucket.nKeys] = key;
-                            bucket.value[bucket.nKeys] = value;
-                            if (bucket.nKeys < 4)
-                                bucket.nKeys++;
-                            keysCount++;
-                        }
-                    }
-                    bucket = bucket.next;
-                }
-            }
-            int sizeValue = size();
-            double loadValue = ((float)keysCount/sizeValue);
-            if (loadValue > 0.5){
-                Bucket splitBucket = hTable.get(split);
-                Bucket newBucket = new Bucket(null);
-                hTable.add(newBucket); 
-                Map<K, V> mapKeys = new HashMap<K, V>();
-                while (splitBucket != null) {
-                    for (int sb = 0; sb < splitBucket.nKeys; sb++) {
-                        mapKeys.put(splitBucket.key[sb], splitBucket.value[sb]);
-                    }
-                    splitBucket = splitBucket.next;
-                }
-                splitBucket = null;
-                hTable.set(split,new Bucket(null));
-                split++;
-                for (K keyValue :
-                        mapKeys.keySet()) {
-                    int index = h(keyValue);
-                    if (index < split)
-                        index = h2(keyValue);
-                    Bucket buck = hTable.get(index);
-                    if (buck.nKeys < SLOTS) {
-                        buck.key[buck.nKeys] = keyValue;
-                        buck.value[buck.nKeys] = mapKeys.get(keyValue);
-                        if(buck.nKeys < 4)
-                            buck.nKeys++;
-                    } 
-                    else {
-                        while(buck != null) {
-                            if (buck.next == null) {
-                                Bucket chainLoadBucket = new Bucket(null);
-                                buck.next = chainLoadBucket;
-                                buck = buck.next;
-                                if(buck.nKeys < SLOTS) {
-                                    buck.key[buck.nKeys] = keyValue;
-                                    buck.value[buck.nKeys] = mapKeys.get(keyValue);
-                                    if (buck.nKeys < 4)
-                                        buck.nKeys++;
-                                }
-                            } else {
-                                buck = buck.next;
-                                if (buck.nKeys < SLOTS) {
-                                    buck.key[buck.nKeys] = keyValue;
-                                    buck.value[buck.nKeys] = mapKeys.get(keyValue);
-                                    if (buck.nKeys < 4)
-                                        buck.nKeys++;
-                                }
-                            }
-                            buck = buck.next;
-                        }
-                    }
-                }
-                if (split == mod1) { 
-                    split = 0;
-                    mod1 = mod2;
-                    mod2 = mod2 * 2;
-                }
-            } 
+//        out.println ("LinearHashMap.put: key = " + key + ", value = " + value);
+        Bucket free = null, last = null;                               // first bucket with room, last bucket
+        for (Bucket b = home (key); b != null; b = b.next) {
             count++;
-            return null;
-        }
+            for (int j = 0; j < b.nKeys; j++) {
+                if (key.equals (b.key[j])) {                           // existing key: replace value
+                    V old = b.value[j];
+                    b.value[j] = value;
+                    return old;
+                } // if
+            } // for
+            if (free == null && b.nKeys < slots) free = b;
+            last = b;
+        } // for
+        if (free == null) free = last.next = new Bucket (null);       // chain a new bucket
+        free.key[free.nKeys]   = key;
+        free.value[free.nKeys] = value;
+        free.nKeys++;
+        keyCount++;
+        modCount++;
+
+        if (keyCount > loadFactor * capacity ()) splitBucket ();
         return null;
     } // put
 
     /********************************************************************************
-     * Return the size (SLOTS * number of home buckets) of the hash table.
+     * Remove the key (and its value) from the hash table.  When the load falls below
+     * half the load factor, the last bucket is merged back (contraction).
+     * @param key  the key to remove
+     * @return  the value that was associated with the key, or null if none
+     */
+    public V remove (Object key)
+    {
+        V old = delete (key);
+        contract ();
+        return old;
+    } // remove
+
+    /********************************************************************************
+     * Remove the key (and its value) from its bucket chain, without contracting.  The
+     * hole is filled with the last key of the chain, so the chain stays compact (every
+     * bucket full but the last) without tombstones, and an overflow bucket emptied this
+     * way is dropped.
+     * @param key  the key to remove
+     * @return  the value that was associated with the key, or null if none
+     */
+    private V delete (Object key)
+    {
+        for (Bucket before = null, b = home (key); b != null; before = b, b = b.next) {
+            count++;
+            for (int j = 0; j < b.nKeys; j++) {
+                if (! key.equals (b.key[j])) continue;
+                V old = b.value[j];
+                Bucket prev = before, last = b;                        // find the last bucket of the chain
+                while (last.next != null) { prev = last; last = last.next; }
+                int n = --last.nKeys;
+                b.key[j]   = last.key[n];                              // move the last key into the hole
+                b.value[j] = last.value[n];
+                last.key[n]   = null;
+                last.value[n] = null;
+                if (n == 0 && prev != null) prev.next = null;          // drop the emptied overflow bucket
+                keyCount--;
+                modCount++;
+                return old;
+            } // for
+        } // for
+        return null;
+    } // delete
+
+    /********************************************************************************
+     * Merge buckets back while the load is below half the load factor (contraction),
+     * but not below the initial size.
+     */
+    private void contract ()
+    {
+        while (keyCount < loadFactor / 2 * capacity () && mod1 + split > initSize) mergeBucket ();
+    } // contract
+
+    /********************************************************************************
+     * Remove all the keys, shrinking the hash table back to its initial size.
+     */
+    public void clear ()
+    {
+        hTable.clear ();
+        mod1  = initSize;
+        mod2  = 2 * mod1;
+        split = 0;
+        for (int i = 0; i < mod1; i++) hTable.add (new Bucket (null));
+        hTable.trimToSize ();
+        keyCount = 0;
+        modCount++;
+    } // clear
+
+    /********************************************************************************
+     * Split the next bucket (split): the keys of its chain that the high resolution hash
+     * function sends to the new bucket (split + mod1) are moved to it, and the rest are
+     * compacted in place towards the front of the chain, whose emptied overflow buckets
+     * are dropped.  No temporary map is built and no entry is rehashed twice.
+     */
+    private void splitBucket ()
+    {
+        Bucket old = hTable.get (split);
+        Bucket nb  = new Bucket (null);
+        hTable.add (nb);                                               // at position split + mod1
+        Bucket w  = old;                                               // write cursor in the old chain
+        int    wi = 0;
+        Bucket m  = nb;                                                // last bucket of the new chain
+        for (Bucket r = old; r != null; r = r.next) {
+            count++;
+            for (int ri = 0; ri < r.nKeys; ri++) {
+                K k = r.key[ri];
+                V v = r.value[ri];
+                if (h2 (k) == split) {                                 // stays: compact towards the front
+                    if (wi == slots) { w.nKeys = slots; w = w.next; wi = 0; }
+                    w.key[wi]   = k;
+                    w.value[wi] = v;
+                    wi++;
+                } else {                                               // moves to the new bucket
+                    if (m.nKeys == slots) m = m.next = new Bucket (null);
+                    m.key[m.nKeys]   = k;
+                    m.value[m.nKeys] = v;
+                    m.nKeys++;
+                } // if
+            } // for
+        } // for
+        for (int j = wi; j < w.nKeys; j++) { w.key[j] = null; w.value[j] = null; }
+        w.nKeys = wi;
+        w.next  = null;                                                // drop the emptied overflow buckets
+
+        if (++split == mod1) {                                         // all buckets split: next round
+            split = 0;
+            mod1  = mod2;
+            mod2  = mod2 * 2;
+        } // if
+    } // splitBucket
+
+    /********************************************************************************
+     * Merge the last bucket back into its buddy, reversing the last split: the split
+     * pointer moves back (to the previous level when it is at zero) and the keys of the
+     * last bucket's chain are appended to the buddy's chain, filling its free slots.
+     * The directory is trimmed when a level is undone, so memory tracks the key count.
+     */
+    private void mergeBucket ()
+    {
+        if (split == 0) {                                              // undo a whole round
+            mod2  = mod1;
+            mod1  = mod1 / 2;
+            split = mod1;
+            hTable.trimToSize ();
+        } // if
+        split--;
+        Bucket gone = hTable.remove (mod1 + split);
+        Bucket w    = hTable.get (split);                              // append to the buddy's chain
+        while (w.next != null) w = w.next;
+        for (Bucket r = gone; r != null; r = r.next) {
+            count++;
+            for (int j = 0; j < r.nKeys; j++) {
+                if (w.nKeys == slots) w = w.next = new Bucket (null);
+                w.key[w.nKeys]   = r.key[j];
+                w.value[w.nKeys] = r.value[j];
+                w.nKeys++;
+            } // for
+        } // for
+    } // mergeBucket
+
+    /********************************************************************************
+     * Return the capacity (slots * number of home buckets) of the hash table.
+     * @return  the number of slots in the home buckets
+     */
+    private int capacity ()
+    {
+        return slots * (mod1 + split);
+    } // capacity
+
+    /********************************************************************************
+     * Return the size (number of keys) of the hash table.
      * @return  the size of the hash table
      */
     public int size ()
     {
-        return SLOTS * (mod1 + split);
+        return keyCount;
     } // size
 
     /********************************************************************************
@@ -346,5 +607,22 @@ public class LinHashMap <K, V>
         } // for
         out.println ("-------------------------------------------");
         out.println ("Average number of buckets accessed = " + ht.count / (double) totalKeys);
+
+        int before = ht.hTable.size ();
+        for (int i = 1; i <= totalKeys; i += 2) if (i % 8 != 1) ht.remove (i);
+        out.println ("After removing three keys in four: size = " + ht.size () + ", buckets = "
+                   + ht.hTable.size () + " (was " + before + "), get (9) = " + ht.get (9));
+
+        LinHashMap <Integer, Integer> lh  = new LinHashMap <> (Integer.class, Integer.class);
+        Map <Integer, Integer>        ref = new HashMap <> ();
+        for (int i = 0; i < 10000; i++) { lh.put (i, i); ref.put (i, i); }
+        lh.keySet ().removeIf (k -> k % 3 != 0);                       // removal through the views
+        ref.keySet ().removeIf (k -> k % 3 != 0);
+        lh.values ().remove (9);
+        ref.values ().remove (9);
+        lh.entrySet ().retainAll (Collections.singletonMap (6, 6).entrySet ());
+        ref.entrySet ().retainAll (Collections.singletonMap (6, 6).entrySet ());
+        out.println ("After removing through the views: size = " + lh.size () + ", buckets = "
+                   + lh.hTable.size () + ", matches HashMap = " + ref.equals (lh));
     } // main
 } // LinHashMap class
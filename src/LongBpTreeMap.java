@@ -0,0 +1,1395 @@
+/************************************************************************************
+ * @file LongBpTreeMap.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * The LongBpTreeMap class provides B+Tree maps specialized for keys made of a single
+ * integral attribute (Integer, Long, Short or Byte), the common case of an id.  The
+ * keys are kept as primitive longs in each node, so a search compares primitives and
+ * an index holds no KeyType, Comparable [] or boxed key per entry.  It provides the
+ * same navigable map contract as BpTreeMap on KeyType keys (including bulk loading
+ * and deletion with borrowing and merging), plus get/put/remove methods taking
+ * primitive keys.  As in BpTreeMap, each divider key is the largest key in its left
+ * subtree and leaves are linked both ways.
+ */
+public class LongBpTreeMap <V>
+       extends AbstractMap <KeyType, V>
+       implements NavigableMap <KeyType, V>, Serializable
+{
+    /** The maximum fanout (number of children) for a B+Tree node.
+     */
+    private final int order;
+
+    /** The minimum number of keys in a leaf and in an internal node other than the root
+     *  (the sizes of the smaller halves of a split)
+     */
+    private final int minLeaf, minInner;
+
+    /** The class of the key attribute (Integer, Long, Short or Byte).
+     */
+    private final Class keyClass;
+
+    /********************************************************************************
+     * This inner class defines nodes that are stored in the B+tree map.
+     */
+    private class Node
+    {
+        boolean   isLeaf;                             // whether the node is a leaf
+        int       nKeys;                              // number of active keys
+        long []   key;                                // array of keys
+        Object [] ref;                                // array of values (leaf) or children
+        Node      next, prev;                         // the next and previous leaves (leaves only)
+
+        /****************************************************************************
+         * Construct a node.
+         * @param _isLeaf  whether the node is a leaf
+         */
+        Node (boolean _isLeaf)
+        {
+            isLeaf = _isLeaf;
+            key    = new long [order - 1];
+            ref    = new Object [isLeaf ? order - 1 : order];
+        } // constructor
+
+        /****************************************************************************
+         * Find the "<=" match position in this node using binary search, i.e., the
+         * first key that is at least k.
+         * @param k  the key to be matched.
+         * @return  the position of match within node, where nKeys indicates no match
+         */
+        int find (long k)
+        {
+            int lo = 0, hi = nKeys;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (k <= key[mid]) hi = mid; else lo = mid + 1;
+            } // while
+            return lo;
+        } // find
+
+        /****************************************************************************
+         * Overriding toString method to print the Node. Prints out the keys.
+         */
+        @Override
+        public String toString ()
+        {
+            return Arrays.toString (Arrays.copyOf (key, nKeys));
+        } // toString
+
+    } // Node inner class
+
+    /** The root of the B+Tree
+     */
+    private transient Node root;
+
+    /** The first (leftmost) leaf in the B+Tree
+     */
+    private transient Node firstLeaf;
+
+    /** The divider key for the right sibling returned by the last split
+     */
+    private transient long divider;
+
+    /** The value previously associated with the key being put or removed (null if none)
+     */
+    private transient V previous;
+
+    /** The counter for the number nodes accessed (for performance testing)
+     */
+    private transient int count = 0;
+
+    /** The counter for the total number of keys in the B+Tree Map
+     */
+    private transient int keyCount = 0;
+
+    /** The number of structural modifications, used to detect changes to the map
+     *  while iterating over it
+     */
+    private transient int modCount = 0;
+
+    /********************************************************************************
+     * Determine whether keys over the given domains can be kept in a LongBpTreeMap,
+     * i.e., the key is a single integral attribute.
+     * @param keyDomain  the domains of the key attributes
+     * @return  whether the key is a single Integer, Long, Short or Byte
+     */
+    public static boolean supports (Class [] keyDomain)
+    {
+        if (keyDomain.length != 1) return false;
+        Class c = keyDomain [0];
+        return c == Integer.class || c == Long.class || c == Short.class || c == Byte.class;
+    } // supports
+
+    /********************************************************************************
+     * Construct an empty B+Tree map with the given order (maximum fanout).
+     * @param _keyClass  the class of the key attribute (Integer, Long, Short or Byte)
+     * @param _order     the maximum number of children of a node (at least 4)
+     */
+    public LongBpTreeMap (Class _keyClass, int _order)
+    {
+        if (! supports (new Class [] { _keyClass })) {
+            throw new IllegalArgumentException ("LongBpTreeMap: key class must be integral, not " + _keyClass);
+        } // if
+        if (_order < 4) throw new IllegalArgumentException ("LongBpTreeMap: order must be at least 4");
+        keyClass  = _keyClass;
+        order     = _order;
+        minLeaf   = (order - 1) / 2;
+        minInner  = Math.max (1, order - 2 - (order - 1) / 2);
+        root      = new Node (true);
+        firstLeaf = root;
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty B+Tree map with nodes sized to fill a page.
+     * @param _keyClass  the class of the key attribute (Integer, Long, Short or Byte)
+     */
+    public LongBpTreeMap (Class _keyClass)
+    {
+        this (_keyClass, BpTreeMap.PAGE_ORDER);
+    } // constructor
+
+    /********************************************************************************
+     * Convert a (single attribute) key to a long.
+     * @param key  the key, a KeyType holding one integral value
+     * @return  the value of the key as a long
+     */
+    private static long toLong (Object key)
+    {
+        if (! isIntegral (key)) throw new ClassCastException ("LongBpTreeMap: key must be one integral attribute, not " + key);
+        return ((Number) ((KeyType) key).key [0]).longValue ();
+    } // toLong
+
+    /********************************************************************************
+     * Convert a long back to a key, with its value boxed as the key class.
+     * @param k  the value of the key
+     * @return  the key
+     */
+    private KeyType toKey (long k)
+    {
+        if (keyClass == Integer.class) return new KeyType ((int) k);
+        if (keyClass == Short.class)   return new KeyType ((short) k);
+        if (keyClass == Byte.class)    return new KeyType ((byte) k);
+        return new KeyType (k);
+    } // toKey
+
+    /********************************************************************************
+     * Determine whether the key is a single integral attribute (so it may be found).
+     * A key such as 5.5 is not, so it never matches the key 5.
+     * @param key  the key to check
+     */
+    private static boolean isIntegral (Object key)
+    {
+        if (! (key instanceof KeyType) || ((KeyType) key).key.length != 1) return false;
+        Object k = ((KeyType) key).key [0];
+        return k instanceof Integer || k instanceof Long || k instanceof Short || k instanceof Byte;
+    } // isIntegral
+
+    /********************************************************************************
+     * Return null to use the natural order of the keys.
+     */
+    public Comparator <? super KeyType> comparator ()
+    {
+        return null;
+    } // comparator
+
+    /********************************************************************************
+     * Return a set containing all the entries as pairs of keys and values.  The set is
+     * a view scanned in key order along the leaf chain.
+     * @return  the set view of the map
+     */
+    public Set <Map.Entry <KeyType, V>> entrySet ()
+    {
+        return new SubMap (null, true, null, true, false).entrySet ();
+    } // entrySet
+
+    /********************************************************************************
+     * Return a collection view of the values, in key order, read straight from the
+     * leaves.
+     * @return  the collection view of the values
+     */
+    public Collection <V> values ()
+    {
+        return new SubMap (null, true, null, true, false).values ();
+    } // values
+
+    /********************************************************************************
+     * Apply the action to each key and value in key order, walking the leaves without
+     * allocating an entry per key.
+     * @param action  the action to apply to each key-value pair
+     */
+    public void forEach (BiConsumer <? super KeyType, ? super V> action)
+    {
+        new SubMap (null, true, null, true, false).forEach (action);
+    } // forEach
+
+    /********************************************************************************
+     * Given the key, look up the value in the B+Tree map.
+     * @param key  the key used for look up
+     * @return  the value associated with the key or null if not found
+     */
+    public V get (Object key)
+    {
+        return isIntegral (key) ? get (toLong (key)) : null;
+    } // get
+
+    /********************************************************************************
+     * Given the primitive key, look up the value in the B+Tree map.
+     * @param k  the key used for look up
+     * @return  the value associated with the key or null if not found
+     */
+    @SuppressWarnings("unchecked")
+    public V get (long k)
+    {
+        Node n = root;
+        for ( ; ! n.isLeaf; n = (Node) n.ref[n.find (k)]) count++;
+        count++;
+        int i = n.find (k);
+        return (i < n.nKeys && n.key[i] == k) ? (V) n.ref[i] : null;
+    } // get
+
+    /********************************************************************************
+     * Determine whether the B+Tree map contains the key.
+     * @param key  the key to look for
+     */
+    public boolean containsKey (Object key)
+    {
+        return isIntegral (key) && containsKey (toLong (key));
+    } // containsKey
+
+    /********************************************************************************
+     * Determine whether the B+Tree map contains the primitive key.
+     * @param k  the key to look for
+     */
+    public boolean containsKey (long k)
+    {
+        Node n = root;
+        while (! n.isLeaf) n = (Node) n.ref[n.find (k)];
+        int i = n.find (k);
+        return i < n.nKeys && n.key[i] == k;
+    } // containsKey
+
+    /********************************************************************************
+     * Put the key-value pair in the B+Tree map, replacing the value of an existing key.
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value for this key, or null if none
+     */
+    public V put (KeyType key, V value)
+    {
+        return put (toLong (key), value);
+    } // put
+
+    /********************************************************************************
+     * Put the primitive key and value in the B+Tree map, replacing the value of an
+     * existing key.
+     * @param k      the key to insert
+     * @param value  the value to insert
+     * @return  the previous value for this key, or null if none
+     */
+    public V put (long k, V value)
+    {
+        previous = null;
+        Node rt = insert (k, value, root);
+        if (rt != null) {                                                    // root was split: make a new root
+            Node nr = new Node (false);
+            nr.nKeys  = 1;
+            nr.key[0] = divider;
+            nr.ref[0] = root;
+            nr.ref[1] = rt;
+            root = nr;
+        } // if
+        return previous;
+    } // put
+
+    /********************************************************************************
+     * Load the entries into this empty B+Tree map bottom-up in a single pass: the
+     * leaves are filled in order up to the fill factor and linked, then each level of
+     * internal nodes is built over the level below, until a single root remains.
+     * @param sorted  the entries in strictly increasing order of keys
+     * @param fill    the fraction of each node to fill (0 < fill <= 1)
+     */
+    public void bulkLoad (Iterator <? extends Map.Entry <KeyType, V>> sorted, double fill)
+    {
+        if (keyCount > 0) throw new IllegalStateException ("LongBpTreeMap.bulkLoad: map is not empty");
+        Loader loader = new Loader (fill);
+        while (sorted.hasNext ()) {
+            Map.Entry <KeyType, V> e = sorted.next ();
+            loader.add (toLong (e.getKey ()), e.getValue ());
+        } // while
+        loader.finish ();
+    } // bulkLoad
+
+    /********************************************************************************
+     * This inner class builds the tree bottom-up from keys given in increasing order,
+     * for bulkLoad and deserialization.
+     */
+    private class Loader
+    {
+        private final int   perLeaf, perNode;        // the number of keys per leaf, children per node
+        private List <Node> level = new ArrayList <> ();  // the nodes of the current level
+        private Node        leaf  = null;            // the leaf being filled
+
+        /****************************************************************************
+         * Construct a loader filling nodes to the given fraction.
+         * @param fill  the fraction of each node to fill (0 < fill <= 1)
+         */
+        Loader (double fill)
+        {
+            if (fill <= 0.0 || fill > 1.0) throw new IllegalArgumentException ("LongBpTreeMap.bulkLoad: bad fill factor " + fill);
+            perLeaf = Math.max (1, Math.min (order - 1, (int) Math.round (fill * (order - 1))));
+            perNode = Math.max (2, Math.min (order, (int) Math.round (fill * order)));
+        } // constructor
+
+        /****************************************************************************
+         * Append the key and value to the last leaf, starting the next leaf when full.
+         * @param k      the key (greater than all keys added so far)
+         * @param value  the value
+         */
+        void add (long k, Object value)
+        {
+            if (leaf != null && k <= leaf.key[leaf.nKeys-1]) {
+                throw new IllegalArgumentException ("LongBpTreeMap.bulkLoad: keys not increasing at " + k);
+            } // if
+            if (leaf == null || leaf.nKeys == perLeaf) {                     // start the next leaf
+                Node next = new Node (true);
+                if (leaf != null) { leaf.next = next; next.prev = leaf; }
+                level.add (next);
+                leaf = next;
+            } // if
+            leaf.key[leaf.nKeys]   = k;
+            leaf.ref[leaf.nKeys++] = value;
+            keyCount++;
+        } // add
+
+        /****************************************************************************
+         * Build the levels of internal nodes over the leaves, up to the root.
+         */
+        void finish ()
+        {
+            modCount++;
+            if (leaf == null) return;
+            firstLeaf = level.get (0);
+            long [] high = new long [level.size ()];                         // divider after each node
+            for (int c = 0; c < high.length; c++) high [c] = level.get (c).key[level.get (c).nKeys-1];
+
+            while (level.size () > 1) {                                      // build the next level up
+                List <Integer> groups = new ArrayList <> ();
+                for (int left = level.size (); left > 0; left -= perNode) groups.add (Math.min (perNode, left));
+                int last = groups.size () - 1;
+                if (last > 0 && groups.get (last) == 1) {                    // avoid a node with one child
+                    if (groups.get (last - 1) < order) {
+                        groups.set (last - 1, groups.get (last - 1) + 1);
+                        groups.remove (last);
+                    } else {
+                        int both = groups.get (last - 1) + 1;
+                        groups.set (last - 1, both - both / 2);
+                        groups.set (last, both / 2);
+                    } // if
+                } // if
+
+                List <Node> parents = new ArrayList <> ();
+                long []     highs   = new long [groups.size ()];
+                int c = 0;
+                for (int g : groups) {
+                    Node n = new Node (false);
+                    for (int i = 0; i < g; i++, c++) {
+                        n.ref[i] = level.get (c);
+                        if (i < g - 1) n.key[i] = high [c];                  // divider - largest left
+                    } // for
+                    n.nKeys = g - 1;
+                    highs [parents.size ()] = high [c - 1];
+                    parents.add (n);
+                } // for
+                level = parents;
+                high  = highs;
+            } // while
+            root = level.get (0);
+        } // finish
+
+    } // Loader inner class
+
+    /********************************************************************************
+     * Recursive helper function for inserting a key in the subtree rooted at node n.
+     * A full node is split first, and the new entry goes to the half it belongs in.
+     * @param k      the key to insert
+     * @param value  the value to insert
+     * @param n      the current node
+     * @return  the newly allocated right sibling node of n (with its divider key in
+     *          divider), or null if n was not split
+     */
+    @SuppressWarnings("unchecked")
+    private Node insert (long k, V value, Node n)
+    {
+        count++;
+        int i = n.find (k);                                                  // find "<=" position
+
+        if (n.isLeaf) {
+            if (i < n.nKeys && n.key[i] == k) {                              // existing key: replace value
+                previous = (V) n.ref[i];
+                n.ref[i] = value;
+                return null;
+            } // if
+            keyCount++;
+            modCount++;
+            if (n.nKeys < order - 1) {
+                wedge (n, i, k, value);
+                return null;
+            } // if
+            Node rt = splitLeaf (n);
+            if (i <= n.nKeys) wedge (n, i, k, value); else wedge (rt, i - n.nKeys, k, value);
+            divider = n.key[n.nKeys-1];                                      // divider - largest left
+            return rt;
+        } // if
+
+        Node crt = insert (k, value, (Node) n.ref[i]);                       // recursive call to insert
+        if (crt == null) return null;                                        // no split below
+        long d = divider;
+        if (n.nKeys < order - 1) {
+            wedge (n, i, d, crt);
+            return null;
+        } // if
+        Node rt = splitInner (n);                                            // sets divider to the middle key
+        long up = divider;
+        if (d < up) wedge (n, i, d, crt); else wedge (rt, i - n.nKeys - 1, d, crt);
+        divider = up;
+        return rt;
+    } // insert
+
+    /********************************************************************************
+     * Wedge the key and the value (leaf) or right child (internal node) into node n at
+     * position i, shifting the later keys and references.
+     */
+    private void wedge (Node n, int i, long k, Object ref)
+    {
+        int r = n.isLeaf ? i : i + 1;                                        // an internal node's child goes right
+        System.arraycopy (n.key, i, n.key, i + 1, n.nKeys - i);
+        System.arraycopy (n.ref, r, n.ref, r + 1, n.nKeys - i);
+        n.key[i] = k;
+        n.ref[r] = ref;
+        n.nKeys++;
+    } // wedge
+
+    /********************************************************************************
+     * Split the full leaf n, moving its upper half to a new right sibling that is
+     * linked in after it.
+     * @param n  the leaf to split
+     * @return  the right sibling leaf
+     */
+    private Node splitLeaf (Node n)
+    {
+        int  h  = (n.nKeys + 1) / 2;
+        Node rt = new Node (true);
+        rt.nKeys = n.nKeys - h;
+        System.arraycopy (n.key, h, rt.key, 0, rt.nKeys);
+        System.arraycopy (n.ref, h, rt.ref, 0, rt.nKeys);
+        Arrays.fill (n.ref, h, n.nKeys, null);
+        n.nKeys = h;
+        rt.next = n.next;                                                    // link rt between n and its next
+        rt.prev = n;
+        if (n.next != null) n.next.prev = rt;
+        n.next  = rt;
+        return rt;
+    } // splitLeaf
+
+    /********************************************************************************
+     * Split the full internal node n: its middle key moves up as the divider and the
+     * keys and children after it move to a new right sibling.
+     * @param n  the internal node to split
+     * @return  the right sibling node (with its divider key in divider)
+     */
+    private Node splitInner (Node n)
+    {
+        int  h  = n.nKeys / 2;
+        Node rt = new Node (false);
+        divider  = n.key[h];                                                 // middle key moves up
+        rt.nKeys = n.nKeys - h - 1;
+        System.arraycopy (n.key, h + 1, rt.key, 0, rt.nKeys);
+        System.arraycopy (n.ref, h + 1, rt.ref, 0, rt.nKeys + 1);
+        Arrays.fill (n.ref, h + 1, n.nKeys + 1, null);
+        n.nKeys = h;
+        return rt;
+    } // splitInner
+
+    /********************************************************************************
+     * Remove the key (and its value) from the B+Tree map.
+     * @param key  the key to remove
+     * @return  the value that was associated with the key, or null if none
+     */
+    public V remove (Object key)
+    {
+        return isIntegral (key) ? remove (toLong (key)) : null;
+    } // remove
+
+    /********************************************************************************
+     * Remove the primitive key (and its value) from the B+Tree map.  Nodes left less
+     * than half full borrow from or merge with a sibling, and the root is removed when
+     * it has a single child, so the tree stays balanced.
+     * @param k  the key to remove
+     * @return  the value that was associated with the key, or null if none
+     */
+    public V remove (long k)
+    {
+        previous = null;
+        delete (k, root);
+        if (! root.isLeaf && root.nKeys == 0) root = (Node) root.ref[0];    // shrink: drop the root
+        return previous;
+    } // remove
+
+    /********************************************************************************
+     * Recursive helper function for deleting a key.  Divider keys are left in place
+     * when the key they equal is deleted, as they still separate the subtrees.
+     * @param k  the key to delete
+     * @param n  the current node
+     * @return  whether node n is left with too few keys (underflow)
+     */
+    @SuppressWarnings("unchecked")
+    private boolean delete (long k, Node n)
+    {
+        count++;
+        int i = n.find (k);
+
+        if (n.isLeaf) {
+            if (i == n.nKeys || n.key[i] != k) return false;                 // key not found
+            previous = (V) n.ref[i];
+            System.arraycopy (n.key, i + 1, n.key, i, n.nKeys - i - 1);
+            System.arraycopy (n.ref, i + 1, n.ref, i, n.nKeys - i - 1);
+            n.ref[--n.nKeys] = null;
+            keyCount--;
+            modCount++;
+            return n.nKeys < minLeaf;
+        } // if
+
+        if (! delete (k, (Node) n.ref[i])) return false;                     // no underflow below
+        rebalance (n, i);
+        return n.nKeys < minInner;
+    } // delete
+
+    /********************************************************************************
+     * Fix the underflow of the i-th child of node p by borrowing a key from a sibling
+     * that has more than the minimum, or otherwise by merging it with a sibling.
+     * @param p  the parent node
+     * @param i  the position of the child that underflowed
+     */
+    private void rebalance (Node p, int i)
+    {
+        Node c     = (Node) p.ref[i];
+        Node left  = (i > 0) ? (Node) p.ref[i-1] : null;
+        Node right = (i < p.nKeys) ? (Node) p.ref[i+1] : null;
+        int  min   = c.isLeaf ? minLeaf : minInner;
+
+        if (left != null && left.nKeys > min)        borrowLeft (p, i, left, c);
+        else if (right != null && right.nKeys > min) borrowRight (p, i, c, right);
+        else if (left != null)                       merge (p, i-1, left, c);
+        else if (right != null)                      merge (p, i, c, right);
+    } // rebalance
+
+    /********************************************************************************
+     * Move the last key (and reference) of the left sibling to the front of node c,
+     * updating the divider key between them.
+     * @param p     the parent node
+     * @param i     the position of c in p
+     * @param left  the left sibling of c
+     * @param c     the node that underflowed
+     */
+    private void borrowLeft (Node p, int i, Node left, Node c)
+    {
+        int l = left.nKeys;
+        if (c.isLeaf) {
+            wedge (c, 0, left.key[l-1], left.ref[l-1]);
+            left.ref[l-1] = null;
+            p.key[i-1]    = left.key[l-2];                                   // divider - largest left
+        } else {
+            System.arraycopy (c.key, 0, c.key, 1, c.nKeys);
+            System.arraycopy (c.ref, 0, c.ref, 1, c.nKeys + 1);
+            c.key[0]    = p.key[i-1];                                        // old divider comes down
+            c.ref[0]    = left.ref[l];
+            c.nKeys++;
+            p.key[i-1]  = left.key[l-1];                                     // last key of left goes up
+            left.ref[l] = null;
+        } // if
+        left.nKeys--;
+    } // borrowLeft
+
+    /********************************************************************************
+     * Move the first key (and reference) of the right sibling to the end of node c,
+     * updating the divider key between them.
+     * @param p      the parent node
+     * @param i      the position of c in p
+     * @param c      the node that underflowed
+     * @param right  the right sibling of c
+     */
+    private void borrowRight (Node p, int i, Node c, Node right)
+    {
+        int r = right.nKeys;
+        if (c.isLeaf) {
+            c.key[c.nKeys] = right.key[0];
+            c.ref[c.nKeys] = right.ref[0];
+            System.arraycopy (right.ref, 1, right.ref, 0, r - 1);
+            right.ref[r-1] = null;
+        } else {
+            c.key[c.nKeys]   = p.key[i];                                     // old divider comes down
+            c.ref[c.nKeys+1] = right.ref[0];
+            System.arraycopy (right.ref, 1, right.ref, 0, r);
+            right.ref[r] = null;
+        } // if
+        c.nKeys++;
+        p.key[i] = right.key[0];                                             // moved key (leaf) or first key of right goes up
+        System.arraycopy (right.key, 1, right.key, 0, r - 1);
+        right.nKeys--;
+    } // borrowRight
+
+    /********************************************************************************
+     * Merge node b into its left sibling a and remove b (and the divider key between
+     * them) from the parent.  For leaves, the leaf links skip over b.
+     * @param p  the parent node
+     * @param j  the position of the divider key between a and b in p
+     * @param a  the left node
+     * @param b  the right node
+     */
+    private void merge (Node p, int j, Node a, Node b)
+    {
+        int k = a.nKeys;
+        if (a.isLeaf) {
+            System.arraycopy (b.key, 0, a.key, k, b.nKeys);
+            System.arraycopy (b.ref, 0, a.ref, k, b.nKeys);
+            a.next = b.next;
+            if (b.next != null) b.next.prev = a;
+        } else {
+            a.key[k++] = p.key[j];                                           // divider comes down
+            System.arraycopy (b.key, 0, a.key, k, b.nKeys);
+            System.arraycopy (b.ref, 0, a.ref, k, b.nKeys + 1);
+        } // if
+        a.nKeys = k + b.nKeys;
+
+        System.arraycopy (p.key, j + 1, p.key, j, p.nKeys - j - 1);
+        System.arraycopy (p.ref, j + 2, p.ref, j + 1, p.nKeys - j - 1);
+        p.ref[p.nKeys--] = null;
+    } // merge
+
+    /********************************************************************************
+     * Remove all the keys from the B+Tree map.
+     */
+    public void clear ()
+    {
+        root      = new Node (true);
+        firstLeaf = root;
+        keyCount  = 0;
+        modCount++;
+    } // clear
+
+    /********************************************************************************
+     * Return the size (number of keys) in the B+Tree.
+     * @return  the size of the B+Tree
+     */
+    public int size ()
+    {
+        return keyCount;
+    } // size
+
+    /********************************************************************************
+     * Return the height of the B+Tree (1 for a single leaf).
+     * @return  the number of levels in the B+Tree
+     */
+    public int height ()
+    {
+        int h = 1;
+        for (Node n = root; ! n.isLeaf; n = (Node) n.ref[0]) h++;
+        return h;
+    } // height
+
+    /********************************************************************************
+     * Return the first (smallest) key in the B+Tree map.
+     */
+    public KeyType firstKey ()
+    {
+        return new SubMap (null, true, null, true, false).firstKey ();
+    } // firstKey
+
+    /********************************************************************************
+     * Return the last (largest) key in the B+Tree map.
+     */
+    public KeyType lastKey ()
+    {
+        return new SubMap (null, true, null, true, false).lastKey ();
+    } // lastKey
+
+    /********************************************************************************
+     * Return the entries with the first and last keys, with the smallest key at least
+     * (ceiling) or greater than (higher) the given key, or with the largest key at most
+     * (floor) or less than (lower) the given key, or null if there is none.
+     * @param key  the key to compare with
+     * @return  the matching entry or null
+     */
+    public Map.Entry <KeyType, V> firstEntry ()              { return above (null, true); }
+    public Map.Entry <KeyType, V> lastEntry ()               { return below (null, true); }
+    public Map.Entry <KeyType, V> ceilingEntry (KeyType key) { return above (toLong (key), true); }
+    public Map.Entry <KeyType, V> higherEntry (KeyType key)  { return above (toLong (key), false); }
+    public Map.Entry <KeyType, V> floorEntry (KeyType key)   { return below (toLong (key), true); }
+    public Map.Entry <KeyType, V> lowerEntry (KeyType key)   { return below (toLong (key), false); }
+
+    /********************************************************************************
+     * Return the keys of the entries matched by the corresponding entry methods.
+     * @param key  the key to compare with
+     * @return  the matching key or null
+     */
+    public KeyType ceilingKey (KeyType key) { return keyOrNull (ceilingEntry (key)); }
+    public KeyType higherKey (KeyType key)  { return keyOrNull (higherEntry (key)); }
+    public KeyType floorKey (KeyType key)   { return keyOrNull (floorEntry (key)); }
+    public KeyType lowerKey (KeyType key)   { return keyOrNull (lowerEntry (key)); }
+
+    /********************************************************************************
+     * Remove and return the entry with the first (smallest) or last (largest) key, or
+     * return null if the map is empty.
+     * @return  the removed entry or null
+     */
+    public Map.Entry <KeyType, V> pollFirstEntry () { return poll (firstEntry ()); }
+    public Map.Entry <KeyType, V> pollLastEntry ()  { return poll (lastEntry ()); }
+
+    /********************************************************************************
+     * Return a reverse order view of the map, scanned backward along the leaf chain.
+     * @return  the descending map
+     */
+    public NavigableMap <KeyType, V> descendingMap ()
+    {
+        return new SubMap (null, true, null, true, true);
+    } // descendingMap
+
+    /********************************************************************************
+     * Return a navigable set view of the keys in ascending or descending order.
+     * @return  the set view of the keys
+     */
+    public NavigableSet <KeyType> keySet ()            { return navigableKeySet (); }
+    public NavigableSet <KeyType> navigableKeySet ()   { return new KeySet (new SubMap (null, true, null, true, false)); }
+    public NavigableSet <KeyType> descendingKeySet ()  { return new KeySet (descendingMap ()); }
+
+    /********************************************************************************
+     * Return views of the portions of the map with keys below (or up to) toKey, from
+     * fromKey on, or between fromKey and toKey.  The views are scanned lazily along
+     * the leaf chain.
+     */
+    public SortedMap <KeyType, V> headMap (KeyType toKey)                 { return headMap (toKey, false); }
+    public SortedMap <KeyType, V> tailMap (KeyType fromKey)               { return tailMap (fromKey, true); }
+    public SortedMap <KeyType, V> subMap (KeyType fromKey, KeyType toKey) { return subMap (fromKey, true, toKey, false); }
+
+    public NavigableMap <KeyType, V> headMap (KeyType toKey, boolean inclusive)
+    {
+        return new SubMap (null, true, toLong (toKey), inclusive, false);
+    } // headMap
+
+    public NavigableMap <KeyType, V> tailMap (KeyType fromKey, boolean inclusive)
+    {
+        return new SubMap (toLong (fromKey), inclusive, null, true, false);
+    } // tailMap
+
+    public NavigableMap <KeyType, V> subMap (KeyType fromKey, boolean fromInclusive, KeyType toKey, boolean toInclusive)
+    {
+        long from = toLong (fromKey), to = toLong (toKey);
+        if (from > to) throw new IllegalArgumentException ("LongBpTreeMap.subMap: fromKey > toKey");
+        return new SubMap (from, fromInclusive, to, toInclusive, false);
+    } // subMap
+
+    /********************************************************************************
+     * Find the leaf holding the first key at least (or, if not inclusive, greater than)
+     * the given key, by descending from the root.  The position of the key within the
+     * leaf is returned in slot [0].
+     * @param key        the key to look for (null for the first key)
+     * @param inclusive  whether a key equal to the given key qualifies
+     * @param slot       an array of length one to hold the position in the leaf
+     * @return  the leaf holding the key, or null if there is no such key
+     */
+    private Node seek (Long key, boolean inclusive, int [] slot)
+    {
+        Node n = firstLeaf;
+        int  i = 0;
+        if (key != null) {
+            long k = key;
+            for (n = root; ! n.isLeaf; n = (Node) n.ref[n.find (k)]) count++;
+            i = n.find (k);
+            if (! inclusive && i < n.nKeys && n.key[i] == k) i++;
+        } // if
+        while (n != null && i >= n.nKeys) { n = n.next; i = 0; }            // go on to the next leaf
+        slot[0] = i;
+        return n;
+    } // seek
+
+    /********************************************************************************
+     * Find the leaf holding the last key at most (or, if not inclusive, less than) the
+     * given key: the position before the first key greater than (or at least) the key.
+     * The position of the key within the leaf is returned in slot [0].
+     * @param key        the key to look for (null for the last key)
+     * @param inclusive  whether a key equal to the given key qualifies
+     * @param slot       an array of length one to hold the position in the leaf
+     * @return  the leaf holding the key, or null if there is no such key
+     */
+    private Node seekBack (Long key, boolean inclusive, int [] slot)
+    {
+        Node n = (key == null) ? null : seek (key, ! inclusive, slot);
+        if (n == null) {                                                     // no key follows: use the last leaf
+            for (n = root; ! n.isLeaf; n = (Node) n.ref[n.nKeys]) count++;
+            slot[0] = n.nKeys;
+        } // if
+        int i = slot[0] - 1;
+        while (n != null && i < 0) { n = n.prev; if (n != null) i = n.nKeys - 1; }   // go back to the previous leaf
+        slot[0] = i;
+        return n;
+    } // seekBack
+
+    /********************************************************************************
+     * Return the entry at the given position of a leaf (null if there is no leaf).
+     * @param leaf  the leaf
+     * @param slot  the position within the leaf in slot [0]
+     * @return  the entry at the position
+     */
+    @SuppressWarnings("unchecked")
+    private Map.Entry <KeyType, V> entryAt (Node leaf, int [] slot)
+    {
+        return (leaf == null) ? null : new AbstractMap.SimpleImmutableEntry <> (toKey (leaf.key[slot[0]]), (V) leaf.ref[slot[0]]);
+    } // entryAt
+
+    /********************************************************************************
+     * Return the entry with the first key at least (or greater than) the given key.
+     * @param key        the key to compare with (null for the first entry)
+     * @param inclusive  whether a key equal to the given key qualifies
+     * @return  the entry, or null if there is none
+     */
+    private Map.Entry <KeyType, V> above (Long key, boolean inclusive)
+    {
+        int [] slot = new int [1];
+        return entryAt (seek (key, inclusive, slot), slot);
+    } // above
+
+    /********************************************************************************
+     * Return the entry with the last key at most (or less than) the given key.
+     * @param key        the key to compare with (null for the last entry)
+     * @param inclusive  whether a key equal to the given key qualifies
+     * @return  the entry, or null if there is none
+     */
+    private Map.Entry <KeyType, V> below (Long key, boolean inclusive)
+    {
+        int [] slot = new int [1];
+        return entryAt (seekBack (key, inclusive, slot), slot);
+    } // below
+
+    /********************************************************************************
+     * Return the key of an entry, or null if there is no entry.
+     * @param e  the entry (may be null)
+     * @return  its key or null
+     */
+    private static <K> K keyOrNull (Map.Entry <K, ?> e)
+    {
+        return (e == null) ? null : e.getKey ();
+    } // keyOrNull
+
+    /********************************************************************************
+     * Remove the entry (if any) from the map and return it.
+     * @param e  the entry to remove (may be null)
+     * @return  the entry or null
+     */
+    private Map.Entry <KeyType, V> poll (Map.Entry <KeyType, V> e)
+    {
+        if (e != null) remove (toLong (e.getKey ()));
+        return e;
+    } // poll
+
+    /********************************************************************************
+     * This inner class iterates over the map in key order by following the links
+     * between leaves, forward or backward, stopping at the far bound of a view.  The
+     * iterator for values returns them straight from the leaves, while those for keys
+     * and entries box each key as a KeyType.
+     */
+    private abstract class LeafIterator <T>
+            implements Iterator <T>
+    {
+        private Node          leaf;                   // the current leaf
+        private int           i;                      // the position of the next key in the leaf
+        private final boolean bounded;                // whether there is a bound to stop at
+        private final long    bound;                  // the bound to stop at
+        private final boolean inclusive;              // whether the bound is in range
+        private final boolean backward;               // whether to go backward (descending)
+        private boolean       canRemove = false;      // whether a key was returned and not removed
+        private long          last;                   // the key last returned
+        private int           expected = modCount;    // modCount when iteration started
+
+        /****************************************************************************
+         * Construct an iterator over the given view, starting at its first key.
+         * @param view  the view (submap) to iterate over
+         */
+        LeafIterator (SubMap view)
+        {
+            int [] slot = new int [1];
+            leaf      = view.start (slot);
+            i         = slot[0];
+            backward  = view.descending;
+            Long b    = backward ? view.lo : view.hi;
+            bounded   = b != null;
+            bound     = bounded ? b : 0;
+            inclusive = backward ? view.loInclusive : view.hiInclusive;
+        } // constructor
+
+        /****************************************************************************
+         * Return the item (key, value or entry) for position j of the leaf.
+         */
+        abstract T item (Node leaf, int j);
+
+        public boolean hasNext ()
+        {
+            if (leaf == null) return false;
+            if (bounded) {
+                long k = leaf.key[i];
+                if (backward ? k < bound || k == bound && ! inclusive
+                             : k > bound || k == bound && ! inclusive) { leaf = null; return false; }
+            } // if
+            return true;
+        } // hasNext
+
+        public T next ()
+        {
+            if (modCount != expected) throw new ConcurrentModificationException ();
+            if (! hasNext ()) throw new NoSuchElementException ();
+            T t       = item (leaf, i);
+            last      = leaf.key[i];
+            canRemove = true;
+            if (backward) {
+                if (--i < 0) { leaf = leaf.prev; if (leaf != null) i = leaf.nKeys - 1; }   // go back to the previous leaf
+            } else {
+                if (++i == leaf.nKeys) { leaf = leaf.next; i = 0; }                        // go on to the next leaf
+            } // if
+            return t;
+        } // next
+
+        /****************************************************************************
+         * Remove the key last returned from the map.  As removal may move keys between
+         * leaves, the position of the following key is found again.
+         */
+        public void remove ()
+        {
+            if (! canRemove) throw new IllegalStateException ();
+            if (modCount != expected) throw new ConcurrentModificationException ();
+            LongBpTreeMap.this.remove (last);
+            int [] slot = new int [1];
+            leaf      = backward ? seekBack (last, false, slot) : seek (last, false, slot);
+            i         = slot[0];
+            canRemove = false;
+            expected  = modCount;
+        } // remove
+
+    } // LeafIterator inner class
+
+    private class EntryIterator
+            extends LeafIterator <Map.Entry <KeyType, V>>
+    {
+        EntryIterator (SubMap view) { super (view); }
+
+        @SuppressWarnings("unchecked")
+        Map.Entry <KeyType, V> item (Node leaf, int j) { return new AbstractMap.SimpleImmutableEntry <> (toKey (leaf.key[j]), (V) leaf.ref[j]); }
+    } // EntryIterator inner class
+
+    private class KeyIterator
+            extends LeafIterator <KeyType>
+    {
+        KeyIterator (SubMap view) { super (view); }
+
+        KeyType item (Node leaf, int j) { return toKey (leaf.key[j]); }
+    } // KeyIterator inner class
+
+    private class ValueIterator
+            extends LeafIterator <V>
+    {
+        ValueIterator (SubMap view) { super (view); }
+
+        @SuppressWarnings("unchecked")
+        V item (Node leaf, int j) { return (V) leaf.ref[j]; }
+    } // ValueIterator inner class
+
+    /********************************************************************************
+     * This inner class provides a view of the portion of the map within a range of
+     * keys, in ascending or descending order.  Nothing is copied: lookups go to the
+     * backing map and iteration starts at the leaf holding the first bound and follows
+     * the leaf links.  Bounds that are null are open.  The bounds lo and hi are always
+     * in ascending order.
+     */
+    private class SubMap
+            extends AbstractMap <KeyType, V>
+            implements NavigableMap <KeyType, V>
+    {
+        private final Long    lo, hi;                 // the lower and upper bounds
+        private final boolean loInclusive;            // whether the lower bound is in range
+        private final boolean hiInclusive;            // whether the upper bound is in range
+        private final boolean descending;             // whether the view is in descending order
+
+        /****************************************************************************
+         * Construct a view of the keys between the bounds.
+         * @param _lo           the lower bound (null if none)
+         * @param _loInclusive  whether the lower bound is in range
+         * @param _hi           the upper bound (null if none)
+         * @param _hiInclusive  whether the upper bound is in range
+         * @param _descending   whether the view is in descending order
+         */
+        SubMap (Long _lo, boolean _loInclusive, Long _hi, boolean _hiInclusive, boolean _descending)
+        {
+            lo          = _lo;
+            loInclusive = _loInclusive;
+            hi          = _hi;
+            hiInclusive = _hiInclusive;
+            descending  = _descending;
+        } // constructor
+
+        /****************************************************************************
+         * Determine whether the key is below the lower bound or above the upper bound.
+         * @param k  the key to check
+         * @return  whether the key is out of range on that side
+         */
+        boolean tooLow (long k)  { return lo != null && (k < lo || k == lo && ! loInclusive); }
+        boolean tooHigh (long k) { return hi != null && (k > hi || k == hi && ! hiInclusive); }
+        boolean inRange (long k) { return ! tooLow (k) && ! tooHigh (k); }
+
+        /****************************************************************************
+         * Make a narrower view with the given bounds (in ascending order), checking
+         * that they lie within this view: an inclusive bound must be in range, while
+         * an exclusive one may equal a bound of this view.
+         * @param from      the new lower bound (null to keep this one)
+         * @param fromIncl  whether the new lower bound is in range
+         * @param to        the new upper bound (null to keep this one)
+         * @param toIncl    whether the new upper bound is in range
+         * @return  the narrower view
+         */
+        private SubMap range (Long from, boolean fromIncl, Long to, boolean toIncl)
+        {
+            if (from == null) { from = lo; fromIncl = loInclusive; }
+            else check (from, fromIncl);
+            if (to == null)   { to = hi; toIncl = hiInclusive; }
+            else check (to, toIncl);
+            if (from != null && to != null && from > to) {
+                throw new IllegalArgumentException ("LongBpTreeMap.SubMap: fromKey > toKey");
+            } // if
+            return new SubMap (from, fromIncl, to, toIncl, descending);
+        } // range
+
+        /****************************************************************************
+         * Check that a bound for a narrower view lies within this view.
+         * @param k          the bound
+         * @param inclusive  whether the bound is in range
+         */
+        private void check (long k, boolean inclusive)
+        {
+            boolean ok = inclusive ? inRange (k) : (lo == null || k >= lo) && (hi == null || k <= hi);
+            if (! ok) throw new IllegalArgumentException ("LongBpTreeMap.SubMap: key out of range " + k);
+        } // check
+
+        /****************************************************************************
+         * Return the entry in the view with the first key at least (or greater than)
+         * the given key, or the last key at most (or less than) the given key, in
+         * ascending order, i.e., ignoring the direction of the view.
+         * @param key        the key to compare with (null for the lowest/highest)
+         * @param inclusive  whether a key equal to the given key qualifies
+         * @return  the entry, or null if there is none in range
+         */
+        private Map.Entry <KeyType, V> absAbove (KeyType key, boolean inclusive)
+        {
+            int [] slot = new int [1];
+            Node   n    = (key == null || tooLow (toLong (key))) ? seek (lo, loInclusive, slot) : seek (toLong (key), inclusive, slot);
+            return (n == null || tooHigh (n.key[slot[0]])) ? null : entryAt (n, slot);
+        } // absAbove
+
+        private Map.Entry <KeyType, V> absBelow (KeyType key, boolean inclusive)
+        {
+            int [] slot = new int [1];
+            Node   n    = (key == null || tooHigh (toLong (key))) ? seekBack (hi, hiInclusive, slot) : seekBack (toLong (key), inclusive, slot);
+            return (n == null || tooLow (n.key[slot[0]])) ? null : entryAt (n, slot);
+        } // absBelow
+
+        public Comparator <? super KeyType> comparator ()
+        {
+            return descending ? Collections.reverseOrder () : null;
+        } // comparator
+
+        public boolean containsKey (Object key)
+        {
+            return isIntegral (key) && inRange (toLong (key)) && LongBpTreeMap.this.containsKey (toLong (key));
+        } // containsKey
+
+        public V get (Object key)
+        {
+            return isIntegral (key) && inRange (toLong (key)) ? LongBpTreeMap.this.get (toLong (key)) : null;
+        } // get
+
+        public V put (KeyType key, V value)
+        {
+            if (! inRange (toLong (key))) throw new IllegalArgumentException ("LongBpTreeMap.SubMap.put: key out of range " + key);
+            return LongBpTreeMap.this.put (toLong (key), value);
+        } // put
+
+        public V remove (Object key)
+        {
+            return isIntegral (key) && inRange (toLong (key)) ? LongBpTreeMap.this.remove (toLong (key)) : null;
+        } // remove
+
+        /****************************************************************************
+         * Return the leaf holding the first key of the view (in its order), with the
+         * position of the key in slot [0], or null if there is none.
+         * @param slot  an array of length one to hold the position in the leaf
+         */
+        Node start (int [] slot)
+        {
+            return descending ? seekBack (hi, hiInclusive, slot) : seek (lo, loInclusive, slot);
+        } // start
+
+        public Set <Map.Entry <KeyType, V>> entrySet ()
+        {
+            return new AbstractSet <Map.Entry <KeyType, V>> () {
+                public Iterator <Map.Entry <KeyType, V>> iterator () { return new EntryIterator (SubMap.this); }
+                public int size ()                                     { return SubMap.this.size (); }
+                public boolean isEmpty ()                              { return ! iterator ().hasNext (); }
+            };
+        } // entrySet
+
+        public Collection <V> values ()
+        {
+            return new AbstractCollection <V> () {
+                public Iterator <V> iterator () { return new ValueIterator (SubMap.this); }
+                public int size ()              { return SubMap.this.size (); }
+                public boolean isEmpty ()       { return ! iterator ().hasNext (); }
+            };
+        } // values
+
+        public int size ()
+        {
+            if (lo == null && hi == null) return keyCount;
+            int n = 0;
+            for (Iterator <V> it = new ValueIterator (this); it.hasNext (); it.next ()) n++;
+            return n;
+        } // size
+
+        /****************************************************************************
+         * Apply the action to each key and value in the view, in order, reading them
+         * straight from the leaves (no entry is allocated).
+         * @param action  the action to apply to each key-value pair
+         */
+        public void forEach (BiConsumer <? super KeyType, ? super V> action)
+        {
+            int expected = modCount;
+            for (LeafIterator <V> it = new ValueIterator (this); it.hasNext (); ) {
+                long k = it.leaf.key[it.i];
+                action.accept (toKey (k), it.next ());
+                if (modCount != expected) throw new ConcurrentModificationException ();
+            } // for
+        } // forEach
+
+        public Map.Entry <KeyType, V> firstEntry ()              { return descending ? absBelow (null, true) : absAbove (null, true); }
+        public Map.Entry <KeyType, V> lastEntry ()               { return descending ? absAbove (null, true) : absBelow (null, true); }
+        public Map.Entry <KeyType, V> ceilingEntry (KeyType key) { return descending ? absBelow (key, true) : absAbove (key, true); }
+        public Map.Entry <KeyType, V> higherEntry (KeyType key)  { return descending ? absBelow (key, false) : absAbove (key, false); }
+        public Map.Entry <KeyType, V> floorEntry (KeyType key)   { return descending ? absAbove (key, true) : absBelow (key, true); }
+        public Map.Entry <KeyType, V> lowerEntry (KeyType key)   { return descending ? absAbove (key, false) : absBelow (key, false); }
+        public Map.Entry <KeyType, V> pollFirstEntry ()          { return poll (firstEntry ()); }
+        public Map.Entry <KeyType, V> pollLastEntry ()           { return poll (lastEntry ()); }
+
+        public KeyType ceilingKey (KeyType key) { return keyOrNull (ceilingEntry (key)); }
+        public KeyType higherKey (KeyType key)  { return keyOrNull (higherEntry (key)); }
+        public KeyType floorKey (KeyType key)   { return keyOrNull (floorEntry (key)); }
+        public KeyType lowerKey (KeyType key)   { return keyOrNull (lowerEntry (key)); }
+
+        public KeyType firstKey ()
+        {
+            Map.Entry <KeyType, V> e = firstEntry ();
+            if (e == null) throw new NoSuchElementException ("LongBpTreeMap.SubMap.firstKey: submap is empty");
+            return e.getKey ();
+        } // firstKey
+
+        public KeyType lastKey ()
+        {
+            Map.Entry <KeyType, V> e = lastEntry ();
+            if (e == null) throw new NoSuchElementException ("LongBpTreeMap.SubMap.lastKey: submap is empty");
+            return e.getKey ();
+        } // lastKey
+
+        public NavigableMap <KeyType, V> descendingMap ()
+        {
+            return new SubMap (lo, loInclusive, hi, hiInclusive, ! descending);
+        } // descendingMap
+
+        public NavigableSet <KeyType> keySet ()           { return navigableKeySet (); }
+        public NavigableSet <KeyType> navigableKeySet ()  { return new KeySet (this); }
+        public NavigableSet <KeyType> descendingKeySet () { return new KeySet (descendingMap ()); }
+
+        public NavigableMap <KeyType, V> subMap (KeyType fromKey, boolean fromInclusive, KeyType toKey, boolean toInclusive)
+        {
+            long from = toLong (fromKey), to = toLong (toKey);
+            return descending ? range (to, toInclusive, from, fromInclusive) : range (from, fromInclusive, to, toInclusive);
+        } // subMap
+
+        public NavigableMap <KeyType, V> headMap (KeyType toKey, boolean inclusive)
+        {
+            long to = toLong (toKey);
+            return descending ? range (to, inclusive, null, true) : range (null, true, to, inclusive);
+        } // headMap
+
+        public NavigableMap <KeyType, V> tailMap (KeyType fromKey, boolean inclusive)
+        {
+            long from = toLong (fromKey);
+            return descending ? range (null, true, from, inclusive) : range (from, inclusive, null, true);
+        } // tailMap
+
+        public SortedMap <KeyType, V> subMap (KeyType fromKey, KeyType toKey) { return subMap (fromKey, true, toKey, false); }
+        public SortedMap <KeyType, V> headMap (KeyType toKey)                 { return headMap (toKey, false); }
+        public SortedMap <KeyType, V> tailMap (KeyType fromKey)               { return tailMap (fromKey, true); }
+
+    } // SubMap inner class
+
+    /********************************************************************************
+     * This inner class provides a navigable set view of the keys of the map or one of
+     * its submaps (the backing map), in the order of the backing map.
+     */
+    private class KeySet
+            extends AbstractSet <KeyType>
+            implements NavigableSet <KeyType>
+    {
+        private final NavigableMap <KeyType, V> m;   // the backing map
+
+        /****************************************************************************
+         * Construct a key set view of the given map.
+         * @param _m  the backing map
+         */
+        KeySet (NavigableMap <KeyType, V> _m)
+        {
+            m = _m;
+        } // constructor
+
+        public Iterator <KeyType> iterator ()
+        {
+            if (m instanceof LongBpTreeMap.SubMap) return new KeyIterator ((SubMap) m);
+            Iterator <Map.Entry <KeyType, V>> it = m.entrySet ().iterator ();
+            return new Iterator <KeyType> () {
+                public boolean hasNext () { return it.hasNext (); }
+                public KeyType next ()    { return it.next ().getKey (); }
+                public void remove ()     { it.remove (); }
+            };
+        } // iterator
+
+        public int size ()                                 { return m.size (); }
+        public boolean isEmpty ()                          { return m.isEmpty (); }
+        public boolean contains (Object o)                 { return m.containsKey (o); }
+        public boolean remove (Object o)                   { boolean had = m.containsKey (o); m.remove (o); return had; }
+        public Comparator <? super KeyType> comparator ()  { return m.comparator (); }
+        public KeyType first ()                            { return m.firstKey (); }
+        public KeyType last ()                             { return m.lastKey (); }
+        public KeyType lower (KeyType k)                   { return m.lowerKey (k); }
+        public KeyType floor (KeyType k)                   { return m.floorKey (k); }
+        public KeyType ceiling (KeyType k)                 { return m.ceilingKey (k); }
+        public KeyType higher (KeyType k)                  { return m.higherKey (k); }
+        public KeyType pollFirst ()                        { return keyOrNull (m.pollFirstEntry ()); }
+        public KeyType pollLast ()                         { return keyOrNull (m.pollLastEntry ()); }
+        public NavigableSet <KeyType> descendingSet ()     { return new KeySet (m.descendingMap ()); }
+        public Iterator <KeyType> descendingIterator ()    { return descendingSet ().iterator (); }
+
+        public NavigableSet <KeyType> subSet (KeyType from, boolean fromIncl, KeyType to, boolean toIncl)
+        {
+            return new KeySet (m.subMap (from, fromIncl, to, toIncl));
+        } // subSet
+
+        public NavigableSet <KeyType> headSet (KeyType to, boolean incl)    { return new KeySet (m.headMap (to, incl)); }
+        public NavigableSet <KeyType> tailSet (KeyType from, boolean incl)  { return new KeySet (m.tailMap (from, incl)); }
+        public SortedSet <KeyType> subSet (KeyType from, KeyType to)        { return subSet (from, true, to, false); }
+        public SortedSet <KeyType> headSet (KeyType to)                     { return headSet (to, false); }
+        public SortedSet <KeyType> tailSet (KeyType from)                   { return tailSet (from, true); }
+
+    } // KeySet inner class
+
+    /********************************************************************************
+     * Write the map as its order and key class followed by its keys and values in key
+     * order (the nodes are not written, so deep leaf chains do not recurse).
+     * @param oos  the stream to write the object to
+     */
+    private void writeObject (ObjectOutputStream oos)
+            throws IOException
+    {
+        oos.defaultWriteObject ();
+        oos.writeInt (keyCount);
+        for (Node n = firstLeaf; n != null; n = n.next) {
+            for (int i = 0; i < n.nKeys; i++) { oos.writeLong (n.key[i]); oos.writeObject (n.ref[i]); }
+        } // for
+    } // writeObject
+
+    /********************************************************************************
+     * Read the map back, bulk loading the keys and values into a new tree.
+     * @param ois  the stream to read the object from
+     */
+    private void readObject (ObjectInputStream ois)
+            throws IOException, ClassNotFoundException
+    {
+        ois.defaultReadObject ();
+        root      = new Node (true);
+        firstLeaf = root;
+        Loader loader = new Loader (BpTreeMap.FILL_FACTOR);
+        for (int n = ois.readInt (); n > 0; n--) loader.add (ois.readLong (), ois.readObject ());
+        loader.finish ();
+    } // readObject
+
+    /********************************************************************************
+     * The main method used for testing: compare the index memory and lookup time with
+     * a BpTreeMap on KeyType keys, then bulk load and delete under churn.
+     * @param args  the command-line arguments (args [0] gives number of keys to insert)
+     */
+    public static void main (String [] args)
+    {
+        int totalKeys = (args.length == 1) ? Integer.valueOf (args [0]) : 1000000;
+        Random rng = new Random (1);
+        int [] ids = new int [totalKeys];
+        for (int i = 0; i < totalKeys; i++) ids [i] = rng.nextInt ();
+        Comparable [] value = { 0 };
+
+        Runtime rt = Runtime.getRuntime ();
+        System.gc ();
+        long base = rt.totalMemory () - rt.freeMemory ();
+        BpTreeMap <KeyType, Comparable []> general = new BpTreeMap <> (KeyType.class, Comparable [].class, BpTreeMap.PAGE_ORDER);
+        for (int id : ids) general.put (new KeyType (id), value);
+        System.gc ();
+        long generalBytes = rt.totalMemory () - rt.freeMemory () - base;
+        long t0 = System.nanoTime ();
+        for (int id : ids) if (general.get (new KeyType (id)) == null) out.println ("missing " + id);
+        long generalNs = System.nanoTime () - t0;
+        general = null;
+
+        System.gc ();
+        base = rt.totalMemory () - rt.freeMemory ();
+        LongBpTreeMap <Comparable []> special = new LongBpTreeMap <> (Integer.class);
+        for (int id : ids) special.put (id, value);
+        System.gc ();
+        long specialBytes = rt.totalMemory () - rt.freeMemory () - base;
+        t0 = System.nanoTime ();
+        for (int id : ids) if (special.get (id) == null) out.println ("missing " + id);
+        long specialNs = System.nanoTime () - t0;
+
+        out.println ("keys = " + special.size ());
+        out.println ("BpTreeMap:     " + generalBytes / special.size () + " bytes/key, " + generalNs / totalKeys + " ns/get");
+        out.println ("LongBpTreeMap: " + specialBytes / special.size () + " bytes/key, " + specialNs / totalKeys + " ns/get");
+        out.println ("first = " + special.firstKey () + ", last = " + special.lastKey ()
+                   + ", keys in [0, 1000000) = " + special.subMap (new KeyType (0), new KeyType (1000000)).size ());
+
+        Map <KeyType, Integer> sorted = new TreeMap <> ();
+        for (int k = 0; k < 1000; k++) sorted.put (new KeyType (3 * k), k);
+        LongBpTreeMap <Integer> bulk = new LongBpTreeMap <> (Integer.class, 5);
+        bulk.bulkLoad (sorted.entrySet ().iterator (), BpTreeMap.FILL_FACTOR);
+        int height = bulk.height ();
+        for (int round = 0; round < 20; round++) {                            // churn: delete and reinsert
+            for (int k = round % 2; k < 1000; k += 2) bulk.remove (3 * k);
+            for (int k = round % 2; k < 1000; k += 2) bulk.put (3 * k, k);
+        } // for
+        int wrong = 0;
+        for (int k = 0; k < 1000; k++) if (bulk.get (3 * k) == null || bulk.get (3 * k) != k) wrong++;
+        out.println ("churned size = " + bulk.size () + ", wrong = " + wrong + ", height " + height + " -> " + bulk.height ()
+                   + ", last 3 = " + bulk.descendingMap ().headMap (new KeyType (2990)).keySet ()
+                   + ", get (5.5) = " + bulk.get (new KeyType (5.5)));
+        for (int k = 0; k < 1000; k++) bulk.remove (3 * k);
+        out.println ("emptied size = " + bulk.size () + ", height = " + bulk.height ());
+    } // main
+
+} // LongBpTreeMap class
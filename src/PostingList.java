@@ -0,0 +1,210 @@
+
+/************************************************************************************
+ * @file PostingList.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * The PostingList class holds the row references (tuple numbers) of the tuples
+ * sharing a key, as the values of a multi-value (non-unique) BpTreeMap index.  Rows
+ * are kept as primitive ints in the order added.  The first rows are kept in a head
+ * array that starts small and doubles up to BLOCK_SIZE; a large list overflows into
+ * a chain of fixed size blocks, so adding never copies more than one block.
+ */
+public class PostingList
+       implements Iterable <Integer>, Serializable
+{
+    /** The number of rows in a full head array or overflow block.
+     */
+    public static final int BLOCK_SIZE = 256;
+
+    /********************************************************************************
+     * This inner class defines the overflow blocks, each chained to the next.
+     */
+    private static class Block
+            implements Serializable
+    {
+        final int [] row = new int [BLOCK_SIZE];      // the row references
+        Block        next;                            // the next block in the chain
+    } // Block inner class
+
+    /** The head array holding the first (up to BLOCK_SIZE) rows.
+     */
+    private int [] head = new int [2];
+
+    /** The first and last overflow blocks (null if none).
+     */
+    private Block first, last;
+
+    /** The number of rows in the list.
+     */
+    private int size = 0;
+
+    /********************************************************************************
+     * Add the row reference to the end of the list.
+     * @param row  the row (tuple number) to add
+     */
+    public void add (int row)
+    {
+        if (size < BLOCK_SIZE) {
+            if (size == head.length) head = Arrays.copyOf (head, Math.min (2 * size, BLOCK_SIZE));
+            head [size++] = row;
+            return;
+        } // if
+        int i = (size - BLOCK_SIZE) % BLOCK_SIZE;
+        if (i == 0) {                                                    // chain a new overflow block
+            Block b = new Block ();
+            if (last == null) first = b; else last.next = b;
+            last = b;
+        } // if
+        last.row [i] = row;
+        size++;
+    } // add
+
+    /********************************************************************************
+     * Return the row reference at position i in the list.
+     * @param i  the position of the row
+     */
+    public int get (int i)
+    {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException ("PostingList.get: " + i);
+        if (i < BLOCK_SIZE) return head [i];
+        Block b = first;
+        for (int j = (i - BLOCK_SIZE) / BLOCK_SIZE; j > 0; j--) b = b.next;
+        return b.row [(i - BLOCK_SIZE) % BLOCK_SIZE];
+    } // get
+
+    /********************************************************************************
+     * Remove (the first occurrence of) the row reference from the list, shifting the
+     * later rows down (dropping the last overflow block if it becomes empty).
+     * @param row  the row to remove
+     * @return  whether the row was in the list
+     */
+    public boolean remove (int row)
+    {
+        int i = 0;                                                       // find the row's position
+        for (PrimitiveIterator.OfInt it = iterator (); it.hasNext () && it.nextInt () != row; ) i++;
+        if (i == size) return false;
+
+        int [] arr   = head;                                             // the segment (head or block) holding it
+        int    start = 0;                                                // the position of the segment's first row
+        Block  b     = null, prev = null;
+        if (i >= BLOCK_SIZE) {
+            for (b = first, start = BLOCK_SIZE; i - start >= BLOCK_SIZE; start += BLOCK_SIZE) { prev = b; b = b.next; }
+            arr = b.row;
+        } // if
+
+        for (int j = i - start; ; j = 0) {                               // shift each segment down in place
+            int n = Math.min (size - start, BLOCK_SIZE);
+            System.arraycopy (arr, j + 1, arr, j, n - j - 1);
+            Block next = (b == null) ? first : b.next;
+            if (next == null) break;
+            arr [n - 1] = next.row [0];                                  // pull in the next segment's first row
+            prev   = b;
+            b      = next;
+            arr    = b.row;
+            start += BLOCK_SIZE;
+        } // for
+
+        if (--size == start && b != null) {                              // drop the emptied last block
+            last = prev;
+            if (prev == null) first = null; else prev.next = null;
+        } // if
+        return true;
+    } // remove
+
+    /********************************************************************************
+     * Return the number of rows in the list.
+     */
+    public int size ()
+    {
+        return size;
+    } // size
+
+    /********************************************************************************
+     * Return whether the list has no rows.
+     */
+    public boolean isEmpty ()
+    {
+        return size == 0;
+    } // isEmpty
+
+    /********************************************************************************
+     * Apply the action to each row in the list, in order, without boxing.
+     * @param action  the action to apply to each row
+     */
+    public void forEachRow (IntConsumer action)
+    {
+        for (int i = 0; i < Math.min (size, BLOCK_SIZE); i++) action.accept (head [i]);
+        int left = size - BLOCK_SIZE;
+        for (Block b = first; b != null; b = b.next, left -= BLOCK_SIZE) {
+            for (int i = 0; i < Math.min (left, BLOCK_SIZE); i++) action.accept (b.row [i]);
+        } // for
+    } // forEachRow
+
+    /********************************************************************************
+     * Return the rows in the list as an array.
+     */
+    public int [] toArray ()
+    {
+        int [] rows = new int [size];
+        int [] n    = { 0 };
+        forEachRow (r -> rows [n [0]++] = r);
+        return rows;
+    } // toArray
+
+    /********************************************************************************
+     * Return an iterator over the rows in the list.
+     */
+    public PrimitiveIterator.OfInt iterator ()
+    {
+        return new PrimitiveIterator.OfInt () {
+            private Block b = null;                   // the overflow block holding the next row
+            private int   i = 0;                      // the position of the next row
+
+            public boolean hasNext () { return i < size; }
+
+            public int nextInt ()
+            {
+                if (i >= size) throw new NoSuchElementException ();
+                if (i < BLOCK_SIZE) return head [i++];
+                int j = (i++ - BLOCK_SIZE) % BLOCK_SIZE;
+                if (j == 0) b = (b == null) ? first : b.next;
+                return b.row [j];
+            } // nextInt
+        };
+    } // iterator
+
+    /********************************************************************************
+     * Return the rows as a string.
+     */
+    @Override
+    public String toString ()
+    {
+        return Arrays.toString (toArray ());
+    } // toString
+
+    /********************************************************************************
+     * The main method used for testing.
+     * @param args  the command-line arguments
+     */
+    public static void main (String [] args)
+    {
+        PostingList list = new PostingList ();
+        for (int i = 0; i < 1000; i++) list.add (i);
+        list.remove (500);
+        list.remove (0);
+        long sum = 0;
+        for (int r : list) sum += r;
+        out.println ("size = " + list.size () + ", sum = " + sum + " (expected " + (999 * 1000 / 2 - 500) + ")"
+                   + ", get (300) = " + list.get (300));
+    } // main
+
+} // PostingList class
@@ -6,7 +6,12 @@
  */
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
 import java.util.stream.*;
 
@@ -30,6 +35,32 @@ public class Table
      */
     private static final String EXT = ".dbf";
 
+    /** Magic number ("DBF1") and version identifying the snapshot format of database files
+     */
+    private static final int   MAGIC   = 0x44424631;
+    private static final short VERSION = 3;
+
+    /** The number of delta segments after which they are merged into the base file
+     */
+    private static final int COMPACT_DELTAS = 8;
+
+    /** The background thread merging delta segments into base files (shared by all tables)
+     */
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor (r -> {
+        Thread t = new Thread (r, "Table-compactor");
+        t.setDaemon (true);
+        return t;
+    });
+
+    /** Filename extension for write-ahead log files
+     */
+    private static final String LOG_EXT = ".wal";
+
+    /** Maximum number of bytes for a String value in a packed record: a two byte
+     *  length followed by at most STRING_SIZE - 2 bytes of UTF-8 (not padded).
+     */
+    public static final int STRING_SIZE = 64;
+
     /** Counter for naming temporary tables.
      */
     private static int count = 0;
@@ -61,15 +92,50 @@ public class Table
      */
     public final Map <KeyType, Comparable []> index;
 
+    /** Secondary (non-unique) indices, e.g., on foreign keys, keyed by their attribute
+     *  names (space separated): each maps a value to the posting list of the numbers of
+     *  the tuples having it.
+     */
+    private final Map <String, BpTreeMap <KeyType, PostingList>> secondary = new HashMap <> ();
+
+    /** Write-ahead log for inserts (null if the table is not logged).
+     */
+    private transient WriteAheadLog wal;
+
+    /** The number of tuples stored in the base file and delta segments.
+     */
+    private transient int savedRows;
+
+    /** The LSN of the last logged insert covered by the base file and delta segments.
+     */
+    private transient long savedLsn;
+
+    /** The sequence number of the last delta segment and of the last one merged into
+     *  the base file.
+     */
+    private transient int lastSeq, baseSeq;
+
+    /** Whether a compaction of the segments is in progress.
+     */
+    private transient boolean compacting;
+
+    /** Lock guarding the segment files and sequence numbers (held only briefly, so
+     *  that compaction does not block saves).  An empty array is used as it can be
+     *  serialized.
+     */
+    private final Object [] segmentLock = new Object [0];
+
     /** The supported map types.
      */
-    public enum MapType { NO_MAP, TREE_MAP, LINHASH_MAP, BPTREE_MAP }
+    public enum MapType { NO_MAP, TREE_MAP, LINHASH_MAP, BPTREE_MAP, CONCURRENT_BPTREE_MAP, CONCURRENT_LINHASH_MAP }
 
     /** The map type to be used for indices.  Change as needed.
      */
 //    public static final MapType mType = MapType.TREE_MAP;
     private static final MapType mType = MapType.BPTREE_MAP;
 //    private static final MapType mType = MapType.LINHASH_MAP;
+//    private static final MapType mType = MapType.CONCURRENT_BPTREE_MAP;
+//    private static final MapType mType = MapType.CONCURRENT_LINHASH_MAP;
 
     public List<Comparable[]> getTuple() {
         return tuples;
@@ -79,14 +145,20 @@ public class Table
     }
 
     /************************************************************************************
-     * Make a map (index) given the MapType.
+     * Make a map (index) given the MapType.  A B+Tree on a primary key that is a single
+     * integral attribute (e.g., an id) keeps its keys as primitives (LongBpTreeMap).
      */
-    private static Map <KeyType, Comparable []> makeMap ()
+    private Map <KeyType, Comparable []> makeMap ()
     {
         switch (mType) {
         case TREE_MAP:    return new TreeMap <> ();
         case LINHASH_MAP: return new LinHashMap <> (KeyType.class, Comparable [].class);
-        case BPTREE_MAP:  return new BpTreeMap <> (KeyType.class, Comparable [].class);
+        case BPTREE_MAP:
+            Class [] keyDomain = extractDom (match (key), domain);
+            if (LongBpTreeMap.supports (keyDomain)) return new LongBpTreeMap <> (keyDomain [0]);
+            return new BpTreeMap <> (KeyType.class, Comparable [].class, BpTreeMap.PAGE_ORDER);
+        case CONCURRENT_BPTREE_MAP: return new ConcurrentBpTreeMap <> (KeyType.class, Comparable [].class);
+        case CONCURRENT_LINHASH_MAP: return new ConcurrentLinHashMap <> ();
         default:          return null;
         } // switch
     } // makeMap
@@ -116,6 +188,7 @@ public class Table
 
     /************************************************************************************
      * Construct a table from the meta-data specifications and data in _tuples list.
+     * The index is built from the tuples.
      *
      * @param _name       the name of the relation
      * @param _attribute  the string containing attributes names
@@ -132,6 +205,57 @@ public class Table
         key       = _key;
         tuples    = _tuples;
         index     = makeMap ();
+        indexAll ();
+    } // constructor
+
+    /************************************************************************************
+     * Construct a table from the meta-data specifications, optionally storing its
+     * tuples in the paged data file of a FileList rather than on the heap (using
+     * compressed pages).  Any tuples already in the data file are added to the index.
+     * A B+Tree index of an on-disk table is itself kept on disk (in the file name.idx),
+     * so it is reopened rather than rebuilt, unless it is out of step with the tuples.
+     *
+     * @param _name       the name of the relation
+     * @param _attribute  the string containing attributes names
+     * @param _domain     the string containing attribute domains (data types)
+     * @param _key        the primary key
+     * @param onDisk      whether to store the tuples in a file (otherwise in memory)
+     */
+    public Table (String _name, String [] _attribute, Class [] _domain, String [] _key,
+                  boolean onDisk)
+    {
+        this (_name, _attribute, _domain, _key,
+              onDisk ? new FileList (_name, _domain, true, true) : new ArrayList <> (),
+              onDisk && mType == MapType.BPTREE_MAP);
+    } // constructor
+
+    /************************************************************************************
+     * Construct a table from the meta-data specifications and data in _tuples list,
+     * with its index either in memory or in a disk-resident B+Tree.
+     *
+     * @param _name       the name of the relation
+     * @param _attribute  the string containing attributes names
+     * @param _domain     the string containing attribute domains (data types)
+     * @param _key        the primary key
+     * @param _tuples     the list of tuples containing the data
+     * @param diskIndex   whether to keep the index in a DiskBpTreeMap
+     */
+    private Table (String _name, String [] _attribute, Class [] _domain, String [] _key,
+                   List <Comparable []> _tuples, boolean diskIndex)
+    {
+        name      = _name;
+        attribute = _attribute;
+        domain    = _domain;
+        key       = _key;
+        tuples    = _tuples;
+        index     = diskIndex ? new DiskBpTreeMap (_name + ".idx", extractDom (match (_key), _domain), _tuples)
+                              : makeMap ();
+        if (! diskIndex) {
+            indexAll ();
+        } else if (((DiskBpTreeMap) index).putCount () != tuples.size ()) {   // rebuild a stale (or new) index
+            index.clear ();
+            indexAll ();
+        } // if
     } // constructor
 
     /************************************************************************************
@@ -197,6 +321,63 @@ public class Table
                                    .collect (Collectors.toList ()));
     } // select
 
+    /************************************************************************************
+     * Select the tuples whose value for the given attribute lies in [low, high].  For a
+     * table stored in a FileList, pages whose zone map rules out the range are skipped.
+     *
+     * #usage movie.range_select ("year", 1970, 1979)
+     *
+     * @param attr  the attribute to restrict
+     * @param low   the lower bound (inclusive)
+     * @param high  the upper bound (inclusive)
+     * @return  a table with tuples whose attribute value is in the range
+     */
+    public Table range_select (String attr, Comparable low, Comparable high)
+    {
+//        out.println ("RA> " + name + ".range_select (" + attr + ", " + low + ", " + high + ")");
+
+        int                  c    = col (attr);
+        List <Comparable []> rows = new ArrayList <> ();
+        Consumer <Comparable []> keep = t -> {
+            if (t [c].compareTo (low) >= 0 && t [c].compareTo (high) <= 0) rows.add (t);
+        };
+        if (tuples instanceof FileList) ((FileList) tuples).scan (c, low, high, keep);
+        else                            tuples.forEach (keep);
+
+        return new Table (name + count++, attribute, domain, key, rows);
+    } // range_select
+
+    /************************************************************************************
+     * Select the tuples whose value for the given attribute equals the given value.  If
+     * the attribute has a secondary index, its posting list gives the matching tuples.
+     * For a table stored in a FileList, compressed pages are matched on their encoded
+     * values and pages that cannot hold the value are skipped.
+     *
+     * #usage movie.eq_select ("studioName", "Fox")
+     *
+     * @param attr   the attribute to restrict
+     * @param value  the value to look for
+     * @return  a table with tuples whose attribute value equals the value
+     */
+    public Table eq_select (String attr, Comparable value)
+    {
+//        out.println ("RA> " + name + ".eq_select (" + attr + ", " + value + ")");
+
+        int                  c    = col (attr);
+        List <Comparable []> rows = new ArrayList <> ();
+        BpTreeMap <KeyType, PostingList> sIndex = secondary.get (attr);
+        if (sIndex != null) {
+            PostingList list = sIndex.get (new KeyType (value));
+            if (list != null) list.forEachRow (r -> rows.add (tuples.get (r)));
+        } else if (tuples instanceof FileList) {
+            ((FileList) tuples).scanEquals (c, value, rows::add);
+        } else {
+            for (Comparable [] t : tuples) if (t [c].compareTo (value) == 0) rows.add (t);
+        } // if
+
+        return new Table (name + count++, attribute, domain, key, rows);
+    } // eq_select
+
     /************************************************************************************
      * Select the tuples satisfying the given key predicate (key = value).  Use an index
      * (Map) to retrieve the tuple with the given key value.
@@ -215,6 +396,85 @@ public class Table
         rows.add(index.get(keyVal));
         return new Table (name + count++, attribute, domain, key, rows);
     } // select
+
+    /************************************************************************************
+     * Select the tuples whose key lies in [low, high].
+     *
+     * #usage movie.range_select (new KeyType ("Star_Wars", 1977), new KeyType ("Star_Wars", 1980))
+     *
+     * @param low   the lower bound on the key (inclusive)
+     * @param high  the upper bound on the key (inclusive)
+     * @return  a table with the tuples whose key is in the range
+     */
+    public Table range_select (KeyType low, KeyType high)
+    {
+        return range_select (low, true, high, true);
+    } // range_select
+
+    /************************************************************************************
+     * Select the tuples whose key lies between low and high, where each bound is open
+     * or closed.  For a navigable index (e.g., a B+Tree), this seeks to low and scans
+     * forward until high, rather than examining every key.
+     *
+     * #usage movie.range_select (new KeyType ("Star_Wars", 1977), false, new KeyType ("Star_Wars", 1980), true)
+     *
+     * @param low        the lower bound on the key
+     * @param lowIncl    whether the lower bound is included
+     * @param high       the upper bound on the key
+     * @param highIncl   whether the upper bound is included
+     * @return  a table with the tuples whose key is in the range
+     */
+    @SuppressWarnings("unchecked")
+    public Table range_select (KeyType low, boolean lowIncl, KeyType high, boolean highIncl)
+    {
+//        out.println ("RA> " + name + ".range_select (" + low + ", " + high + ")");
+
+        List <Comparable []> rows = new ArrayList <> ();
+        if (index instanceof NavigableMap) {
+            if (low.compareTo (high) <= 0) {
+                rows.addAll (((NavigableMap <KeyType, Comparable []>) index).subMap (low, lowIncl, high, highIncl).values ());
+            } // if
+        } else if (index instanceof SortedMap) {
+            if (low.compareTo (high) <= 0) {
+                for (Map.Entry <KeyType, Comparable []> e : ((SortedMap <KeyType, Comparable []>) index).tailMap (low).entrySet ()) {
+                    int lo = e.getKey ().compareTo (low), hi = e.getKey ().compareTo (high);
+                    if (hi > 0 || hi == 0 && ! highIncl) break;
+                    if (lo > 0 || lowIncl) rows.add (e.getValue ());
+                } // for
+            } // if
+        } else {
+            for (Map.Entry <KeyType, Comparable []> e : index.entrySet ()) {
+                int lo = e.getKey ().compareTo (low), hi = e.getKey ().compareTo (high);
+                if ((lo > 0 || lo == 0 && lowIncl) && (hi < 0 || hi == 0 && highIncl)) rows.add (e.getValue ());
+            } // for
+        } // if
+
+        return new Table (name + count++, attribute, domain, key, rows);
+    } // range_select
+
+    /************************************************************************************
+     * Select the n tuples with the largest keys (e.g., the latest n), in descending
+     * order of key.  For a navigable index, this scans backward from the last key.
+     *
+     * #usage movie.last_select (10)
+     *
+     * @param n  the number of tuples to select
+     * @return  a table with the (at most) n tuples having the largest keys
+     */
+    @SuppressWarnings("unchecked")
+    public Table last_select (int n)
+    {
+//        out.println ("RA> " + name + ".last_select (" + n + ")");
+
+        List <Comparable []> rows = new ArrayList <> ();
+        Map <KeyType, Comparable []> sorted = (index instanceof NavigableMap) ? index : new TreeMap <> (index);
+        for (Comparable [] t : ((NavigableMap <KeyType, Comparable []>) sorted).descendingMap ().values ()) {
+            if (rows.size () == n) break;
+            rows.add (t);
+        } // for
+
+        return new Table (name + count++, attribute, domain, key, rows);
+    } // last_select
   /************************************************************************************
      * Select the tuples satisfying the given predicate (Boolean function).
      *
@@ -228,13 +488,9 @@ public class Table
 //        out.println ("RA> " + name + ".select (" + predicate + ")");
 //        out.println(predicate + " pred");
         List <Comparable []> rows = new ArrayList <> ();
-        for (KeyType Key : index.keySet())
-        {
-            if (predicate.test((Comparable []) Key.key))
-            {
-               rows.add(index.get(Key));
-            }
-        }
+        index.forEach ((k, tup) -> {                                   // walks the index, no lookups
+            if (predicate.test (k.key)) rows.add (tup);
+        });
 
         return new Table (name + count++, attribute, domain, key, rows);
     } // select
@@ -345,17 +601,17 @@ public class Table
         //TODO join command COMPLETED
         int[] cols1 = match(t_attrs);
         int[] cols2 = table2.match(u_attrs);
-        for(int i = 0; i < tuples.size(); i++) {    //for each rows in table1, compare it with
-            for (int j = 0; j < table2.tuples.size(); j++) {    //each rows in table2
+        for (Comparable[] t : tuples) {    //for each rows in table1, compare it with
+            for (Comparable[] u : table2.tuples) {    //each rows in table2
                 boolean attrsValuesEqual = true;
                 for (int k = 0; k < cols1.length; k++) {    // compare with each attribute
-                    if (!tuples.get(i)[cols1[k]].equals(table2.tuples.get(j)[cols2[k]])) {
+                    if (!t[cols1[k]].equals(u[cols2[k]])) {
                         attrsValuesEqual = false;
                         break;
                     }
                 }
                 if(attrsValuesEqual) {
-                    rows.add(ArrayUtil.concat(tuples.get(i), table2.tuples.get(j)));
+                    rows.add(ArrayUtil.concat(t, u));
                 }
             }
         }
@@ -373,6 +629,9 @@ public class Table
      * Join this table and table2 by performing an "equi-join".  Same as above, but implemented
      * using an Index Join algorithm.
      *
+     * If table2 has a secondary index on attribute2 (e.g., a foreign key), it is used
+     * to find all the matching tuples of table2 instead.
+     *
      * @param attribute1  the attributes of this table to be compared (Foreign Key)
      * @param attribute2  the attributes of table2 to be compared (Primary Key)
      * @param table2      the rhs table in the join operation
@@ -393,15 +652,24 @@ public class Table
         int[] cols2 = table2.match(u_attrs);
 
         Map <KeyType, Comparable []> t2Index = table2.index;
+        BpTreeMap <KeyType, PostingList> t2Secondary = table2.secondary.get (String.join (" ", u_attrs));
 
-        for(int i = 0; i < this.tuples.size(); i++){
-            Comparable[] currentTuple = tuples.get(i);
-            Comparable[] foreignKeys = extract(currentTuple, t_attrs);
-            if (t2Index.get(new KeyType(foreignKeys)) != null) {
-//                out.println("contains key: " + foreignKeys.toString());
-                rows.add(ArrayUtil.concat(tuples.get(i), t2Index.get(new KeyType(foreignKeys))));
+        if (t2Secondary != null) {                                       // non-unique: all matches
+            for (int i = 0; i < this.tuples.size(); i++) {
+                Comparable [] currentTuple = tuples.get (i);
+                PostingList   matches      = t2Secondary.get (new KeyType (extract (currentTuple, t_attrs)));
+                if (matches != null) matches.forEachRow (r -> rows.add (ArrayUtil.concat (currentTuple, table2.tuples.get (r))));
+            } // for
+        } else {
+            for(int i = 0; i < this.tuples.size(); i++){
+                Comparable[] currentTuple = tuples.get(i);
+                Comparable[] foreignKeys = extract(currentTuple, t_attrs);
+                if (t2Index.get(new KeyType(foreignKeys)) != null) {
+//                    out.println("contains key: " + foreignKeys.toString());
+                    rows.add(ArrayUtil.concat(tuples.get(i), t2Index.get(new KeyType(foreignKeys))));
+                }
             }
-        }
+        } // if
         for (int i = 0; i < cols2.length; i++) {
             if (table2.attribute[cols2[i]].equals(attribute[cols1[i]])) {
                 table2.attribute[cols2[i]] = table2.attribute[cols2[i]] + "2";
@@ -507,17 +775,17 @@ public class Table
         }
 
         // add equivalent rows to final table
-        for(int i = 0; i < tuples.size(); i++) {    //for each rows in table1, compare it with
-            for (int j = 0; j < table2.tuples.size(); j++) {    //each rows in table2
+        for (Comparable[] t : tuples) {    //for each rows in table1, compare it with
+            for (Comparable[] u : table2.tuples) {    //each rows in table2
                 boolean attrsValuesEqual = true;
                 for (int k = 0; k < cols1.size(); k++) {    // compare with each attribute
-                    if (!tuples.get(i)[cols1.get(k)].equals(table2.tuples.get(j)[cols2.get(k)])) {
+                    if (!t[cols1.get(k)].equals(u[cols2.get(k)])) {
                         attrsValuesEqual = false;
                         break;
                     }
                 }
                 if(attrsValuesEqual) {
-                    rows.add(ArrayUtil.concat(tuples.get(i), extract(table2.tuples.get(j),table2AttrNames)));
+                    rows.add(ArrayUtil.concat(t, extract(u,table2AttrNames)));
                 }
             }
         }
@@ -554,18 +822,75 @@ public class Table
     {
 //        out.println ("DML> insert into " + name + " values ( " + Arrays.toString (tup) + " )");
 
-        if (typeCheck (tup)) {
-            tuples.add (tup);
-            Comparable [] keyVal = new Comparable [key.length];
-            int []        cols   = match (key);
-            for (int j = 0; j < keyVal.length; j++) keyVal [j] = tup [cols [j]];
-            if (mType != MapType.NO_MAP) index.put (new KeyType (keyVal), tup);
-            return true;
-        } else {
-            return false;
-        } // if
+        long lsn = 0;
+        synchronized (this) {
+            if (! typeCheck (tup)) return false;
+            if (wal != null) {
+                byte [] record = convertTupleToByteArray (tup, recordSize (domain), domain);
+                if (record == null) return false;
+                lsn = wal.append (WriteAheadLog.INSERT, record);
+            } // if
+            apply (tup);
+        } // synchronized
+        if (wal != null) wal.commit (lsn);                             // wait outside the lock
+        return true;
     } // insert
 
+    /************************************************************************************
+     * Create a secondary (non-unique) index on the given attributes, e.g., a foreign key,
+     * mapping each value to the posting list of the tuples having it.  The index is kept
+     * up to date by insert and used by eq_select and i_join.
+     *
+     * #usage teaching.create_index ("profId")
+     *
+     * @param attributes  the attributes to index
+     */
+    public synchronized void create_index (String attributes)
+    {
+        String [] attrs = attributes.split (" ");
+        BpTreeMap <KeyType, PostingList> sIndex = new BpTreeMap <> (KeyType.class, PostingList.class, BpTreeMap.PAGE_ORDER);
+        for (int i = 0; i < tuples.size (); i++) sIndex.add (new KeyType (extract (tuples.get (i), attrs)), i);
+        secondary.put (String.join (" ", attrs), sIndex);
+    } // create_index
+
+    /************************************************************************************
+     * Start logging inserts into this table in a write-ahead log.  A snapshot of the
+     * table is saved first, so that the log only has to cover the inserts after it, and
+     * the log numbers its inserts on from the LSN of the snapshot the table was loaded
+     * from (which recovery skips up to).  Inserts from concurrent threads are committed in groups (one fsync per group).
+     */
+    public synchronized void openLog ()
+    {
+        if (wal != null) return;
+        new File (DIR).mkdirs ();
+        try {
+            wal = new WriteAheadLog (DIR + name + LOG_EXT, savedLsn);   // continue after the snapshot
+        } catch (IOException ex) {
+            out.println ("openLog: IO Exception");
+            ex.printStackTrace ();
+            return;
+        } // try
+        save ();
+    } // openLog
+
+    /************************************************************************************
+     * Stop logging inserts into this table, after committing any pending ones.
+     */
+    public synchronized void closeLog ()
+    {
+        if (wal == null) return;
+        wal.close ();
+        wal = null;
+    } // closeLog
+
+    /************************************************************************************
+     * Print the group commit statistics of this table's write-ahead log.
+     */
+    public void printLogStats ()
+    {
+        if (wal != null) wal.printStats ();
+    } // printLogStats
+
     /************************************************************************************
      * Get the name of the table.
      *
@@ -617,7 +942,9 @@ public class Table
     } // printIndex
 
     /************************************************************************************
-     * Load the table with the given name into memory. 
+     * Load the table with the given name into memory: the base file followed by the
+     * delta segments not yet merged into it.  Each file is memory mapped and each column
+     * is read with a single bulk get, after which the index is rebuilt from the tuples.
      *
      * @param name  the name of the table to load
      */
@@ -625,38 +952,741 @@ public class Table
     {
         Table tab = null;
         try {
-            ObjectInputStream ois = new ObjectInputStream (new FileInputStream (DIR + name + EXT));
-            tab = (Table) ois.readObject ();
-            ois.close ();
-        } catch (IOException ex) {
+            Segment base = readSegment (Paths.get (DIR + name + EXT));
+            if (base == null) {
+                out.println ("load: " + name + " is not a database file of version " + VERSION);
+                return null;
+            } // if
+            List <Comparable []> rows = new ArrayList <> (Arrays.asList (base.rows));
+            long lsn = base.lsn;                                       // LSN of last logged insert
+            int  seq = base.seq;
+            for (int s : deltaSeqs (name)) {
+                if (s <= base.seq) {                                   // left over from a compaction
+                    Files.deleteIfExists (deltaPath (name, s));
+                    continue;
+                } // if
+                Segment delta = readSegment (deltaPath (name, s));
+                if (delta == null) {
+                    out.println ("load: delta segment " + s + " of " + name + " is not a database file");
+                    return null;
+                } // if
+                rows.addAll (Arrays.asList (delta.rows));
+                lsn = delta.lsn;
+                seq = s;
+            } // for
+
+            tab = new Table (name, base.attr, base.dom, base.key, rows);
+            tab.savedRows = rows.size ();
+            tab.savedLsn  = lsn;
+            tab.lastSeq   = seq;
+            tab.baseSeq   = base.seq;
+            if (new File (DIR + name + LOG_EXT).exists ()) tab.recover (lsn);
+        } catch (IOException | BufferUnderflowException ex) {
             out.println ("load: IO Exception");
             ex.printStackTrace ();
-        } catch (ClassNotFoundException ex) {
-            out.println ("load: Class Not Found Exception");
-            ex.printStackTrace ();
         } // try
         return tab;
     } // load
 
     /************************************************************************************
-     * Save this table in a file.
+     * Save this table using a columnar snapshot format: a header holding the schema
+     * followed by one column at a time, with primitive values stored unboxed and strings
+     * dictionary encoded.  The first save writes the whole table to the base file; later
+     * saves only write the tuples inserted since the previous save as a new delta
+     * segment.  Once there are enough deltas, they are merged into the base file by a
+     * background compaction.  The index is not saved, but rebuilt by load.  Each file is
+     * written under a temporary name and then renamed, so a crash never leaves a partial
+     * file.  For a logged table, each file records the LSN of the last insert it covers
+     * and the log is then truncated.
+     */
+    public synchronized void save ()
+    {
+        new File (DIR).mkdirs ();
+        long lsn  = (wal == null) ? savedLsn : wal.lastLsn ();
+        int  n    = tuples.size ();
+        Path base = Paths.get (DIR + name + EXT);
+        boolean merge;
+        synchronized (segmentLock) {
+            try {
+                if (savedRows == 0 || ! Files.exists (base)) {             // whole table
+                    List <Integer> stale = deltaSeqs (name);
+                    if (! stale.isEmpty ()) lastSeq = Math.max (lastSeq, stale.get (stale.size () - 1));
+                    Path tmp = Paths.get (DIR + name + EXT + ".tmp");
+                    writeSegment (tmp, lsn, lastSeq, tuples);
+                    replace (tmp, base);
+                    for (int s : stale) Files.deleteIfExists (deltaPath (name, s));
+                    baseSeq  = lastSeq;
+                    savedLsn = lsn;
+                } else if (n > savedRows) {                                // new tuples only
+                    Path tmp = Paths.get (DIR + name + EXT + ".tmp");
+                    writeSegment (tmp, lsn, lastSeq + 1, tuples.subList (savedRows, n));
+                    replace (tmp, deltaPath (name, ++lastSeq));
+                    savedLsn = lsn;
+                } // if
+            } catch (IOException ex) {
+                out.println ("save: IO Exception");
+                ex.printStackTrace ();
+                return;
+            } // try
+            savedRows = n;
+            merge     = ! compacting && lastSeq - baseSeq >= COMPACT_DELTAS;
+            if (merge) compacting = true;
+        } // synchronized
+        if (wal != null) wal.truncate ();                            // snapshot covers the log
+        if (merge) compactor.execute (this::merge);
+    } // save
+
+    /************************************************************************************
+     * Merge the delta segments of this table into its base file now, rather than
+     * waiting for a background compaction.
+     */
+    public void compact ()
+    {
+        synchronized (segmentLock) {
+            while (compacting) {
+                try {
+                    segmentLock.wait ();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread ().interrupt ();
+                    return;
+                } // try
+            } // while
+            if (lastSeq == baseSeq) return;
+            compacting = true;
+        } // synchronized
+        merge ();
+    } // compact
+
+    /************************************************************************************
+     * Return the number of delta segments not yet merged into the base file.
+     *
+     * @return  the number of delta segments
+     */
+    public int deltaCount ()
+    {
+        synchronized (segmentLock) {
+            return lastSeq - baseSeq;
+        } // synchronized
+    } // deltaCount
+
+    /************************************************************************************
+     * Merge the base file and the current delta segments into a new base file, which
+     * replaces the old one, after which the merged deltas are deleted.  The files are
+     * read and written without holding any lock, as saves only add new delta segments.
+     * The caller must have set compacting.
      */
-    public void save ()
+    private void merge ()
     {
+        int from, to;
+        synchronized (segmentLock) {
+            from = baseSeq;
+            to   = lastSeq;
+        } // synchronized
         try {
-            ObjectOutputStream oos = new ObjectOutputStream (new FileOutputStream (DIR + name + EXT));
-            oos.writeObject (this);
-            oos.close ();
-        } catch (IOException ex) {
-            out.println ("save: IO Exception");
+            Segment base = readSegment (Paths.get (DIR + name + EXT));
+            if (base == null) throw new IOException ("base file of " + name + " is not readable");
+            List <Comparable []> rows = new ArrayList <> (Arrays.asList (base.rows));
+            long lsn = base.lsn;
+            for (int s = from + 1; s <= to; s++) {
+                Segment delta = readSegment (deltaPath (name, s));
+                if (delta == null) throw new IOException ("delta segment " + s + " of " + name + " is not readable");
+                rows.addAll (Arrays.asList (delta.rows));
+                lsn = delta.lsn;
+            } // for
+            Path tmp = Paths.get (DIR + name + EXT + ".merge");
+            writeSegment (tmp, lsn, to, rows);
+            synchronized (segmentLock) {
+                replace (tmp, Paths.get (DIR + name + EXT));
+                baseSeq = to;
+            } // synchronized
+            for (int s = from + 1; s <= to; s++) Files.deleteIfExists (deltaPath (name, s));
+        } catch (IOException | BufferUnderflowException ex) {
+            out.println ("compact: unable to merge the segments of " + name);
             ex.printStackTrace ();
+        } finally {
+            synchronized (segmentLock) {
+                compacting = false;
+                segmentLock.notifyAll ();
+            } // synchronized
         } // try
-    } // save
+    } // merge
+
+    //----------------------------------------------------------------------------------
+    // Snapshot Format
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * This inner class holds the contents of a base file or delta segment.
+     */
+    private static class Segment
+    {
+        long            lsn;                               // LSN of last logged insert covered
+        int             seq;                               // sequence number of last delta covered
+        String []       attr;                              // attribute names
+        Class []        dom;                               // attribute domains
+        String []       key;                               // primary key
+        Comparable [][] rows;                              // the tuples
+
+    } // Segment inner class
+
+    /************************************************************************************
+     * Read a base file or delta segment.
+     *
+     * @param path  the path of the file
+     * @return  the contents of the file, or null if it is not a database file
+     */
+    private static Segment readSegment (Path path)
+            throws IOException
+    {
+        try (FileChannel ch = FileChannel.open (path, StandardOpenOption.READ)) {
+            ByteBuffer buf = ch.map (FileChannel.MapMode.READ_ONLY, 0, ch.size ());
+            short version = (buf.getInt () == MAGIC) ? buf.getShort () : -1;
+            if (version < 1 || version > VERSION) return null;
+            Segment seg = new Segment ();
+            seg.lsn = (version >= 2) ? buf.getLong () : 0;
+            seg.seq = (version >= 3) ? buf.getInt () : 0;
+            getString (buf);                                           // table name
+            seg.attr = new String [buf.getInt ()];
+            String [] dom = new String [seg.attr.length];
+            for (int j = 0; j < seg.attr.length; j++) {
+                seg.attr [j] = getString (buf);
+                dom [j]      = getString (buf);
+            } // for
+            seg.key = new String [buf.getInt ()];
+            for (int j = 0; j < seg.key.length; j++) seg.key [j] = getString (buf);
+
+            seg.dom  = findClass (dom);
+            seg.rows = new Comparable [buf.getInt ()][seg.attr.length];
+            for (int j = 0; j < seg.attr.length; j++) readColumn (buf, seg.dom [j], seg.rows, j);
+            return seg;
+        } // try
+    } // readSegment
+
+    /************************************************************************************
+     * Write the given tuples of this table to a file in the snapshot format and force
+     * it to disk, so that it is complete before it is renamed into place.
+     *
+     * @param path  the path of the file
+     * @param lsn   the LSN of the last logged insert covered
+     * @param seq   the sequence number of the last delta segment covered
+     * @param rows  the tuples to write
+     */
+    private void writeSegment (Path path, long lsn, int seq, List <Comparable []> rows)
+            throws IOException
+    {
+        try (FileChannel ch = FileChannel.open (path, StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+            DataOutputStream      hdr   = new DataOutputStream (bytes);
+            hdr.writeInt (MAGIC);
+            hdr.writeShort (VERSION);
+            hdr.writeLong (lsn);
+            hdr.writeInt (seq);
+            putString (hdr, name);
+            hdr.writeInt (attribute.length);
+            for (int j = 0; j < attribute.length; j++) {
+                putString (hdr, attribute [j]);
+                putString (hdr, domain [j].getSimpleName ());
+            } // for
+            hdr.writeInt (key.length);
+            for (String k : key) putString (hdr, k);
+            hdr.writeInt (rows.size ());
+            writeFully (ch, ByteBuffer.wrap (bytes.toByteArray ()));
+
+            for (int j = 0; j < domain.length; j++) writeFully (ch, encodeColumn (rows, j));
+            ch.force (true);
+        } // try
+    } // writeSegment
+
+    /************************************************************************************
+     * Atomically replace the target file by the source file.
+     *
+     * @param src     the file to rename
+     * @param target  the file to replace
+     */
+    private static void replace (Path src, Path target)
+            throws IOException
+    {
+        Files.move (src, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } // replace
+
+    /************************************************************************************
+     * Return the path of the given delta segment of a table.
+     *
+     * @param name  the name of the table
+     * @param seq   the sequence number of the delta segment
+     * @return  the path of the delta segment
+     */
+    private static Path deltaPath (String name, int seq)
+    {
+        return Paths.get (DIR + name + EXT + "." + seq);
+    } // deltaPath
+
+    /************************************************************************************
+     * Return the sequence numbers of the delta segments of a table found on disk.
+     *
+     * @param name  the name of the table
+     * @return  the sorted sequence numbers
+     */
+    private static List <Integer> deltaSeqs (String name)
+    {
+        List <Integer> seqs   = new ArrayList <> ();
+        String         prefix = name + EXT + ".";
+        String []      files  = new File (DIR).list ();
+        if (files == null) return seqs;
+        for (String f : files) {
+            if (f.startsWith (prefix) && f.substring (prefix.length ()).matches ("[0-9]+")) {
+                seqs.add (Integer.valueOf (f.substring (prefix.length ())));
+            } // if
+        } // for
+        Collections.sort (seqs);
+        return seqs;
+    } // deltaSeqs
+
+    /************************************************************************************
+     * Encode column j of the given tuples into a buffer ready to be written.  Strings
+     * are stored as a dictionary of the distinct values followed by the code of each
+     * value, using 1, 2 or 4 bytes per code depending on the size of the dictionary.
+     *
+     * @param rows  the tuples to encode
+     * @param j     the column to encode
+     * @return  the flipped buffer holding the encoded column
+     */
+    private ByteBuffer encodeColumn (List <Comparable []> rows, int j)
+    {
+        int n = rows.size ();
+        if (domain [j] != String.class) {
+            ByteBuffer buf = ByteBuffer.allocate (n * fieldSize (domain [j]));
+            for (Comparable [] tup : rows) {
+                switch (domain [j].getSimpleName ()) {
+                case "Integer":   buf.putInt ((Integer) tup [j]);      break;
+                case "Long":      buf.putLong ((Long) tup [j]);        break;
+                case "Short":     buf.putShort ((Short) tup [j]);      break;
+                case "Byte":      buf.put ((Byte) tup [j]);            break;
+                case "Double":    buf.putDouble ((Double) tup [j]);    break;
+                case "Float":     buf.putFloat ((Float) tup [j]);      break;
+                case "Character": buf.putChar ((Character) tup [j]);   break;
+                default:
+                    throw new IllegalArgumentException ("encodeColumn: unsupported domain " + domain [j]);
+                } // switch
+            } // for
+            buf.flip ();
+            return buf;
+        } // if
+
+        Map <String, Integer> dict  = new HashMap <> ();
+        List <byte []>        words = new ArrayList <> ();
+        int []                codes = new int [n];
+        int                   size  = 0, i = 0;
+        for (Comparable [] tup : rows) {
+            Integer code = dict.get (tup [j]);
+            if (code == null) {
+                code = words.size ();
+                dict.put ((String) tup [j], code);
+                byte [] b = ((String) tup [j]).getBytes (StandardCharsets.UTF_8);
+                words.add (b);
+                size += Integer.BYTES + b.length;
+            } // if
+            codes [i++] = code;
+        } // for
+
+        int        width = codeWidth (words.size ());
+        ByteBuffer buf   = ByteBuffer.allocate (Integer.BYTES + size + n * width);
+        buf.putInt (words.size ());
+        for (byte [] b : words) { buf.putInt (b.length); buf.put (b); }
+        for (int code : codes) {
+            if (width == 1)      buf.put ((byte) code);
+            else if (width == 2) buf.putShort ((short) code);
+            else                 buf.putInt (code);
+        } // for
+        buf.flip ();
+        return buf;
+    } // encodeColumn
+
+    /************************************************************************************
+     * Read column j into the rows from the buffer, using bulk gets for primitive columns
+     * and decoding dictionary encoded strings (each distinct string is created once).
+     *
+     * @param buf   the buffer positioned at the start of the column
+     * @param dom   the domain of the column
+     * @param rows  the rows to fill in
+     * @param j     the column to read
+     */
+    private static void readColumn (ByteBuffer buf, Class dom, Comparable [][] rows, int j)
+    {
+        int n = rows.length;
+        switch (dom.getSimpleName ()) {
+        case "Integer":
+            int [] ints = new int [n];
+            buf.asIntBuffer ().get (ints);
+            for (int i = 0; i < n; i++) rows [i][j] = ints [i];
+            break;
+        case "Long":
+            long [] longs = new long [n];
+            buf.asLongBuffer ().get (longs);
+            for (int i = 0; i < n; i++) rows [i][j] = longs [i];
+            break;
+        case "Short":
+            short [] shorts = new short [n];
+            buf.asShortBuffer ().get (shorts);
+            for (int i = 0; i < n; i++) rows [i][j] = shorts [i];
+            break;
+        case "Byte":
+            byte [] bytes = new byte [n];
+            buf.duplicate ().get (bytes);
+            for (int i = 0; i < n; i++) rows [i][j] = bytes [i];
+            break;
+        case "Double":
+            double [] doubles = new double [n];
+            buf.asDoubleBuffer ().get (doubles);
+            for (int i = 0; i < n; i++) rows [i][j] = doubles [i];
+            break;
+        case "Float":
+            float [] floats = new float [n];
+            buf.asFloatBuffer ().get (floats);
+            for (int i = 0; i < n; i++) rows [i][j] = floats [i];
+            break;
+        case "Character":
+            char [] chars = new char [n];
+            buf.asCharBuffer ().get (chars);
+            for (int i = 0; i < n; i++) rows [i][j] = chars [i];
+            break;
+        case "String":
+            String [] words = new String [buf.getInt ()];
+            for (int k = 0; k < words.length; k++) words [k] = getString (buf);
+            int width = codeWidth (words.length);
+            for (int i = 0; i < n; i++) {
+                int code = (width == 1) ? buf.get () & 0xff
+                         : (width == 2) ? buf.getShort () & 0xffff : buf.getInt ();
+                rows [i][j] = words [code];
+            } // for
+            return;
+        default:
+            throw new IllegalArgumentException ("readColumn: unsupported domain " + dom);
+        } // switch
+        buf.position (buf.position () + n * fieldSize (dom));
+    } // readColumn
+
+    /************************************************************************************
+     * Return the number of bytes needed for the codes of a dictionary of the given size.
+     *
+     * @param size  the number of distinct strings in the dictionary
+     * @return  the code width in bytes (1, 2 or 4)
+     */
+    private static int codeWidth (int size)
+    {
+        return (size <= 1 << 8) ? 1 : (size <= 1 << 16) ? 2 : 4;
+    } // codeWidth
+
+    /************************************************************************************
+     * Write a length prefixed UTF-8 string to the stream.
+     *
+     * @param dos  the stream to write to
+     * @param str  the string to write
+     */
+    private static void putString (DataOutputStream dos, String str)
+            throws IOException
+    {
+        byte [] b = str.getBytes (StandardCharsets.UTF_8);
+        dos.writeInt (b.length);
+        dos.write (b);
+    } // putString
+
+    /************************************************************************************
+     * Read a length prefixed UTF-8 string from the buffer.
+     *
+     * @param buf  the buffer to read from
+     * @return  the string read
+     */
+    private static String getString (ByteBuffer buf)
+    {
+        byte [] b = new byte [buf.getInt ()];
+        buf.get (b);
+        return new String (b, StandardCharsets.UTF_8);
+    } // getString
+
+    /************************************************************************************
+     * Write the whole buffer to the channel.
+     *
+     * @param ch   the channel to write to
+     * @param buf  the buffer to write
+     */
+    private static void writeFully (FileChannel ch, ByteBuffer buf)
+            throws IOException
+    {
+        while (buf.hasRemaining ()) ch.write (buf);
+    } // writeFully
+
+    //----------------------------------------------------------------------------------
+    // Record Packing
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * Compute the maximum number of bytes required to store a packed tuple (record) for
+     * the given domains.  Every domain but String has a fixed width, while String
+     * values take their actual length, up to STRING_SIZE bytes.
+     *
+     * @param dom  the attribute domains of the tuple
+     * @return  the maximum size of a packed record in bytes
+     */
+    public static int recordSize (Class [] dom)
+    {
+        int size = 0;
+        for (Class c : dom) size += fieldSize (c);
+        return size;
+    } // recordSize
+
+    /************************************************************************************
+     * Pack the given tuple into a byte array (record) according to the attribute domains.
+     *
+     * @param tup         the tuple to pack
+     * @param recordSize  the maximum size of the record in bytes
+     * @param dom         the attribute domains of the tuple
+     * @return  the packed record, or null if the tuple does not fit the domains
+     */
+    public static byte [] convertTupleToByteArray (Comparable [] tup, int recordSize, Class [] dom)
+    {
+        ByteBuffer buf = ByteBuffer.allocate (recordSize);
+        return (packTuple (tup, dom, buf)) ? Arrays.copyOf (buf.array (), buf.position ()) : null;
+    } // convertTupleToByteArray
+
+    /************************************************************************************
+     * Unpack the given byte array (record) into a tuple according to the attribute
+     * domains.
+     *
+     * @param record      the record to unpack
+     * @param recordSize  the maximum size of the record in bytes (unused, as records
+     *                    are self-delimiting)
+     * @param dom         the attribute domains of the tuple
+     * @return  the unpacked tuple
+     */
+    public static Comparable [] convertByteArrayToTuple (byte [] record, int recordSize, Class [] dom)
+    {
+        return unpackTuple (ByteBuffer.wrap (record), 0, dom);
+    } // convertByteArrayToTuple
+
+    /************************************************************************************
+     * Pack the tuple into the buffer at its current position, advancing the position
+     * past the record.  Strings are stored as a two byte length followed by their UTF-8
+     * bytes, without padding.
+     *
+     * @param tup  the tuple to pack
+     * @param dom  the attribute domains of the tuple
+     * @param buf  the buffer to pack into
+     * @return  whether the tuple could be packed (right arity, types, string lengths and
+     *          room in the buffer)
+     */
+    static boolean packTuple (Comparable [] tup, Class [] dom, ByteBuffer buf)
+    {
+        if (tup.length != dom.length) {
+            out.println ("packTuple: wrong arity " + tup.length);
+            return false;
+        } // if
+        for (int j = 0; j < dom.length; j++) {
+            try {
+                switch (dom [j].getSimpleName ()) {
+                case "Integer":   buf.putInt ((Integer) tup [j]);      break;
+                case "Long":      buf.putLong ((Long) tup [j]);        break;
+                case "Short":     buf.putShort ((Short) tup [j]);      break;
+                case "Byte":      buf.put ((Byte) tup [j]);            break;
+                case "Double":    buf.putDouble ((Double) tup [j]);    break;
+                case "Float":     buf.putFloat ((Float) tup [j]);      break;
+                case "Character": buf.putChar ((Character) tup [j]);   break;
+                case "String":
+                    byte [] b = ((String) tup [j]).getBytes (StandardCharsets.UTF_8);
+                    if (b.length > STRING_SIZE - 2) {
+                        out.println ("packTuple: string too long for column " + j);
+                        return false;
+                    } // if
+                    buf.putShort ((short) b.length);
+                    buf.put (b);
+                    break;
+                default:
+                    out.println ("packTuple: unsupported domain " + dom [j]);
+                    return false;
+                } // switch
+            } catch (ClassCastException | NullPointerException ex) {
+                out.println ("packTuple: value " + tup [j] + " not in domain " + dom [j]);
+                return false;
+            } catch (BufferOverflowException ex) {
+                return false;
+            } // try
+        } // for
+        return true;
+    } // packTuple
+
+    /************************************************************************************
+     * Unpack a tuple from the record starting at position pos of the buffer.  Only
+     * absolute reads are used, so the buffer (e.g., a shared memory mapped file) is not
+     * modified and the record is decoded in place without being copied out first.
+     *
+     * @param buf  the buffer to unpack from
+     * @param pos  the position of the record within the buffer
+     * @param dom  the attribute domains of the tuple
+     * @return  the unpacked tuple
+     */
+    static Comparable [] unpackTuple (ByteBuffer buf, int pos, Class [] dom)
+    {
+        Comparable [] tup = new Comparable [dom.length];
+        for (int j = 0; j < dom.length; j++) {
+            switch (dom [j].getSimpleName ()) {
+            case "Integer":   tup [j] = buf.getInt (pos);      break;
+            case "Long":      tup [j] = buf.getLong (pos);     break;
+            case "Short":     tup [j] = buf.getShort (pos);    break;
+            case "Byte":      tup [j] = buf.get (pos);         break;
+            case "Double":    tup [j] = buf.getDouble (pos);   break;
+            case "Float":     tup [j] = buf.getFloat (pos);    break;
+            case "Character": tup [j] = buf.getChar (pos);     break;
+            case "String":
+                int len = buf.getShort (pos) & 0xffff;
+                if (buf.hasArray ()) {
+                    tup [j] = new String (buf.array (), buf.arrayOffset () + pos + 2, len,
+                                          StandardCharsets.UTF_8);
+                } else {
+                    byte [] b = new byte [len];
+                    for (int k = 0; k < len; k++) b [k] = buf.get (pos + 2 + k);
+                    tup [j] = new String (b, StandardCharsets.UTF_8);
+                } // if
+                pos += 2 + len;
+                continue;
+            default:
+                throw new IllegalArgumentException ("unpackTuple: unsupported domain " + dom [j]);
+            } // switch
+            pos += fieldSize (dom [j]);
+        } // for
+        return tup;
+    } // unpackTuple
+
+    /************************************************************************************
+     * Return the number of bytes a packed value of the given domain occupies (at most,
+     * for String).
+     *
+     * @param c  the domain (class) of the value
+     * @return  the size of the packed value in bytes
+     */
+    private static int fieldSize (Class c)
+    {
+        switch (c.getSimpleName ()) {
+        case "Integer":   return Integer.BYTES;
+        case "Long":      return Long.BYTES;
+        case "Short":     return Short.BYTES;
+        case "Byte":      return Byte.BYTES;
+        case "Double":    return Double.BYTES;
+        case "Float":     return Float.BYTES;
+        case "Character": return Character.BYTES;
+        case "String":    return STRING_SIZE;
+        default:
+            throw new IllegalArgumentException ("fieldSize: unsupported domain " + c);
+        } // switch
+    } // fieldSize
 
     //----------------------------------------------------------------------------------
     // Private Methods
     //----------------------------------------------------------------------------------
 
+    /************************************************************************************
+     * Add the tuple to the table and its index (without logging).
+     *
+     * @param tup  the tuple to add
+     */
+    private void apply (Comparable [] tup)
+    {
+        tuples.add (tup);
+        if (mType != MapType.NO_MAP) indexRow (tup, tuples.size () - 1, match (key));
+        for (Map.Entry <String, BpTreeMap <KeyType, PostingList>> e : secondary.entrySet ()) {
+            e.getValue ().add (new KeyType (extract (tup, e.getKey ().split (" "))), tuples.size () - 1);
+        } // for
+    } // apply
+
+    /************************************************************************************
+     * Open this table's write-ahead log and replay the inserts logged after the snapshot
+     * the table was loaded from.
+     *
+     * @param lsn  the LSN of the last insert covered by the snapshot
+     */
+    private void recover (long lsn)
+            throws IOException
+    {
+        wal = new WriteAheadLog (DIR + name + LOG_EXT, lsn);
+        int size = recordSize (domain);
+        for (WriteAheadLog.Record r : wal.scan ()) {
+            if (r.lsn > lsn && r.type == WriteAheadLog.INSERT) {
+                apply (convertByteArrayToTuple (r.payload, size, domain));
+            } // if
+        } // for
+    } // recover
+
+    /************************************************************************************
+     * Return the primary key of the tuple.
+     *
+     * @param tup   the tuple
+     * @param cols  the column positions of the key attributes
+     * @return  the key of the tuple
+     */
+    private KeyType keyOf (Comparable [] tup, int [] cols)
+    {
+        Comparable [] keyVal = new Comparable [cols.length];
+        for (int j = 0; j < keyVal.length; j++) keyVal [j] = tup [cols [j]];
+        return new KeyType (keyVal);
+    } // keyOf
+
+    /************************************************************************************
+     * Add the tuple in the given row to the index.  A disk-resident index keeps just
+     * the row number, while other indices keep the tuple itself.
+     *
+     * @param tup   the tuple
+     * @param row   the row (position in tuples) holding the tuple
+     * @param cols  the column positions of the key attributes
+     */
+    private void indexRow (Comparable [] tup, int row, int [] cols)
+    {
+        if (index instanceof DiskBpTreeMap) ((DiskBpTreeMap) index).putRow (keyOf (tup, cols), row);
+        else                                index.put (keyOf (tup, cols), tup);
+    } // indexRow
+
+    /************************************************************************************
+     * Add all the tuples of this table to its index.  An empty B+Tree index (including
+     * a LongBpTreeMap) is bulk loaded bottom-up from the (key, tuple) pairs in key order,
+     * which are sorted first unless the tuples are already in key order.  For duplicate
+     * keys, the last tuple wins.  Other indices get one put per tuple.
+     */
+    @SuppressWarnings("unchecked")
+    private void indexAll ()
+    {
+        if (mType == MapType.NO_MAP || tuples.isEmpty ()) return;
+        int [] cols = match (key);
+        boolean bulk = (index instanceof BpTreeMap || index instanceof LongBpTreeMap) && index.isEmpty ();
+        if (! bulk) {
+            int row = 0;
+            for (Comparable [] tup : tuples) indexRow (tup, row++, cols);
+            return;
+        } // if
+
+        List <Map.Entry <KeyType, Comparable []>> entries = new ArrayList <> (tuples.size ());
+        boolean inOrder = true;
+        for (Comparable [] tup : tuples) {
+            KeyType k = keyOf (tup, cols);
+            if (inOrder && ! entries.isEmpty () && entries.get (entries.size () - 1).getKey ().compareTo (k) >= 0) {
+                inOrder = false;
+            } // if
+            entries.add (new AbstractMap.SimpleImmutableEntry <> (k, tup));
+        } // for
+        if (! inOrder) {
+            entries.sort (Map.Entry.comparingByKey ());                    // stable: keeps insertion order
+            int m = 0;
+            for (Map.Entry <KeyType, Comparable []> e : entries) {        // drop all but the last duplicate
+                if (m > 0 && entries.get (m - 1).getKey ().compareTo (e.getKey ()) == 0) m--;
+                entries.set (m++, e);
+            } // for
+            entries.subList (m, entries.size ()).clear ();
+        } // if
+        if (index instanceof LongBpTreeMap) {
+            ((LongBpTreeMap <Comparable []>) index).bulkLoad (entries.iterator (), BpTreeMap.FILL_FACTOR);
+        } else {
+            ((BpTreeMap <KeyType, Comparable []>) index).bulkLoad (entries.iterator (), BpTreeMap.FILL_FACTOR);
+        } // if
+    } // indexAll
+
     /************************************************************************************
      * Determine whether the two tables (this and table2) are compatible, i.e., have
      * the same number of attributes each with the same corresponding domain.
@@ -59,9 +59,18 @@ public class Tester {
             duration /= 1000000.0;
             System.out.println("Hash join took " + duration + " milliseconds to complete.");
 
+            //Test IndexJoin using a secondary (non-unique) index on the foreign key
+            tables[1].create_index("profId");
+            begin = System.nanoTime();
+            tempTable = tables[0].i_join("id", "profId", tables[1]);
+            end = System.nanoTime();
+            duration = end - begin;
+            duration /= 1000000.0;
+            System.out.println("Index join (secondary index) took " + duration + " milliseconds to complete.");
+
             //Test Sequential Range Select
             begin = System.nanoTime();
-            tempTable = tables[0].select(t -> t[0].compareTo(id) >= 0 && t[0].compareTo(id2) <= 0);
+            tempTable = tables[0].range_select("id", id, id2);
 
             end = System.nanoTime();
             duration = (end - begin);
@@ -71,7 +80,7 @@ public class Tester {
 
             //Test Range Select
             begin = System.nanoTime();
-            tempTable = tables[0].index_select(t -> t[0].compareTo(id) >= 0 && t[0].compareTo(id2) <= 0);
+            tempTable = tables[0].range_select(new KeyType(id), new KeyType(id2));
 
             end = System.nanoTime();
             duration = (end - begin);
@@ -0,0 +1,316 @@
+
+/************************************************************************************
+ * @file WriteAheadLog.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * The WriteAheadLog class provides an append-only log of data manipulation records
+ * (e.g., inserted tuples) for a table.  Each record gets a log sequence number (LSN)
+ * and is durable once commit returns for it.  Commits use group commit: while one
+ * writer forces the log to disk, records appended by other writers accumulate and
+ * are forced together by the next writer, so one fsync covers a whole batch.
+ * On restart, the records after the last snapshot of the table are replayed.
+ */
+public class WriteAheadLog
+{
+    /** Record type for an inserted tuple.
+     */
+    public static final byte INSERT = 1;
+
+    /** Magic number ("WAL1") starting a log file.
+     */
+    private static final int MAGIC = 0x57414c31;
+
+    /** The size of the file header (the magic number) in bytes.
+     */
+    private static final int HEADER_SIZE = Integer.BYTES;
+
+    /** The size of the per record overhead: length, LSN, type and checksum.
+     */
+    private static final int OVERHEAD = Integer.BYTES + Long.BYTES + Byte.BYTES + Integer.BYTES;
+
+    /********************************************************************************
+     * This inner class defines the records read back from the log.
+     */
+    public static class Record
+    {
+        public final long    lsn;                          // log sequence number
+        public final byte    type;                         // type of record, e.g., INSERT
+        public final byte [] payload;                      // record contents
+
+        /****************************************************************************
+         * Construct a log record.
+         * @param _lsn      the log sequence number
+         * @param _type     the type of record
+         * @param _payload  the record contents
+         */
+        Record (long _lsn, byte _type, byte [] _payload)
+        {
+            lsn     = _lsn;
+            type    = _type;
+            payload = _payload;
+        } // constructor
+
+    } // Record inner class
+
+    /** The channel for the log file
+     */
+    private final FileChannel channel;
+
+    /** Records appended but not yet written to the log file
+     */
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream ();
+
+    /** The LSN of the last appended record
+     */
+    private long lastLsn;
+
+    /** The LSN up to which all records are durable
+     */
+    private long durableLsn;
+
+    /** Whether a writer is currently writing and forcing a batch
+     */
+    private boolean flushing = false;
+
+    /** Counters for the number of records committed and fsyncs performed (for
+     *  performance testing)
+     */
+    private long commits = 0, syncs = 0;
+
+    /********************************************************************************
+     * Open (or create) the log in the given file.  Records that are torn or corrupt
+     * at the end of the file (from a crash) are truncated away.
+     * @param fileName  the name of the log file
+     * @param startLsn  the LSN to continue numbering from (e.g., that of the snapshot)
+     */
+    public WriteAheadLog (String fileName, long startLsn)
+            throws IOException
+    {
+        channel = FileChannel.open (Paths.get (fileName), StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size () < HEADER_SIZE) {
+            ByteBuffer hdr = ByteBuffer.allocate (HEADER_SIZE).putInt (MAGIC);
+            hdr.flip ();
+            channel.truncate (0);
+            channel.write (hdr, 0);
+            channel.force (true);
+        } // if
+        lastLsn = startLsn;
+        long end = HEADER_SIZE;
+        for (Record r : scan ()) {
+            lastLsn = Math.max (lastLsn, r.lsn);
+            end += OVERHEAD + r.payload.length;
+        } // for
+        if (end < channel.size ()) channel.truncate (end);
+        channel.position (end);
+        durableLsn = lastLsn;
+    } // constructor
+
+    /********************************************************************************
+     * Append a record to the log (it is not durable until committed).
+     * @param type     the type of record
+     * @param payload  the record contents
+     * @return  the LSN assigned to the record
+     */
+    public synchronized long append (byte type, byte [] payload)
+    {
+        long lsn = ++lastLsn;
+        ByteBuffer rec = ByteBuffer.allocate (OVERHEAD + payload.length);
+        rec.putInt (payload.length).putLong (lsn).put (type).put (payload);
+        rec.putInt (checksum (rec.array (), Integer.BYTES, Long.BYTES + Byte.BYTES + payload.length));
+        pending.write (rec.array (), 0, rec.capacity ());
+        return lsn;
+    } // append
+
+    /********************************************************************************
+     * Wait until the record with the given LSN (and all before it) is durable.  If no
+     * other writer is flushing, this writer writes and forces all pending records
+     * (its own and those of any other writers) with a single fsync.
+     * @param lsn  the LSN of the record to commit
+     */
+    public void commit (long lsn)
+    {
+        byte [] batch;
+        long    upTo;
+        synchronized (this) {
+            commits++;
+            while (durableLsn < lsn && flushing) {
+                try {
+                    wait ();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread ().interrupt ();
+                    throw new IllegalStateException ("WriteAheadLog.commit: interrupted", ex);
+                } // try
+            } // while
+            if (durableLsn >= lsn) return;
+            flushing = true;
+            batch    = pending.toByteArray ();
+            upTo     = lastLsn;
+            pending.reset ();
+        } // synchronized
+
+        boolean ok = false;
+        try {
+            ByteBuffer buf = ByteBuffer.wrap (batch);
+            while (buf.hasRemaining ()) channel.write (buf);
+            channel.force (false);
+            ok = true;
+        } catch (IOException ex) {
+            throw new UncheckedIOException ("WriteAheadLog.commit: unable to write log", ex);
+        } finally {
+            synchronized (this) {
+                flushing = false;
+                if (ok) { durableLsn = upTo; syncs++; }
+                notifyAll ();
+            } // synchronized
+        } // try
+    } // commit
+
+    /********************************************************************************
+     * Return the LSN of the last appended record.
+     * @return  the last LSN
+     */
+    public synchronized long lastLsn ()
+    {
+        return lastLsn;
+    } // lastLsn
+
+    /********************************************************************************
+     * Discard all records, as they are covered by a durable snapshot of the table
+     * (the caller must prevent records from being appended meanwhile).
+     */
+    public synchronized void truncate ()
+    {
+        while (flushing) {
+            try {
+                wait ();
+            } catch (InterruptedException ex) {
+                Thread.currentThread ().interrupt ();
+                throw new IllegalStateException ("WriteAheadLog.truncate: interrupted", ex);
+            } // try
+        } // while
+        try {
+            channel.truncate (HEADER_SIZE);
+            channel.position (HEADER_SIZE);
+            channel.force (true);
+        } catch (IOException ex) {
+            throw new UncheckedIOException ("WriteAheadLog.truncate: unable to truncate log", ex);
+        } // try
+        pending.reset ();
+        durableLsn = lastLsn;
+        notifyAll ();
+    } // truncate
+
+    /********************************************************************************
+     * Read the valid records in the log file, stopping at the first torn or corrupt
+     * record.
+     * @return  the list of records in LSN order
+     */
+    public synchronized List <Record> scan ()
+            throws IOException
+    {
+        List <Record> records = new ArrayList <> ();
+        ByteBuffer    buf     = ByteBuffer.allocate ((int) channel.size ());
+        while (buf.hasRemaining () && channel.read (buf, buf.position ()) > 0) ;
+        buf.flip ();
+        if (buf.remaining () < HEADER_SIZE || buf.getInt () != MAGIC) {
+            throw new IOException ("WriteAheadLog.scan: not a log file");
+        } // if
+        while (buf.remaining () >= OVERHEAD) {
+            int start = buf.position ();
+            int len   = buf.getInt ();
+            if (len < 0 || len > buf.remaining () - OVERHEAD + Integer.BYTES) break;
+            long    lsn     = buf.getLong ();
+            byte    type    = buf.get ();
+            byte [] payload = new byte [len];
+            buf.get (payload);
+            if (buf.getInt () != checksum (buf.array (), start + Integer.BYTES, Long.BYTES + Byte.BYTES + len)) break;
+            records.add (new Record (lsn, type, payload));
+        } // while
+        return records;
+    } // scan
+
+    /********************************************************************************
+     * Close the log after committing any pending records.
+     */
+    public void close ()
+    {
+        commit (lastLsn ());
+        try {
+            channel.close ();
+        } catch (IOException ex) {
+            out.println ("WriteAheadLog.close: unable to close - " + ex);
+        } // try
+    } // close
+
+    /********************************************************************************
+     * Print the performance counters.
+     */
+    public synchronized void printStats ()
+    {
+        out.println ("WriteAheadLog: commits = " + commits + ", fsyncs = " + syncs
+                   + ", records per fsync = " + (syncs == 0 ? 0.0 : commits / (double) syncs));
+    } // printStats
+
+    /********************************************************************************
+     * Compute the CRC-32 checksum of part of a byte array.
+     * @param b    the byte array
+     * @param off  the offset of the part
+     * @param len  the length of the part
+     * @return  the checksum
+     */
+    private static int checksum (byte [] b, int off, int len)
+    {
+        CRC32 crc = new CRC32 ();
+        crc.update (b, off, len);
+        return (int) crc.getValue ();
+    } // checksum
+
+    /********************************************************************************
+     * The main method used for testing: several threads insert into a logged table,
+     * after which the table is recovered from its snapshot and log.
+     * @param args  the command-line arguments (args [0] gives the number of threads)
+     */
+    public static void main (String [] args)
+            throws InterruptedException
+    {
+        int nThreads = (args.length == 1) ? Integer.valueOf (args [0]) : 8;
+        int perThread = 1000;
+
+        Table t = new Table ("walTest", "id name", "Integer String", "id");
+        t.openLog ();
+        Thread [] threads = new Thread [nThreads];
+        long begin = System.nanoTime ();
+        for (int k = 0; k < nThreads; k++) {
+            final int base = k * perThread;
+            threads [k] = new Thread (() -> {
+                for (int i = base; i < base + perThread; i++) t.insert (new Comparable [] { i, "name" + i });
+            });
+            threads [k].start ();
+        } // for
+        for (Thread th : threads) th.join ();
+        double secs = (System.nanoTime () - begin) / 1E9;
+        out.println ("inserts per second = " + nThreads * perThread / secs);
+        t.printLogStats ();
+
+        Table r = Table.load ("walTest");
+        out.println ("recovered tuples = " + r.getTuple ().size () + ", tuple 42 = "
+                   + Arrays.toString (r.index.get (new KeyType (42))));
+        r.closeLog ();
+        new File ("store/walTest.dbf").delete ();
+        new File ("store/walTest.wal").delete ();
+    } // main
+
+} // WriteAheadLog class